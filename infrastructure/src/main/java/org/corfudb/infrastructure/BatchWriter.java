@@ -1,50 +1,108 @@
 package org.corfudb.infrastructure;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.github.benmanes.caffeine.cache.CacheWriter;
 import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.slf4j.Slf4j;
 import org.corfudb.infrastructure.log.LogAddress;
 import org.corfudb.infrastructure.log.StreamLog;
+import org.corfudb.infrastructure.log.StreamLogFiles;
 import org.corfudb.protocols.wireprotocol.LogData;
-import org.corfudb.runtime.exceptions.DataOutrankedException;
-import org.corfudb.runtime.exceptions.OverwriteException;
 
 import javax.annotation.Nonnull;
-import java.util.LinkedList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * BatchWriter is a class that will intercept write-through calls to batch and
  * sync writes.
+ * <p>
+ * Writes are group committed: a write processor appends the queued operations to the
+ * stream log and syncs them together, as decided by the {@link SyncPolicy}. The
+ * writes of a batch are handed to the stream log together, so that it can write
+ * them out with as few system calls as possible. The futures of a batch only
+ * complete once the whole batch is durable.
+ * <p>
+ * Operations are partitioned between the write processors by log segment, or by stream
+ * for stream addresses, so the operations on an address are always applied in order
+ * while writes to different segments proceed in parallel.
  */
 @Slf4j
 public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
 
-    static final int BATCH_SIZE = 50;
+    static final SyncPolicy DEFAULT_SYNC_POLICY = new SyncPolicy(SyncPolicy.Type.RECORDS,
+            SyncPolicy.DEFAULT_BATCH_RECORDS);
+    private static final String metricsPrefix = "corfu.server.logunit.batchwriter.";
+
     private StreamLog streamLog;
-    private BlockingQueue<BatchWriterOperation> operationsQueue;
-    final ExecutorService writerService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
-            .setDaemon(false)
-            .setNameFormat("LogUnit-Write-Processor-%d")
-            .build());
+    private final SyncPolicy syncPolicy;
+    private final Histogram batchSizes;
+    private final Timer syncTimer;
+    private final List<BlockingQueue<BatchWriterOperation>> operationsQueues;
+    final ExecutorService writerService;
 
     public BatchWriter(StreamLog streamLog) {
+        this(streamLog, DEFAULT_SYNC_POLICY, 1, ServerContext.getMetrics());
+    }
+
+    /**
+     * @param streamLog       The stream log to write to.
+     * @param syncPolicy      When to sync the writes to secondary storage.
+     * @param writeProcessors The number of write processors, at least one.
+     * @param metrics         The registry to report the batch size and sync latency to.
+     * @throws IllegalArgumentException if there are no write processors.
+     */
+    public BatchWriter(StreamLog streamLog, SyncPolicy syncPolicy, int writeProcessors, MetricRegistry metrics) {
+        if (writeProcessors < 1) {
+            throw new IllegalArgumentException("Invalid number of write processors " + writeProcessors
+                    + ", there must be at least one");
+        }
         this.streamLog = streamLog;
-        operationsQueue = new LinkedBlockingQueue<>();
-        writerService.submit(this::batchWriteProcessor);
+        this.syncPolicy = syncPolicy;
+        batchSizes = metrics.histogram(metricsPrefix + "batch-size");
+        syncTimer = metrics.timer(metricsPrefix + "sync");
+        writerService = Executors.newFixedThreadPool(writeProcessors, new ThreadFactoryBuilder()
+                .setDaemon(false)
+                .setNameFormat("LogUnit-Write-Processor-%d")
+                .build());
+
+        operationsQueues = new ArrayList<>(writeProcessors);
+        for (int x = 0; x < writeProcessors; x++) {
+            BlockingQueue<BatchWriterOperation> operationsQueue = new LinkedBlockingQueue<>();
+            operationsQueues.add(operationsQueue);
+            writerService.submit(() -> batchWriteProcessor(operationsQueue));
+        }
+    }
+
+    /**
+     * Get the queue of the write processor responsible for an address.
+     *
+     * @param logAddress The address of the operation.
+     * @return The queue to add the operation to.
+     */
+    private BlockingQueue<BatchWriterOperation> getOperationsQueue(LogAddress logAddress) {
+        long shard = logAddress.getStream() == null
+                ? logAddress.getAddress() / StreamLogFiles.RECORDS_PER_LOG_FILE
+                : logAddress.getStream().hashCode();
+        return operationsQueues.get((int) Math.floorMod(shard, (long) operationsQueues.size()));
     }
 
     @Override
     public void write(@Nonnull K key, @Nonnull V value) {
         try {
             CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.WRITE,
+            getOperationsQueue((LogAddress) key).add(new BatchWriterOperation(BatchWriterOperation.Type.WRITE,
                     (LogAddress) key, (LogData) value, cf));
             cf.get();
         } catch (Exception e) {
@@ -60,7 +118,8 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
     public void trim(@Nonnull LogAddress logAddress) {
         try {
             CompletableFuture<Void> cf = new CompletableFuture();
-            operationsQueue.add(new BatchWriterOperation(BatchWriterOperation.Type.TRIM, logAddress, null, cf));
+            getOperationsQueue(logAddress).add(new BatchWriterOperation(BatchWriterOperation.Type.TRIM,
+                    logAddress, null, cf));
             cf.get();
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -79,29 +138,90 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
         }
     }
 
-    private void batchWriteProcessor() {
+    /**
+     * Make a batch of operations durable according to the sync policy, and then
+     * complete their futures.
+     *
+     * @param batch The operations processed since the last sync.
+     */
+    private void commit(List<BatchWriterOperation> batch, List<BatchWriterOperation> pendingWrites) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        appendPendingWrites(pendingWrites);
+        try (Timer.Context ignored = syncTimer.time()) {
+            streamLog.sync(syncPolicy.isDurable());
+        } catch (Exception e) {
+            log.error("Failed to sync {} writes", batch.size(), e);
+            for (BatchWriterOperation operation : batch) {
+                if (operation.getException() == null) {
+                    operation.setException(e);
+                }
+            }
+        }
+        batchSizes.update(batch.size());
+        log.trace("Sync'd {} writes", batch.size());
+
+        for (BatchWriterOperation operation : batch) {
+            handleOperationResults(operation);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Append the writes queued since the last append to the stream log, as one batch.
+     *
+     * @param pendingWrites The writes to append.
+     */
+    private void appendPendingWrites(List<BatchWriterOperation> pendingWrites) {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+
+        List<Map.Entry<LogAddress, LogData>> entries = new ArrayList<>(pendingWrites.size());
+        for (BatchWriterOperation operation : pendingWrites) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(operation.getLogAddress(), operation.getLogData()));
+        }
+
+        try {
+            List<Exception> results = streamLog.append(entries);
+            for (int x = 0; x < pendingWrites.size(); x++) {
+                pendingWrites.get(x).setException(results.get(x));
+            }
+        } catch (Exception e) {
+            for (BatchWriterOperation operation : pendingWrites) {
+                operation.setException(e);
+            }
+        }
+        pendingWrites.clear();
+    }
+
+    private void batchWriteProcessor(BlockingQueue<BatchWriterOperation> operationsQueue) {
         try {
-            BatchWriterOperation lastOp = null;
-            int processed = 0;
-            List<BatchWriterOperation> res = new LinkedList();
+            List<BatchWriterOperation> batch = new ArrayList<>();
+            List<BatchWriterOperation> pendingWrites = new ArrayList<>();
+            long batchBytes = 0;
+            long batchStart = 0;
 
             while (true) {
                 BatchWriterOperation currOp;
 
-                if (lastOp == null) {
+                if (batch.isEmpty()) {
                     currOp = operationsQueue.take();
                 } else {
                     currOp = operationsQueue.poll();
-
-                    if (currOp == null || processed == BATCH_SIZE || currOp == BatchWriterOperation.SHUTDOWN) {
-                        streamLog.sync(true);
-                        log.trace("Sync'd {} writes", processed);
-
-                        for (BatchWriterOperation operation : res) {
-                            handleOperationResults(operation);
+                    if (currOp == null) {
+                        // Wait for the rest of the group, if the policy allows the batch to linger
+                        long remaining = batchStart + syncPolicy.getLingerNanos() - System.nanoTime();
+                        if (remaining > 0) {
+                            currOp = operationsQueue.poll(remaining, TimeUnit.NANOSECONDS);
                         }
-                        res.clear();
-                        processed = 0;
+                    }
+
+                    if (currOp == null || currOp == BatchWriterOperation.SHUTDOWN) {
+                        commit(batch, pendingWrites);
+                        batchBytes = 0;
                     }
                 }
 
@@ -110,32 +230,38 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
                     break;
                 }
                 if (currOp == null) {
-                    lastOp = null;
                     continue;
                 }
 
+                if (batch.isEmpty()) {
+                    batchStart = System.nanoTime();
+                }
+
                 if (currOp.getType() == BatchWriterOperation.Type.TRIM) {
-                    streamLog.trim(currOp.getLogAddress());
-                    currOp.setException(null);
-                    res.add(currOp);
-                } else if (currOp.getType() == BatchWriterOperation.Type.WRITE) {
+                    // Trims apply to the writes queued before them
+                    appendPendingWrites(pendingWrites);
                     try {
-                        streamLog.append(currOp.getLogAddress(), currOp.getLogData());
+                        streamLog.trim(currOp.getLogAddress());
                         currOp.setException(null);
-                        res.add(currOp);
-                    } catch (OverwriteException | DataOutrankedException e) {
-                        currOp.setException(e);
-                        res.add(currOp);
                     } catch (Exception e) {
                         currOp.setException(e);
-                        res.add(currOp);
                     }
+                    batch.add(currOp);
+                } else if (currOp.getType() == BatchWriterOperation.Type.WRITE) {
+                    // Writes are appended together, when the batch is synced or a trim is queued
+                    batchBytes += currOp.getLogData().getData() == null ? 0 : currOp.getLogData().getData().length;
+                    pendingWrites.add(currOp);
+                    batch.add(currOp);
                 } else {
                     log.warn("Unknown BatchWriterOperation {}", currOp);
                 }
 
-                processed++;
-                lastOp = currOp;
+                if (syncPolicy.isBatchFull(batch.size(), batchBytes)
+                        || (syncPolicy.getLingerNanos() > 0
+                        && System.nanoTime() - batchStart >= syncPolicy.getLingerNanos())) {
+                    commit(batch, pendingWrites);
+                    batchBytes = 0;
+                }
             }
         } catch (Exception e) {
             log.error("Caught exception in the write processor {}", e);
@@ -144,7 +270,9 @@ public class BatchWriter<K, V> implements CacheWriter<K, V>, AutoCloseable {
 
     @Override
     public void close() {
-        operationsQueue.add(BatchWriterOperation.SHUTDOWN);
+        for (BlockingQueue<BatchWriterOperation> operationsQueue : operationsQueues) {
+            operationsQueue.add(BatchWriterOperation.SHUTDOWN);
+        }
         writerService.shutdown();
     }
 
@@ -0,0 +1,312 @@
+package org.corfudb.infrastructure;
+
+import lombok.extern.slf4j.Slf4j;
+import org.corfudb.runtime.view.Address;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A window of the latest global address at which each conflict key was written.
+ * <p>
+ * A conflict key is fingerprinted by the full 128 bits of its stream ID and a 64-bit hash
+ * of its conflict parameter, so keys of different streams never collide, and keys of the
+ * same stream only collide if their parameters hash alike. The fingerprints and addresses
+ * are kept in parallel primitive arrays, indexed with open addressing and linear probing,
+ * so an entry costs 32 bytes and no object.
+ * <p>
+ * The window is a ring of {@link #EPOCHS} epochs, each covering a fixed range of addresses.
+ * When writes move past the end of the ring, the oldest epoch expires and its keys are
+ * evicted. When the table would outgrow its bound in bytes, the oldest epochs are evicted
+ * early. An eviction raises the wildcard of the streams of the evicted keys to the latest
+ * address among them: a key which is not in the table may have been written as late as the
+ * wildcard of its stream. The keys of other streams are not affected.
+ * <p>
+ * The table is not thread safe, the sequencer only accesses it from its allocation loop.
+ */
+@Slf4j
+public class ConflictTable {
+
+    /** The number of epochs in the window. */
+    static final int EPOCHS = 16;
+
+    /** The size of an entry, its fingerprint and its address. */
+    static final int ENTRY_BYTES = 4 * Long.BYTES;
+
+    /** An estimate of the size of the wildcard of a stream, as a hash map entry. */
+    static final int WILDCARD_BYTES = 96;
+
+    /** The fraction of the bound the wildcards of the streams may take, before they are merged. */
+    private static final int WILDCARD_BYTES_DIVISOR = 8;
+
+    static final int INITIAL_CAPACITY = 1024;
+
+    /** The golden ratio, which spreads similar fingerprints across the table. */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /** Marks an empty slot, no key is ever written at a negative address. */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final long maxBytes;
+    private final long epochSize;
+
+    private long[] mostSigBits;
+    private long[] leastSigBits;
+    private long[] keys;
+    private long[] addresses;
+    private int mask;
+    private int size = 0;
+
+    /** The number of keys written in each epoch of the ring. */
+    private final int[] epochKeys = new int[EPOCHS];
+
+    /** The oldest epoch in the window. */
+    private long oldestEpoch = 0;
+
+    /** The wildcards of the streams which had keys evicted. */
+    private final Map<UUID, Long> streamWildcards = new HashMap<>();
+
+    /** The wildcard of every stream, raised by resets and when stream wildcards are merged. */
+    private long wildcard = Address.NOT_FOUND;
+
+    private long evictions = 0;
+
+    /**
+     * @param maxBytes The maximum size of the table, in bytes.
+     * @param window   The number of addresses the window covers.
+     */
+    public ConflictTable(long maxBytes, long window) {
+        this.maxBytes = maxBytes;
+        this.epochSize = Math.max(window / EPOCHS, 1);
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Get the latest address at which a conflict key was written.
+     *
+     * @param streamID The stream of the key.
+     * @param key      The hash of the conflict parameter.
+     * @return The address, or {@link Address#NOT_FOUND} if the key is not in the table.
+     */
+    public long get(UUID streamID, long key) {
+        int slot = find(streamID.getMostSignificantBits(), streamID.getLeastSignificantBits(), key);
+        return slot < 0 ? Address.NOT_FOUND : addresses[slot];
+    }
+
+    /**
+     * Record that a conflict key was written at an address.
+     *
+     * @param streamID The stream of the key.
+     * @param key      The hash of the conflict parameter.
+     * @param address  The global address of the write.
+     */
+    public void put(UUID streamID, long key, long address) {
+        long epoch = address / epochSize;
+        if (epoch - EPOCHS >= oldestEpoch) {
+            evictEpochsBefore(epoch - EPOCHS + 1);
+        }
+        if (epoch < oldestEpoch) {
+            // Older than the window, as if it was evicted right away
+            raiseWildcard(streamID, address);
+            return;
+        }
+
+        long msb = streamID.getMostSignificantBits();
+        long lsb = streamID.getLeastSignificantBits();
+        int slot = find(msb, lsb, key);
+        if (slot >= 0) {
+            epochKeys[ring(addresses[slot] / epochSize)]--;
+            epochKeys[ring(epoch)]++;
+            addresses[slot] = address;
+            return;
+        }
+
+        // Keep the table at most half full, so probe sequences stay short
+        while ((size + 1) * 2 > addresses.length) {
+            if ((long) addresses.length * 2 * ENTRY_BYTES <= maxBytes) {
+                rebuild(addresses.length * 2, Address.NOT_FOUND);
+            } else {
+                evictOldestEpoch(epoch);
+            }
+        }
+        insert(msb, lsb, key, address);
+        epochKeys[ring(epoch)]++;
+    }
+
+    /**
+     * @param streamID A stream.
+     * @return The latest address at which a key of the stream which is not in the table may
+     * have been written, or {@link Address#NOT_FOUND} if no key of the stream was evicted.
+     */
+    public long getWildcard(UUID streamID) {
+        Long streamWildcard = streamWildcards.get(streamID);
+        return streamWildcard == null ? wildcard : Math.max(streamWildcard, wildcard);
+    }
+
+    /**
+     * Drop every key, and assume they were all written as late as a new wildcard.
+     *
+     * @param wildcard The new wildcard of every stream.
+     */
+    public void reset(long wildcard) {
+        allocate(INITIAL_CAPACITY);
+        size = 0;
+        Arrays.fill(epochKeys, 0);
+        streamWildcards.clear();
+        this.wildcard = wildcard;
+        oldestEpoch = Math.max(wildcard, 0) / epochSize;
+    }
+
+    /**
+     * @return The number of keys in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The size of the table and of the wildcards of the streams, in bytes.
+     */
+    public long getBytes() {
+        return (long) addresses.length * ENTRY_BYTES + (long) streamWildcards.size() * WILDCARD_BYTES;
+    }
+
+    /**
+     * @return The wildcard of every stream.
+     */
+    public long getWildcard() {
+        return wildcard;
+    }
+
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    private static int ring(long epoch) {
+        return (int) (epoch % EPOCHS);
+    }
+
+    /**
+     * Evict the oldest epoch which holds keys. If only the epoch being written holds keys,
+     * the bound is too small for the writes of an epoch, and all the keys are evicted
+     * without moving the window.
+     */
+    private void evictOldestEpoch(long currentEpoch) {
+        long epoch = oldestEpoch;
+        while (epoch < currentEpoch && epochKeys[ring(epoch)] == 0) {
+            epoch++;
+        }
+        if (epoch < currentEpoch) {
+            log.debug("evictOldestEpoch: table is full at {} bytes, evicting epoch {}", getBytes(), epoch);
+            evictEpochsBefore(epoch + 1);
+        } else {
+            log.warn("evictOldestEpoch: table is full at {} bytes within epoch {}, evicting every key",
+                    getBytes(), epoch);
+            int before = size;
+            rebuild(addresses.length, Long.MAX_VALUE);
+            evictions += before - size;
+            epochKeys[ring(currentEpoch)] = 0;
+        }
+    }
+
+    /**
+     * Move the window so it starts at a new oldest epoch, evicting the keys written before it.
+     */
+    private void evictEpochsBefore(long newOldestEpoch) {
+        boolean hasKeys = false;
+        for (long epoch = oldestEpoch; epoch < newOldestEpoch && epoch < oldestEpoch + EPOCHS; epoch++) {
+            hasKeys |= epochKeys[ring(epoch)] > 0;
+            epochKeys[ring(epoch)] = 0;
+        }
+        oldestEpoch = newOldestEpoch;
+        if (hasKeys) {
+            int before = size;
+            rebuild(addresses.length, newOldestEpoch * epochSize);
+            evictions += before - size;
+        }
+    }
+
+    /**
+     * Assume every key of a stream which is not in the table may have been written as late as
+     * an address.
+     *
+     * @param streamID The stream.
+     * @param address  The latest address at which a key of the stream may have been written.
+     */
+    public void raiseWildcard(UUID streamID, long address) {
+        streamWildcards.merge(streamID, address, Math::max);
+        if ((long) streamWildcards.size() * WILDCARD_BYTES > maxBytes / WILDCARD_BYTES_DIVISOR) {
+            // Too many streams had keys evicted, merge their wildcards into the one of every stream
+            for (long streamWildcard : streamWildcards.values()) {
+                wildcard = Math.max(wildcard, streamWildcard);
+            }
+            log.warn("raiseWildcard: merged the wildcards of {} streams, wildcard is now {}",
+                    streamWildcards.size(), wildcard);
+            streamWildcards.clear();
+        }
+    }
+
+    private void allocate(int capacity) {
+        mostSigBits = new long[capacity];
+        leastSigBits = new long[capacity];
+        keys = new long[capacity];
+        addresses = new long[capacity];
+        Arrays.fill(addresses, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private int home(long msb, long lsb, long key) {
+        long hash = ((msb * HASH_MULTIPLIER + lsb) * HASH_MULTIPLIER + key) * HASH_MULTIPLIER;
+        return (int) (hash ^ (hash >>> Integer.SIZE)) & mask;
+    }
+
+    /**
+     * @return The slot holding a key, or -1 if it is not in the table.
+     */
+    private int find(long msb, long lsb, long key) {
+        for (int slot = home(msb, lsb, key); addresses[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key && leastSigBits[slot] == lsb && mostSigBits[slot] == msb) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long msb, long lsb, long key, long address) {
+        int slot = home(msb, lsb, key);
+        while (addresses[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        mostSigBits[slot] = msb;
+        leastSigBits[slot] = lsb;
+        keys[slot] = key;
+        addresses[slot] = address;
+        size++;
+    }
+
+    /**
+     * Move the keys written at or after a cutoff address into new arrays of a given capacity,
+     * and evict the others into the wildcards of their streams.
+     */
+    private void rebuild(int capacity, long cutoff) {
+        long[] oldMostSigBits = mostSigBits;
+        long[] oldLeastSigBits = leastSigBits;
+        long[] oldKeys = keys;
+        long[] oldAddresses = addresses;
+
+        allocate(capacity);
+        size = 0;
+        for (int slot = 0; slot < oldAddresses.length; slot++) {
+            if (oldAddresses[slot] == EMPTY) {
+                continue;
+            }
+            if (oldAddresses[slot] >= cutoff) {
+                insert(oldMostSigBits[slot], oldLeastSigBits[slot], oldKeys[slot], oldAddresses[slot]);
+            } else {
+                raiseWildcard(new UUID(oldMostSigBits[slot], oldLeastSigBits[slot]), oldAddresses[slot]);
+            }
+        }
+    }
+}
@@ -98,7 +98,7 @@ public class CorfuServer {
             "Corfu Server, the server for the Corfu Infrastructure.\n"
                     + "\n"
                     + "Usage:\n"
-                    + "\tcorfu_server (-l <path>|-m) [-nsQ] [-a <address>] [-t <token>] [-c <ratio>] [-k seconds] [-d <level>] [-p <seconds>] [-M <address>:<port>] [-e [-u <keystore> -f <keystore_password_file>] [-r <truststore> -w <truststore_password_file>] [-b] [-g -o <username_file> -j <password_file>] [-x <ciphers>] [-z <tls-protocols>]] <port>\n"
+                    + "\tcorfu_server (-l <path>|-m) [-nsQ] [-a <address>] [-t <token>] [--conflict-window=<addresses>] [--conflict-table-bytes=<bytes>] [--checkpoint-interval=<tokens>] [-c <ratio>] [--off-heap-cache-bytes=<bytes>] [--prefetch-records=<count>] [--max-mapped-bytes=<bytes>] [--max-open-segments=<count>] [--cold-log-path=<path>] [--cold-segment-age=<segments>] [--cold-migration-interval=<seconds>] [--compaction-rate=<bytes>] [--sync-policy=<policy>] [--write-processors=<count>] [-k seconds] [-d <level>] [-p <seconds>] [-M <address>:<port>] [-e [-u <keystore> -f <keystore_password_file>] [-r <truststore> -w <truststore_password_file>] [-b] [-g -o <username_file> -j <password_file>] [-x <ciphers>] [-z <tls-protocols>]] <port>\n"
                     + "\n"
                     + "Options:\n"
                     + " -l <path>, --log-path=<path>                                                           Set the path to the storage file for the log unit.\n"
@@ -111,10 +111,39 @@ public class CorfuServer {
                     + "                                                                                        (e.g. ratio = 0.5 means the cache size will be 0.5 * jvm max heap size\n"
                     + "                                                                                        If there is no log, then this will be the size of the log unit\n"
                     + "                                                                                        evicted entries will be auto-trimmed. [default: 0.5].\n"
+                    + " --off-heap-cache-bytes=<bytes>                                                         Serve reads from a cache of serialized entries kept off the java heap,\n"
+                    + "                                                                                        of at most this many bytes. The in-memory cache then only holds\n"
+                    + "                                                                                        entries on their way in. 0 disables the off-heap cache [default: 0].\n"
+                    + " --prefetch-records=<count>                                                             Prefetch this many records of the segment after a read which continues\n"
+                    + "                                                                                        the previous read of a client. 0 disables prefetching [default: 0].\n"
+                    + " --max-mapped-bytes=<bytes>                                                             Memory-map sealed log segments to serve reads, keeping at most this many\n"
+                    + "                                                                                        bytes mapped. 0 disables memory-mapped reads [default: 0].\n"
+                    + " --max-open-segments=<count>                                                            The maximum number of log segments to keep open, in addition to the\n"
+                    + "                                                                                        tail segment. Least recently used segments are closed [default: 256].\n"
+                    + " --cold-log-path=<path>                                                                 Move sealed log segments to block-compressed files in this directory\n"
+                    + "                                                                                        once they are old enough, reads are served from them transparently.\n"
+                    + " --cold-segment-age=<segments>                                                          Move a sealed segment to the cold log path once it is this many segments\n"
+                    + "                                                                                        behind the tail segment [default: 4].\n"
+                    + " --cold-migration-interval=<seconds>                                                    How often, in seconds, sealed segments are checked for migration to\n"
+                    + "                                                                                        the cold log path [default: 60].\n"
+                    + " --compaction-rate=<bytes>                                                              Limit the rate trimmed log segments are compacted at, in bytes per\n"
+                    + "                                                                                        second. 0 doesn't limit the rate [default: 0].\n"
+                    + " --sync-policy=<policy>                                                                 When to sync writes to secondary storage: records:<n> after n records,\n"
+                    + "                                                                                        bytes:<n> after n bytes, micros:<t> at most every t microseconds,\n"
+                    + "                                                                                        or never (testing only) [default: records:50].\n"
+                    + " --write-processors=<count>                                                             The number of threads writing to the log, at least 1. Writes are\n"
+                    + "                                                                                        partitioned between them by log segment, or by stream [default: 1].\n"
                     + " -t <token>, --initial-token=<token>                                                    The first token the sequencer will issue, or -1 to recover\n"
                     + "                                                                                        from the log. [default: -1].\n"
-                    + " -p <seconds>, --compact=<seconds>                                                      The rate the log unit should compact entries (find the,\n"
-                    + "                                                                                        contiguous tail) in seconds [default: 60].\n"
+                    + " --conflict-window=<addresses>                                                          The sequencer tracks the conflict keys written in this many of the\n"
+                    + "                                                                                        latest addresses. Older transactions on the streams of evicted keys\n"
+                    + "                                                                                        are aborted [default: 1000000].\n"
+                    + " --conflict-table-bytes=<bytes>                                                         The maximum size of the conflict keys the sequencer tracks. The oldest\n"
+                    + "                                                                                        keys are evicted early when it is reached [default: 67108864].\n"
+                    + " --checkpoint-interval=<tokens>                                                         The sequencer checkpoints the tails of the streams to its data store\n"
+                    + "                                                                                        after issuing this many tokens, so it can be recovered [default: 100000].\n"
+                    + " -p <seconds>, --compact=<seconds>                                                      How often, in seconds, the log unit checks full log segments for\n"
+                    + "                                                                                        trimmed entries to compact [default: 60].\n"
                     + " -d <level>, --log-level=<level>                                                        Set the logging level, valid levels are: \n"
                     + "                                                                                        ERROR,WARN,INFO,DEBUG,TRACE [default: INFO].\n"
                     + " -Q, --quickcheck-test-mode                                                             Run in QuickCheck test mode\n"
@@ -1,134 +1,129 @@
 package org.corfudb.infrastructure;
 
-import com.github.benmanes.caffeine.cache.*;
-import lombok.Getter;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.extern.slf4j.Slf4j;
+import org.corfudb.format.Types.DataStoreEntry;
+import org.corfudb.format.Types.Metadata;
+import org.corfudb.infrastructure.log.Crc32c;
+import org.corfudb.infrastructure.log.StreamLogFiles;
 import org.corfudb.util.JSONUtils;
 
-import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Stores data as JSON.
  *
  * Handle in-memory and persistent case differently:
  *
- * In in-memory mode, the "cache" is actually the store, so we never evict anything from it.
+ * The store is always an in-memory map, which is read without locks.
  *
- * In persistent mode, we use a {@link LoadingCache}, where an in-memory map is backed by disk.
- * In this scheme, the key for each value is also the name of the file where the value is stored.
- * The key is determined as (prefix + "_" + key).
- * The cache here serves mostly for easily managed synchronization of in-memory/file.
+ * In persistent mode, every update is also appended to a checksummed journal under the log
+ * path, before it is applied to the map. The key for each value is determined as
+ * (prefix + "_" + key). An update returns once the journal is synced, and concurrent updates
+ * share a single sync. Every {@link #SNAPSHOT_RECORDS} records, the map is written out as a
+ * snapshot which replaces the journal, so restart recovery reads at most one snapshot and a
+ * bounded journal. A store written in the former file-per-key layout is imported when it is
+ * first opened.
  * <p>
  * If 'opts' either has '--memory=true' or a log-path for storing files is not provided,
- * the store is just an in memory cache.
+ * the store is just an in memory map.
  * <p>
  * Created by mdhawan on 7/27/16.
  */
+@Slf4j
 public class DataStore implements IDataStore {
 
+    static final String JOURNAL_FILE = "datastore.journal";
+    static final String SNAPSHOT_FILE = "datastore.snapshot";
+
+    /**
+     * The number of records the journal grows to before it is replaced by a snapshot.
+     */
+    static final int SNAPSHOT_RECORDS = 1_000;
+
+    /**
+     * The prefixes of the keys stored in the file-per-key layout, as written by the
+     * layout, management and sequencer servers and the server context.
+     */
+    static final List<String> KEY_FILE_PREFIXES = Arrays.asList("LAYOUT", "LAYOUTS", "PHASE_1",
+            "PHASE_2", "MANAGEMENT", "SEQUENCER", "SERVER_EPOCH", "TAIL_SEGMENT", "TRIM_MARK");
+
+    private static final String metricsPrefix = "corfu.server.datastore.";
+
     private final Map<String, Object> opts;
     private final boolean isPersistent;
-    @Getter
-    private final LoadingCache<String, String> cache;
     private final String logDir;
 
-    @Getter
-    private final long DS_CACHE_SZ = 1_000; // size bound for in-memory cache for dataStore
+    private final Map<String, String> map = new ConcurrentHashMap<>();
+
+    /** Serializes updates, so the journal is in the order the updates were applied in. */
+    private final Object writeLock = new Object();
+
+    /** Serializes syncs of the journal. */
+    private final Object syncLock = new Object();
+
+    private FileChannel journal;
+    private int journalRecords = 0;
+
+    /** Set if a failed write could not be undone, after which updates are rejected. */
+    private volatile boolean failed = false;
+
+    /** The number of records appended, and the number of records known to be durable. */
+    private volatile long appended = 0;
+    private volatile long synced = 0;
 
+    private final Timer putTimer;
+    private final Timer syncTimer;
+    private final Timer recoveryTimer;
+    private final Counter snapshots;
 
     public DataStore(Map<String, Object> opts) {
         this.opts = opts;
+        putTimer = ServerContext.getMetrics().timer(metricsPrefix + "put");
+        syncTimer = ServerContext.getMetrics().timer(metricsPrefix + "sync");
+        recoveryTimer = ServerContext.getMetrics().timer(metricsPrefix + "recovery");
+        snapshots = ServerContext.getMetrics().counter(metricsPrefix + "snapshots");
 
         if ((opts.get("--memory") != null && (Boolean) opts.get("--memory"))
                 || opts.get("--log-path") == null) {
             // in-memory dataSture case
             isPersistent = false;
             this.logDir = null;
-            cache = buildMemoryDS();
         } else {
             // persistent dataSture case
             isPersistent = true;
             this.logDir = (String) opts.get("--log-path");
-            cache = buildPersistentDS();
+            try (Timer.Context context = recoveryTimer.time()) {
+                recover();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
-    /**
-     * obtain an in-memory cache, no content loader, no writer, no size limit.
-     * @return
-     */
-    private LoadingCache<String, String> buildMemoryDS() {
-        LoadingCache<String, String> cache = Caffeine
-                .newBuilder()
-                .recordStats()
-                .build(k -> null);
-        return cache;
-    }
-
-    /**
-     * obtain a {@link LoadingCache}.
-     * The cache is backed up by file-per-key uner {@link DataStore::logDir}.
-     * The cache size is bounded by {@link DataStore::DS_CACHE_SZ}.
-     *
-     * @return the cache object
-     */
-    private LoadingCache<String, String> buildPersistentDS() {
-        LoadingCache<String, String> cache = Caffeine.newBuilder()
-                .recordStats()
-                .writer(new CacheWriter<String, String>() {
-                    @Override
-                    public synchronized void write(@Nonnull String key, @Nonnull String value) {
-                        try {
-                            Path path = Paths.get(logDir + File.separator + key);
-                            Files.write(path, value.getBytes());
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-
-                    @Override
-                    public synchronized void delete(@Nonnull String key, @Nullable String value, @Nonnull RemovalCause cause) {
-                        try {
-                            Path path = Paths.get(logDir + File.separator + key);
-                            Files.deleteIfExists(path);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-                })
-            .maximumSize(DS_CACHE_SZ)
-            .build(key -> {
-                    try {
-                        Path path = Paths.get(logDir + File.separator + key);
-                        if (Files.notExists(path)) {
-                            return null;
-                        }
-                        return new String(Files.readAllBytes(path));
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                });
-
-        return cache;
-    }
-
     @Override
-    public synchronized  <T> void put(Class<T> tClass, String prefix, String key, T value) {
-        cache.put(getKey(prefix, key), JSONUtils.parser.toJson(value, tClass));
+    public <T> void put(Class<T> tClass, String prefix, String key, T value) {
+        update(getKey(prefix, key), JSONUtils.parser.toJson(value, tClass));
     }
 
     @Override
-    public synchronized  <T> T get(Class<T> tClass, String prefix, String key) {
-        String json = cache.get(getKey(prefix, key));
-        return getObject(json, tClass);
+    public <T> T get(Class<T> tClass, String prefix, String key) {
+        return getObject(map.get(getKey(prefix, key)), tClass);
     }
 
     /**
@@ -143,14 +138,26 @@ public class DataStore implements IDataStore {
      */
     public <T> T get(Class<T> tClass, String prefix, String key, T value) {
         String keyString = getKey(prefix, key);
-        String json = cache.get(keyString, k -> JSONUtils.parser.toJson(value, tClass));
+        String json = map.get(keyString);
+        if (json == null) {
+            long record;
+            synchronized (writeLock) {
+                json = map.get(keyString);
+                if (json != null) {
+                    return getObject(json, tClass);
+                }
+                json = JSONUtils.parser.toJson(value, tClass);
+                record = append(keyString, json);
+            }
+            commit(record);
+        }
         return getObject(json, tClass);
     }
 
     @Override
-    public synchronized  <T> List<T> getAll(Class<T> tClass, String prefix) {
+    public <T> List<T> getAll(Class<T> tClass, String prefix) {
         List<T> list = new ArrayList<T>();
-        for (Map.Entry<String, String> entry : cache.asMap().entrySet()) {
+        for (Map.Entry<String, String> entry : map.entrySet()) {
             if (entry.getKey().startsWith(prefix)) {
                 list.add(getObject(entry.getValue(), tClass));
             }
@@ -159,8 +166,261 @@ public class DataStore implements IDataStore {
     }
 
     @Override
-    public synchronized <T> void delete(Class<T> tClass, String prefix, String key) {
-        cache.invalidate(getKey(prefix, key));
+    public <T> void delete(Class<T> tClass, String prefix, String key) {
+        update(getKey(prefix, key), null);
+    }
+
+    /**
+     * Set a key to a value, or delete it if the value is null, and wait for the update
+     * to be durable.
+     */
+    private void update(String key, String value) {
+        try (Timer.Context context = putTimer.time()) {
+            long record;
+            synchronized (writeLock) {
+                record = append(key, value);
+            }
+            commit(record);
+        }
+    }
+
+    /**
+     * Append an update to the journal and apply it, replacing the journal with a snapshot
+     * when it is full. Must be called holding the write lock.
+     *
+     * @return The number of records appended, including this update.
+     */
+    private long append(String key, String value) {
+        if (isPersistent) {
+            DataStoreEntry.Builder entry = DataStoreEntry.newBuilder().setKey(key);
+            if (value == null) {
+                entry.setDeleted(true);
+            } else {
+                entry.setValue(value);
+            }
+            if (failed) {
+                throw new IllegalStateException("Data store journal under " + logDir
+                        + " failed, rejecting updates");
+            }
+            long position;
+            try {
+                position = journal.position();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            try {
+                writeRecord(journal, entry.build());
+            } catch (IOException | RuntimeException e) {
+                truncateJournal(position);
+                throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+            }
+            journalRecords++;
+        }
+
+        if (value == null) {
+            map.remove(key);
+        } else {
+            map.put(key, value);
+        }
+        appended++;
+
+        if (isPersistent && journalRecords >= SNAPSHOT_RECORDS) {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return appended;
+    }
+
+    /**
+     * Truncate the journal back to where a failed write started, so a partially written
+     * record does not hide the records appended after it from replay. If the journal
+     * can't be truncated, the store rejects further updates. Must be called holding the
+     * write lock.
+     */
+    private void truncateJournal(long position) {
+        try {
+            journal.truncate(position);
+            journal.position(position);
+        } catch (IOException | RuntimeException e) {
+            log.error("truncateJournal: failed to truncate the journal to {}, rejecting further updates",
+                    position, e);
+            failed = true;
+        }
+    }
+
+    /**
+     * Wait for the journal to be durable up to a record. A sync covers every record
+     * appended before it started, so concurrent updates are committed together.
+     */
+    private void commit(long record) {
+        if (!isPersistent || synced >= record) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= record) {
+                return;
+            }
+            long target = appended;
+            try (Timer.Context context = syncTimer.time()) {
+                journal.force(false);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            synced = target;
+        }
+    }
+
+    /**
+     * Write out the map as a snapshot, and replace the journal with an empty one. The map
+     * holds the effect of the whole journal, so if the journal is replayed over the new
+     * snapshot after a crash, the result is the same. Must be called holding the write lock.
+     */
+    private void snapshot() throws IOException {
+        Path snapshotPath = Paths.get(logDir, SNAPSHOT_FILE);
+        Path tempPath = Paths.get(logDir, SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                writeRecord(channel, DataStoreEntry.newBuilder()
+                        .setKey(entry.getKey())
+                        .setValue(entry.getValue())
+                        .build());
+            }
+            channel.force(true);
+        }
+        Files.move(tempPath, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        journal.truncate(0);
+        journal.force(true);
+        journalRecords = 0;
+        synced = appended;
+        snapshots.inc();
+    }
+
+    /**
+     * Load the snapshot and replay the journal, dropping a torn record at the end of the
+     * journal. A store in the file-per-key layout is imported into a snapshot.
+     */
+    private void recover() throws IOException {
+        Path snapshotPath = Paths.get(logDir, SNAPSHOT_FILE);
+        Path journalPath = Paths.get(logDir, JOURNAL_FILE);
+        Files.createDirectories(journalPath.getParent());
+        boolean isNew = Files.notExists(snapshotPath) && Files.notExists(journalPath);
+
+        if (Files.exists(snapshotPath)) {
+            try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+                if (replay(channel) != channel.size()) {
+                    throw new IllegalStateException("Corrupt data store snapshot " + snapshotPath);
+                }
+            }
+        }
+        journalRecords = 0;
+
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long end = replay(journal);
+        if (end != journal.size()) {
+            log.warn("recover: dropping {} bytes of torn records at the end of {}",
+                    journal.size() - end, journalPath);
+            journal.truncate(end);
+            journal.force(true);
+        }
+        journal.position(end);
+
+        if (isNew) {
+            importKeyFiles();
+        }
+    }
+
+    /**
+     * Apply the records of a journal or a snapshot to the map.
+     *
+     * @return The position after the last intact record.
+     */
+    private long replay(FileChannel channel) throws IOException {
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer metadataBuf = ByteBuffer.allocate(StreamLogFiles.METADATA_SIZE);
+        while (size - position >= StreamLogFiles.METADATA_SIZE) {
+            metadataBuf.clear();
+            readFully(channel, metadataBuf, position);
+            try {
+                Metadata metadata = Metadata.parseFrom(metadataBuf.array());
+                long recordEnd = position + StreamLogFiles.METADATA_SIZE + metadata.getLength();
+                if (metadata.getLength() < 0 || recordEnd > size) {
+                    break;
+                }
+
+                ByteBuffer recordBuf = ByteBuffer.allocate(metadata.getLength());
+                readFully(channel, recordBuf, position + StreamLogFiles.METADATA_SIZE);
+                if (metadata.getChecksum() != Crc32c.checksum(recordBuf.array())) {
+                    break;
+                }
+
+                DataStoreEntry entry = DataStoreEntry.parseFrom(recordBuf.array());
+                if (entry.getDeleted()) {
+                    map.remove(entry.getKey());
+                } else {
+                    map.put(entry.getKey(), entry.getValue());
+                }
+                journalRecords++;
+                position = recordEnd;
+            } catch (InvalidProtocolBufferException e) {
+                break;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Import the values of a store in the file-per-key layout, where every key was stored
+     * in a file named after it, into a snapshot, and delete the files. Only files named with
+     * a prefix the servers stored keys under are imported, other files are left alone.
+     */
+    private void importKeyFiles() throws IOException {
+        File[] files = new File(logDir).listFiles(file -> file.isFile()
+                && KEY_FILE_PREFIXES.stream().anyMatch(prefix -> file.getName().startsWith(prefix + "_")));
+        if (files == null || files.length == 0) {
+            return;
+        }
+
+        for (File file : files) {
+            map.put(file.getName(), new String(Files.readAllBytes(file.toPath())));
+        }
+        synchronized (writeLock) {
+            snapshot();
+        }
+        for (File file : files) {
+            Files.delete(file.toPath());
+        }
+        log.info("importKeyFiles: imported {} keys into {}", files.length, SNAPSHOT_FILE);
+    }
+
+    private static void writeRecord(FileChannel channel, DataStoreEntry entry) throws IOException {
+        byte[] record = entry.toByteArray();
+        byte[] metadata = Metadata.newBuilder()
+                .setChecksum(Crc32c.checksum(record))
+                .setLength(record.length)
+                .build()
+                .toByteArray();
+        ByteBuffer buf = ByteBuffer.allocate(metadata.length + record.length);
+        buf.put(metadata).put(record).flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + channel);
+            }
+            position += read;
+        }
     }
 
     // Helper methods
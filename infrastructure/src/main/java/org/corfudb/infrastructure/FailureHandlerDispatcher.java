@@ -3,11 +3,17 @@ package org.corfudb.infrastructure;
 import lombok.extern.slf4j.Slf4j;
 import org.corfudb.runtime.CorfuRuntime;
 import org.corfudb.runtime.clients.LogUnitClient;
+import org.corfudb.runtime.clients.SequencerClient;
 import org.corfudb.runtime.exceptions.OutrankedException;
 import org.corfudb.runtime.exceptions.QuorumUnreachableException;
 import org.corfudb.runtime.view.Layout;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -24,6 +30,12 @@ public class FailureHandlerDispatcher {
      */
     private volatile long prepareRank = 1;
 
+    /**
+     * The most addresses the log is scanned for, to recover a new primary sequencer.
+     * If the sequencer is further behind, it is reset instead.
+     */
+    private static final long MAX_SEQUENCER_RECOVERY_SCAN = 1_000_000L;
+
     /**
      * Recover cluster from layout.
      * @param recoveryLayout    Layout to use to recover
@@ -145,7 +157,8 @@ public class FailureHandlerDispatcher {
      * Reconfigures the sequencer.
      * If the primary sequencer has changed in the new layout,
      * the global tail of the log units are queried and used to set
-     * the initial token of the new primary sequencer.
+     * the initial token of the new primary sequencer, which is recovered
+     * with the tails of the streams written since the tail it knows of.
      *
      * @param runtime           Runtime to reconfigure new servers.
      * @param originalLayout    Current layout to get the latest state of servers.
@@ -176,10 +189,88 @@ public class FailureHandlerDispatcher {
             }
             try {
                 // Configuring the new sequencer.
-                newLayout.getSequencer(0).reset(maxTokenRequested + 1).get();
+                recoverSequencer(runtime, originalLayout, newLayout.getSequencer(0), maxTokenRequested + 1);
             } catch (InterruptedException e) {
                 log.error("Sequencer Reset interrupted : {}", e);
             }
         }
     }
+
+    /**
+     * Recovers a sequencer, with the tails of the streams written in the log between the
+     * tail the sequencer knows of and the global tail. If the scan would be too long, or
+     * the log can't be read, the sequencer is reset instead, which conservatively aborts
+     * every transaction and drops every backpointer preceding the global tail.
+     *
+     * @param runtime    Runtime to read the log units with.
+     * @param layout     Layout to read the log with.
+     * @param sequencer  The new primary sequencer.
+     * @param globalTail The first address the sequencer should issue.
+     */
+    private void recoverSequencer(CorfuRuntime runtime, Layout layout, SequencerClient sequencer, long globalTail)
+            throws ExecutionException, InterruptedException {
+        long scanStart = sequencer.nextToken(Collections.emptySet(), 0).get().getTokenValue() + 1;
+        if (globalTail - scanStart > MAX_SEQUENCER_RECOVERY_SCAN) {
+            log.warn("recoverSequencer: sequencer is at {}, too far behind {}, resetting", scanStart, globalTail);
+            sequencer.reset(globalTail).get();
+            return;
+        }
+
+        Map<UUID, Long> streamTails;
+        try {
+            streamTails = scanStreamTails(runtime, layout, scanStart, globalTail);
+        } catch (RuntimeException e) {
+            log.error("recoverSequencer: failed to scan the log from {} to {}, resetting : {}",
+                    scanStart, globalTail, e);
+            sequencer.reset(globalTail).get();
+            return;
+        }
+        sequencer.recover(globalTail, scanStart, streamTails).get();
+    }
+
+    /**
+     * Scans a range of the log for the last address each stream was written at.
+     * Every log unit summarizes the entries it holds in the range, and the log units
+     * of every stripe are asked in parallel. The summaries of all the log units of a
+     * stripe are merged, so an entry which only reached some of them is accounted for,
+     * and the scan fails if none of them responds.
+     *
+     * @param runtime Runtime to reach the log units with.
+     * @param layout  Layout to find the log units in.
+     * @param start   The first address to scan.
+     * @param end     The address to scan up to, exclusive.
+     * @return The last address each stream written in the range was written at.
+     */
+    private Map<UUID, Long> scanStreamTails(CorfuRuntime runtime, Layout layout, long start, long end) {
+        Map<Layout.LayoutStripe, Map<String, CompletableFuture<Map<UUID, Long>>>> summaries = new HashMap<>();
+        for (Layout.LayoutSegment segment : layout.getSegments()) {
+            for (Layout.LayoutStripe stripe : segment.getStripes()) {
+                Map<String, CompletableFuture<Map<UUID, Long>>> stripeSummaries =
+                        summaries.computeIfAbsent(stripe, s -> new HashMap<>());
+                for (String logServer : stripe.getLogServers()) {
+                    stripeSummaries.computeIfAbsent(logServer, server ->
+                            runtime.getRouter(server).getClient(LogUnitClient.class).getStreamTails(start, end));
+                }
+            }
+        }
+
+        Map<UUID, Long> streamTails = new HashMap<>();
+        summaries.forEach((stripe, stripeSummaries) -> {
+            boolean summarized = false;
+            for (Map.Entry<String, CompletableFuture<Map<UUID, Long>>> summary : stripeSummaries.entrySet()) {
+                try {
+                    summary.getValue().get().forEach((streamID, tail) -> streamTails.merge(streamID, tail, Math::max));
+                    summarized = true;
+                } catch (Exception e) {
+                    log.warn("scanStreamTails: failed to summarize [{}, {}) on {} : {}",
+                            start, end, summary.getKey(), e);
+                }
+            }
+            if (!summarized) {
+                throw new IllegalStateException("No log unit of stripe " + stripe.getLogServers()
+                        + " could summarize [" + start + ", " + end + ")");
+            }
+        });
+        return streamTails;
+    }
 }
\ No newline at end of file
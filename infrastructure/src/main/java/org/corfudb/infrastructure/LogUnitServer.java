@@ -2,22 +2,31 @@ package org.corfudb.infrastructure;
 
 import java.io.File;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.github.benmanes.caffeine.cache.RemovalCause;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 
 import lombok.Getter;
@@ -31,10 +40,13 @@ import org.corfudb.protocols.wireprotocol.*;
 import org.corfudb.runtime.exceptions.DataCorruptionException;
 import org.corfudb.runtime.exceptions.DataOutrankedException;
 import org.corfudb.runtime.exceptions.OverwriteException;
+import org.corfudb.runtime.exceptions.TrimmedException;
 import org.corfudb.runtime.exceptions.ValueAdoptedException;
 import org.corfudb.util.MetricsUtils;
 import org.corfudb.util.Utils;
 
+import javax.annotation.Nonnull;
+
 
 /**
  * Created by mwei on 12/10/15.
@@ -78,6 +90,11 @@ public class LogUnitServer extends AbstractServer {
      */
     private final Map<String, Object> opts;
 
+    /**
+     * The number of addresses read from the stream log at once, to summarize the tails of the streams.
+     */
+    private static final int STREAM_TAILS_BATCH = 1_000;
+
     /**
      * Handler for the base server
      */
@@ -92,6 +109,18 @@ public class LogUnitServer extends AbstractServer {
     private final LoadingCache<LogAddress, ILogData> dataCache;
     private final long maxCacheSize;
 
+    /**
+     * If configured, a cache of serialized entries of the global log kept off the java heap.
+     * Entries are moved to it from the data cache once they were written or loaded, so the
+     * data cache only holds entries on their way in, and reads are served from it as is.
+     */
+    private final OffHeapCache offHeapCache;
+
+    /**
+     * If configured, prefetches the records which follow sequential reads into the caches.
+     */
+    private final ReadAhead readAhead;
+
     private final StreamLog streamLog;
 
     private final BatchWriter<LogAddress, ILogData> batchWriter;
@@ -110,12 +139,16 @@ public class LogUnitServer extends AbstractServer {
                     "This should be run for testing purposes only. " +
                     "If you exceed the maximum size of the unit, old entries will be AUTOMATICALLY trimmed. " +
                     "The unit WILL LOSE ALL DATA if it exits.", Utils.convertToByteStringRepresentation(maxCacheSize));
-            streamLog = new InMemoryStreamLog();
+            streamLog = new InMemoryStreamLog(maxCacheSize);
         } else {
             streamLog = new StreamLogFiles(serverContext, (Boolean) opts.get("--no-verify"));
         }
 
-        batchWriter = new BatchWriter(streamLog);
+        SyncPolicy syncPolicy = opts.get("--sync-policy") == null ? BatchWriter.DEFAULT_SYNC_POLICY
+                : SyncPolicy.parse((String) opts.get("--sync-policy"));
+        int writeProcessors = opts.get("--write-processors") == null ? 1
+                : Integer.parseInt((String) opts.get("--write-processors"));
+        batchWriter = new BatchWriter(streamLog, syncPolicy, writeProcessors, serverContext.getMetrics());
 
         dataCache = Caffeine.<LogAddress, ILogData>newBuilder()
                 .<LogAddress, ILogData>weigher((k, v) -> ((LogData)v).getData() == null ? 1 : ((LogData)v).getData().length)
@@ -123,10 +156,54 @@ public class LogUnitServer extends AbstractServer {
                 .removalListener(this::handleEviction)
                 .writer(batchWriter)
                 .recordStats()
-                .build(this::handleRetrieval);
+                .build(new CacheLoader<LogAddress, ILogData>() {
+                    @Override
+                    public ILogData load(@Nonnull LogAddress logAddress) {
+                        return handleRetrieval(logAddress);
+                    }
+
+                    @Override
+                    public Map<LogAddress, ILogData> loadAll(@Nonnull Iterable<? extends LogAddress> logAddresses) {
+                        return handleRetrievalAll(logAddresses);
+                    }
+                });
 
         MetricRegistry metrics = serverContext.getMetrics();
         MetricsUtils.addCacheGauges(metrics, metricsPrefix + "cache.", dataCache);
+
+        long offHeapCacheBytes = opts.get("--off-heap-cache-bytes") == null ? 0
+                : Long.parseLong((String) opts.get("--off-heap-cache-bytes"));
+        if (offHeapCacheBytes > 0) {
+            log.info("Serving reads from an off-heap cache of {}",
+                    Utils.convertToByteStringRepresentation(offHeapCacheBytes));
+            offHeapCache = new OffHeapCache(offHeapCacheBytes);
+            addOffHeapCacheGauges(metrics, metricsPrefix + "offheap-cache.", offHeapCache);
+        } else {
+            offHeapCache = null;
+        }
+
+        int prefetchRecords = opts.get("--prefetch-records") == null ? 0
+                : Integer.parseInt((String) opts.get("--prefetch-records"));
+        readAhead = prefetchRecords > 0 ? new ReadAhead(prefetchRecords, this::prefetch, metrics) : null;
+
+        if (!(Boolean) opts.get("--memory")) {
+            long compactInterval = Long.parseLong((String) opts.get("--compact"));
+            scheduler.scheduleWithFixedDelay(this::compact, compactInterval, compactInterval, TimeUnit.SECONDS);
+        }
+        if (opts.get("--cold-log-path") != null) {
+            long coldMigrationInterval = Long.parseLong((String) opts.get("--cold-migration-interval"));
+            scheduler.scheduleWithFixedDelay(this::migrateColdSegments, coldMigrationInterval,
+                    coldMigrationInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void addOffHeapCacheGauges(MetricRegistry metrics, String name, OffHeapCache cache) {
+        MetricsUtils.addGauges(metrics, name, ImmutableMap.of(
+                "cache-size", (Gauge<Integer>) cache::size,
+                "bytes", (Gauge<Long>) cache::getBytes,
+                "evictions", (Gauge<Long>) cache::getEvictionCount,
+                "hits", (Gauge<Long>) cache::getHitCount,
+                "misses", (Gauge<Long>) cache::getMissCount));
     }
 
     /**
@@ -138,6 +215,74 @@ public class LogUnitServer extends AbstractServer {
         r.sendResponse(ctx, msg, CorfuMsgType.TAIL_RESPONSE.payloadMsg(streamLog.getGlobalTail()));
     }
 
+    /**
+     * Service an incoming request for the last address each stream was written at, within a
+     * range of addresses. The entries are read in batches straight from the stream log, so the
+     * summary doesn't go through the caches, and only the summary is sent back.
+     */
+    @ServerHandler(type = CorfuMsgType.STREAM_TAILS_REQUEST, opTimer = metricsPrefix + "streamTailsReq")
+    public void handleStreamTailsRequest(CorfuPayloadMsg<StreamTailsRequest> msg, ChannelHandlerContext ctx,
+                                         IServerRouter r, boolean isMetricsEnabled) {
+        final long start = msg.getPayload().getStart();
+        final long end = Math.min(msg.getPayload().getEnd(), streamLog.getGlobalTail() + 1);
+        if (start < streamLog.getTrimMark()) {
+            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_TRIMMED.msg());
+            return;
+        }
+
+        Map<UUID, Long> streamTails = new HashMap<>();
+        try {
+            for (long batchStart = start; batchStart < end; batchStart += STREAM_TAILS_BATCH) {
+                List<LogAddress> logAddresses = new ArrayList<>(STREAM_TAILS_BATCH);
+                for (long address = batchStart; address < Math.min(batchStart + STREAM_TAILS_BATCH, end); address++) {
+                    logAddresses.add(new LogAddress(address, null));
+                }
+                // an entry written with a token only lists its streams in its backpointers
+                readUntrimmed(logAddresses).forEach((logAddress, entry) -> {
+                    entry.getStreams().forEach(streamID ->
+                            streamTails.merge(streamID, logAddress.getAddress(), Math::max));
+                    entry.getBackpointerMap().keySet().forEach(streamID ->
+                            streamTails.merge(streamID, logAddress.getAddress(), Math::max));
+                });
+            }
+        } catch (RuntimeException e) {
+            sendReadError(e, msg, ctx, r);
+            return;
+        }
+        log.debug("handleStreamTailsRequest: {} streams written in [{}, {})", streamTails.size(), start, end);
+        r.sendResponse(ctx, msg, CorfuMsgType.STREAM_TAILS_RESPONSE.payloadMsg(new StreamTailsResponse(streamTails)));
+    }
+
+    /**
+     * Read the entries at a set of addresses straight from the stream log, leaving out the
+     * addresses which were trimmed. The addresses are read with a single bulk read, unless
+     * one of them was trimmed, and then one by one.
+     */
+    private Map<LogAddress, LogData> readUntrimmed(List<LogAddress> logAddresses) {
+        try {
+            return streamLog.read(logAddresses);
+        } catch (RuntimeException e) {
+            if (!isTrimmed(e)) {
+                throw e;
+            }
+        }
+
+        Map<LogAddress, LogData> entries = new HashMap<>();
+        for (LogAddress logAddress : logAddresses) {
+            try {
+                LogData entry = streamLog.read(logAddress);
+                if (entry != null) {
+                    entries.put(logAddress, entry);
+                }
+            } catch (RuntimeException e) {
+                if (!isTrimmed(e)) {
+                    throw e;
+                }
+            }
+        }
+        return entries;
+    }
+
     /**
      * Service an incoming write request.
      */
@@ -151,7 +296,9 @@ public class LogUnitServer extends AbstractServer {
         msg.getPayload().clearCommit();
         try {
             if (msg.getPayload().getWriteMode() != WriteMode.REPLEX_STREAM) {
-                dataCache.put(new LogAddress(msg.getPayload().getGlobalAddress(), null), msg.getPayload().getData());
+                LogAddress logAddress = new LogAddress(msg.getPayload().getGlobalAddress(), null);
+                dataCache.put(logAddress, msg.getPayload().getData());
+                moveOffHeap(logAddress, msg.getPayload().getData());
                 r.sendResponse(ctx, msg, CorfuMsgType.WRITE_OK.msg());
             } else {
                 for (UUID streamID : msg.getPayload().getStreamAddresses().keySet()) {
@@ -188,6 +335,7 @@ public class LogUnitServer extends AbstractServer {
                 return;
             } else {
                 entry.getMetadataMap().put(IMetadata.LogUnitMetadataType.COMMIT, msg.getPayload().getCommit());
+                moveOffHeap(new LogAddress(msg.getPayload().getAddress(), null), entry);
             }
         } else {
             for (UUID streamID : msg.getPayload().getStreams().keySet()) {
@@ -210,23 +358,149 @@ public class LogUnitServer extends AbstractServer {
         log.trace("log read: {} {}", msg.getPayload().getStreamID()  == null
                         ? "global" : msg.getPayload().getStreamID(),
                 msg.getPayload().getRange());
+        // Load the whole range with a single bulk read of the stream log
+        List<LogAddress> logAddresses = new ArrayList<>();
+        for (Long l = msg.getPayload().getRange().lowerEndpoint();
+             l < msg.getPayload().getRange().upperEndpoint() + 1L; l++) {
+            logAddresses.add(new LogAddress(l, msg.getPayload().getStreamID()));
+        }
+        readAll(logAddresses, msg, ctx, r);
+        if (readAhead != null) {
+            readAhead.onRead(msg.getClientID(), msg.getPayload().getStreamID(),
+                    msg.getPayload().getRange().lowerEndpoint(), msg.getPayload().getRange().upperEndpoint());
+        }
+    }
+
+    @ServerHandler(type = CorfuMsgType.MULTIPLE_READ_REQUEST, opTimer = metricsPrefix + "multiple-read")
+    private void multipleRead(CorfuPayloadMsg<MultipleReadRequest> msg, ChannelHandlerContext ctx, IServerRouter r,
+                              boolean isMetricsEnabled) {
+        log.trace("log multiple read: {} addresses", msg.getPayload().getAddresses().size());
+        List<LogAddress> logAddresses = new ArrayList<>(msg.getPayload().getAddresses().size());
+        for (Long l : msg.getPayload().getAddresses()) {
+            logAddresses.add(new LogAddress(l, null));
+        }
+        readAll(logAddresses, msg, ctx, r);
+    }
+
+    /**
+     * Read a set of addresses through the cache, loading all the misses with a single
+     * bulk read of the stream log, and respond with an entry for every address.
+     * Entries in the off-heap cache are written to the response as is.
+     */
+    private void readAll(List<LogAddress> logAddresses, CorfuMsg msg, ChannelHandlerContext ctx, IServerRouter r) {
+        // Reads below the trim mark are rejected without touching the caches or the log
+        long trimMark = streamLog.getTrimMark();
+        if (logAddresses.stream().anyMatch(l -> l.getStream() == null && l.getAddress() < trimMark)) {
+            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_TRIMMED.msg());
+            return;
+        }
+
         ReadResponse rr = new ReadResponse();
         try {
-            for (Long l = msg.getPayload().getRange().lowerEndpoint();
-                 l < msg.getPayload().getRange().upperEndpoint() + 1L; l++) {
-                LogAddress logAddress = new LogAddress(l, msg.getPayload().getStreamID());
-                ILogData e = dataCache.get(logAddress);
+            List<LogAddress> misses = logAddresses;
+            if (offHeapCache != null) {
+                misses = new ArrayList<>();
+                for (LogAddress logAddress : logAddresses) {
+                    ByteBuf serialized = logAddress.getStream() == null
+                            ? offHeapCache.get(logAddress.getAddress()) : null;
+                    if (serialized == null) {
+                        misses.add(logAddress);
+                    } else {
+                        rr.putSerialized(logAddress.getAddress(), serialized);
+                    }
+                }
+            }
+            Map<LogAddress, ILogData> entries = dataCache.getAll(misses);
+
+            for (LogAddress logAddress : misses) {
+                Long l = logAddress.getAddress();
+                ILogData e = entries.get(logAddress);
                 if (e == null) {
                     rr.put(l, LogData.EMPTY);
                 } else if (e.getType() == DataType.HOLE) {
                     rr.put(l, LogData.HOLE);
+                    moveOffHeap(logAddress, e);
                 } else {
                     rr.put(l, (LogData)e);
+                    moveOffHeap(logAddress, e);
                 }
             }
             r.sendResponse(ctx, msg, CorfuMsgType.READ_RESPONSE.payloadMsg(rr));
-        } catch (DataCorruptionException e) {
-            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_CORRUPTION.msg());
+        } catch (RuntimeException e) {
+            rr.releaseSerialized();
+            sendReadError(e, msg, ctx, r);
+        }
+    }
+
+    /**
+     * Respond to a read which failed. The stream log and the cache wrap the exceptions
+     * of failed reads, so the response is picked by the cause.
+     */
+    private void sendReadError(RuntimeException e, CorfuMsg msg, ChannelHandlerContext ctx, IServerRouter r) {
+        if (isTrimmed(e)) {
+            r.sendResponse(ctx, msg, CorfuMsgType.ERROR_TRIMMED.msg());
+            return;
+        }
+        boolean corrupted = false;
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            corrupted |= cause instanceof DataCorruptionException;
+        }
+        if (!corrupted) {
+            log.error("sendReadError: failed to read", e);
+        }
+        // the response carries an empty read response, as its type requires
+        r.sendResponse(ctx, msg, CorfuMsgType.ERROR_DATA_CORRUPTION.payloadMsg(new ReadResponse()));
+    }
+
+    /**
+     * @return True if a read failed because an address was trimmed.
+     */
+    private static boolean isTrimmed(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TrimmedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Load the records at a set of addresses ahead of the reads which will request them.
+     * Records which are cached, unwritten or beyond the tail of the global log are skipped.
+     *
+     * @return The addresses which were loaded.
+     */
+    private List<LogAddress> prefetch(List<LogAddress> logAddresses) {
+        long globalTail = streamLog.getGlobalTail();
+        List<LogAddress> misses = new ArrayList<>();
+        for (LogAddress logAddress : logAddresses) {
+            boolean isGlobal = logAddress.getStream() == null;
+            if ((isGlobal && logAddress.getAddress() > globalTail)
+                    || dataCache.getIfPresent(logAddress) != null
+                    || (isGlobal && offHeapCache != null && offHeapCache.contains(logAddress.getAddress()))) {
+                continue;
+            }
+            misses.add(logAddress);
+        }
+        if (misses.isEmpty()) {
+            return misses;
+        }
+
+        Map<LogAddress, ILogData> entries = dataCache.getAll(misses);
+        entries.forEach(this::moveOffHeap);
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * Move an entry of the global log from the data cache to the off-heap cache, if there is one.
+     *
+     * @param logAddress The address of the entry.
+     * @param entry      The entry.
+     */
+    private void moveOffHeap(LogAddress logAddress, ILogData entry) {
+        if (offHeapCache != null && logAddress.getStream() == null) {
+            offHeapCache.put(logAddress.getAddress(), (LogData) entry);
+            dataCache.invalidate(logAddress);
         }
     }
 
@@ -250,6 +524,7 @@ public class LogUnitServer extends AbstractServer {
         LogAddress l = new LogAddress(msg.getPayload().getPrefix(), msg.getPayload().getStream());
         try {
             dataCache.put(l, LogData.HOLE);
+            moveOffHeap(l, LogData.HOLE);
             r.sendResponse(ctx, msg, CorfuMsgType.WRITE_OK.msg());
 
         } catch (OverwriteException e) {
@@ -262,13 +537,30 @@ public class LogUnitServer extends AbstractServer {
         }
     }
 
-    @ServerHandler(type = CorfuMsgType.TRIM)
-    private void trim(CorfuPayloadMsg<TrimRequest> msg, ChannelHandlerContext ctx, IServerRouter r) {
+    @ServerHandler(type = CorfuMsgType.TRIM, opTimer = metricsPrefix + "trim")
+    private void trim(CorfuPayloadMsg<TrimRequest> msg, ChannelHandlerContext ctx, IServerRouter r,
+                      boolean isMetricsEnabled) {
         batchWriter.trim(new LogAddress(msg.getPayload().getPrefix(), msg.getPayload().getStream()));
         //TODO(Maithem): should we return an error if the write fails
         r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
     }
 
+    /**
+     * Service an incoming prefix trim request, which trims the global log up to and
+     * including an address, and drops the trimmed entries from the caches.
+     */
+    @ServerHandler(type = CorfuMsgType.PREFIX_TRIM, opTimer = metricsPrefix + "prefix-trim")
+    private void prefixTrim(CorfuPayloadMsg<Long> msg, ChannelHandlerContext ctx, IServerRouter r,
+                            boolean isMetricsEnabled) {
+        streamLog.prefixTrim(msg.getPayload());
+        long trimMark = streamLog.getTrimMark();
+        dataCache.asMap().keySet().removeIf(l -> l.getStream() == null && l.getAddress() < trimMark);
+        if (offHeapCache != null) {
+            offHeapCache.invalidateBefore(trimMark);
+        }
+        r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
+    }
+
     /**
      * Retrieve the LogUnitEntry from disk, given an address.
      *
@@ -276,16 +568,54 @@ public class LogUnitServer extends AbstractServer {
      * @return The log unit entry to retrieve into the cache.
      * This function should not care about trimmed addresses, as that is handled in
      * the read() and append(). Any address that cannot be retrieved should be returned as
-     * unwritten (null).
+     * unwritten (null). Loads are not serialized, the stream log synchronizes
+     * concurrent access to its segments.
      */
-    public synchronized ILogData handleRetrieval(LogAddress logAddress) {
+    public ILogData handleRetrieval(LogAddress logAddress) {
         LogData entry = streamLog.read(logAddress);
         log.trace("Retrieved[{} : {}]", logAddress, entry);
         return entry;
     }
 
+    /**
+     * Retrieve the entries at several addresses from disk with a single bulk read.
+     *
+     * @param logAddresses The addresses to retrieve the entries from.
+     * @return The entries to retrieve into the cache. Addresses that cannot be
+     * retrieved are left out.
+     */
+    public Map<LogAddress, ILogData> handleRetrievalAll(Iterable<? extends LogAddress> logAddresses) {
+        Map<LogAddress, LogData> entries = streamLog.read(Lists.newArrayList(logAddresses));
+        log.trace("Retrieved[{} entries]", entries.size());
+        return new HashMap<>(entries);
+    }
+
+
+    /**
+     * Compact the segments with enough trimmed entries. Runs on the maintenance
+     * scheduler, which would stop running it on an exception.
+     */
+    private void compact() {
+        try {
+            streamLog.compact();
+        } catch (RuntimeException e) {
+            log.error("Failed to compact the log", e);
+        }
+    }
+
+    /**
+     * Move the sealed segments which are old enough to the cold tier. Runs on the
+     * maintenance scheduler, which would stop running it on an exception.
+     */
+    private void migrateColdSegments() {
+        try {
+            streamLog.migrateColdSegments();
+        } catch (RuntimeException e) {
+            log.error("Failed to move segments to the cold tier", e);
+        }
+    }
 
-    public synchronized void handleEviction(LogAddress logAddress, ILogData entry, RemovalCause cause) {
+    public void handleEviction(LogAddress logAddress, ILogData entry, RemovalCause cause) {
         log.trace("Eviction[{}]: {}", logAddress, cause);
         streamLog.release(logAddress, (LogData) entry);
     }
@@ -296,7 +626,13 @@ public class LogUnitServer extends AbstractServer {
     @Override
     public void shutdown() {
         scheduler.shutdownNow();
+        if (readAhead != null) {
+            readAhead.close();
+        }
         batchWriter.close();
+        if (offHeapCache != null) {
+            offHeapCache.close();
+        }
     }
 
     @VisibleForTesting
@@ -304,6 +640,16 @@ public class LogUnitServer extends AbstractServer {
         return dataCache;
     }
 
+    @VisibleForTesting
+    OffHeapCache getOffHeapCache() {
+        return offHeapCache;
+    }
+
+    @VisibleForTesting
+    ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
     @VisibleForTesting
     long getMaxCacheSize() {
         return maxCacheSize;
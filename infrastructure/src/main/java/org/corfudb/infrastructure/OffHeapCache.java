@@ -0,0 +1,342 @@
+package org.corfudb.infrastructure;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import lombok.extern.slf4j.Slf4j;
+import org.corfudb.protocols.wireprotocol.LogData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A cache of serialized log entries, kept off the java heap.
+ * <p>
+ * Each entry is serialized once into a pooled direct buffer, so that cached entries
+ * don't add to the work of the garbage collector, and a hit can be written to a
+ * response as is, without deserializing and serializing it again.
+ * <p>
+ * Entries are indexed by their global address in an open addressing table with linear
+ * probing, and the table is bounded by the total size of the entries it holds. When it
+ * is full, entries are evicted with the CLOCK algorithm: a hit marks the entry as
+ * referenced, and the clock hand sweeping the table evicts the first entry which wasn't
+ * referenced since the hand last passed it.
+ */
+@Slf4j
+public class OffHeapCache implements AutoCloseable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The golden ratio, which spreads consecutive addresses across the table. */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final long maxBytes;
+
+    private long[] addresses = new long[INITIAL_CAPACITY];
+    private ByteBuf[] entries = new ByteBuf[INITIAL_CAPACITY];
+    private boolean[] referenced = new boolean[INITIAL_CAPACITY];
+    private int mask = INITIAL_CAPACITY - 1;
+    private int hand = 0;
+
+    private int size = 0;
+    private long bytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxBytes The maximum total size of the cached entries, in bytes.
+     */
+    public OffHeapCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the serialized entry at an address.
+     *
+     * @param address The global address of the entry.
+     * @return A retained slice of the serialized entry, which the caller must release,
+     * or null if the entry is not cached.
+     */
+    public ByteBuf get(long address) {
+        lock.readLock().lock();
+        try {
+            int slot = find(address);
+            if (slot < 0) {
+                misses.incrementAndGet();
+                return null;
+            }
+            referenced[slot] = true;
+            hits.incrementAndGet();
+            return entries[slot].retainedSlice();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return True if the entry at an address is cached. Doesn't count as a hit or a miss.
+     */
+    public boolean contains(long address) {
+        lock.readLock().lock();
+        try {
+            return find(address) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Cache an entry, replacing any entry cached at the same address.
+     *
+     * @param address The global address of the entry.
+     * @param entry   The entry to serialize into the cache.
+     */
+    public void put(long address, LogData entry) {
+        ByteBuf buf = allocator.directBuffer();
+        try {
+            entry.doSerialize(buf);
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+
+        if (buf.readableBytes() > maxBytes) {
+            buf.release();
+            invalidate(address);
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            int slot = find(address);
+            if (slot >= 0) {
+                bytes += buf.readableBytes() - entries[slot].readableBytes();
+                entries[slot].release();
+                entries[slot] = buf;
+                referenced[slot] = true;
+            } else {
+                insert(address, buf);
+            }
+
+            while (bytes > maxBytes) {
+                evict();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the entry at an address, if it is cached.
+     *
+     * @param address The global address of the entry.
+     */
+    public void invalidate(long address) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(address);
+            if (slot >= 0) {
+                remove(slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the entries at every address below a bound.
+     *
+     * @param address The first global address to keep.
+     */
+    public void invalidateBefore(long address) {
+        lock.writeLock().lock();
+        try {
+            // Collect the addresses first, since removing an entry shifts back other entries
+            List<Long> removed = new ArrayList<>();
+            for (int slot = 0; slot < entries.length; slot++) {
+                if (entries[slot] != null && addresses[slot] < address) {
+                    removed.add(addresses[slot]);
+                }
+            }
+            for (long a : removed) {
+                remove(find(a));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of cached entries.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The total size of the cached entries, in bytes.
+     */
+    public long getBytes() {
+        lock.readLock().lock();
+        try {
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Release all the cached entries. Slices which were handed out remain valid until
+     * they are released.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            for (int slot = 0; slot < entries.length; slot++) {
+                if (entries[slot] != null) {
+                    entries[slot].release();
+                    entries[slot] = null;
+                }
+            }
+            size = 0;
+            bytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int home(long address) {
+        long hash = address * HASH_MULTIPLIER;
+        return (int) (hash ^ (hash >>> Integer.SIZE)) & mask;
+    }
+
+    /**
+     * @return The slot holding an address, or -1 if it is not cached.
+     */
+    private int find(long address) {
+        for (int slot = home(address); entries[slot] != null; slot = (slot + 1) & mask) {
+            if (addresses[slot] == address) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long address, ByteBuf buf) {
+        // Keep the table at most half full, so probe sequences stay short
+        if ((size + 1) * 2 > entries.length) {
+            resize(entries.length * 2);
+        }
+
+        int slot = home(address);
+        while (entries[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        // New entries start referenced, so they survive the next sweep of the hand
+        addresses[slot] = address;
+        entries[slot] = buf;
+        referenced[slot] = true;
+        size++;
+        bytes += buf.readableBytes();
+    }
+
+    private void resize(int capacity) {
+        long[] oldAddresses = addresses;
+        ByteBuf[] oldEntries = entries;
+        boolean[] oldReferenced = referenced;
+
+        addresses = new long[capacity];
+        entries = new ByteBuf[capacity];
+        referenced = new boolean[capacity];
+        mask = capacity - 1;
+        hand = 0;
+
+        for (int oldSlot = 0; oldSlot < oldEntries.length; oldSlot++) {
+            if (oldEntries[oldSlot] != null) {
+                int slot = home(oldAddresses[oldSlot]);
+                while (entries[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                addresses[slot] = oldAddresses[oldSlot];
+                entries[slot] = oldEntries[oldSlot];
+                referenced[slot] = oldReferenced[oldSlot];
+            }
+        }
+    }
+
+    /**
+     * Advance the clock hand to the first entry which wasn't referenced since the hand last
+     * passed it, clearing the references along the way, and evict it.
+     */
+    private void evict() {
+        while (true) {
+            hand = (hand + 1) & mask;
+            if (entries[hand] == null) {
+                continue;
+            }
+            if (referenced[hand]) {
+                referenced[hand] = false;
+            } else {
+                log.trace("evict: address {}", addresses[hand]);
+                remove(hand);
+                evictions.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the entry in a slot, shifting back the entries which follow it in its probe
+     * sequence, so no tombstones are needed.
+     */
+    private void remove(int slot) {
+        bytes -= entries[slot].readableBytes();
+        entries[slot].release();
+        size--;
+
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (entries[next] == null) {
+                break;
+            }
+            // The entry can fill the free slot if the slot lies between its home and its slot
+            int nextHome = home(addresses[next]);
+            if (((next - nextHome) & mask) >= ((next - slot) & mask)) {
+                addresses[slot] = addresses[next];
+                entries[slot] = entries[next];
+                referenced[slot] = referenced[next];
+                slot = next;
+            }
+        }
+        entries[slot] = null;
+        referenced[slot] = false;
+    }
+}
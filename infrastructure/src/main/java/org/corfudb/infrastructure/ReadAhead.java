@@ -0,0 +1,193 @@
+package org.corfudb.infrastructure;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.corfudb.infrastructure.log.LogAddress;
+import org.corfudb.infrastructure.log.StreamLogFiles;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Detects sequential reads, and prefetches the records which follow them.
+ * <p>
+ * The reads of each client are tracked per stream, or for the global log. A read which
+ * starts right after the previous read of the same client and stream is sequential, and
+ * the records of the segment which follow it are loaded ahead of the next reads, up to
+ * the configured number of records. Prefetches run on a bounded executor, and are dropped
+ * rather than queued without bound when the log unit falls behind.
+ * <p>
+ * Prefetched records are tracked until they are read, which counts as a hit, or until
+ * they are forgotten unread, which counts as waste.
+ */
+@Slf4j
+public class ReadAhead implements AutoCloseable {
+
+    private static final String metricsPrefix = "corfu.server.logunit.prefetch.";
+
+    /** The number of readers whose position is tracked. */
+    private static final int MAX_READERS = 10_000;
+
+    /** How long a reader is tracked after its last read. */
+    private static final long READER_EXPIRY_SECONDS = 60;
+
+    /** The number of prefetched records which are tracked until they are read. */
+    private static final int MAX_TRACKED_RECORDS = 1_000_000;
+
+    private static final int PREFETCH_THREADS = 2;
+    private static final int PREFETCH_QUEUE_SIZE = 64;
+
+    private final int prefetchRecords;
+
+    /**
+     * Loads a set of addresses into the cache, and returns the addresses which were loaded.
+     */
+    private final Function<List<LogAddress>, Collection<LogAddress>> loader;
+
+    private final Cache<Reader, Window> readers;
+    private final Cache<LogAddress, Boolean> prefetched;
+    private final ThreadPoolExecutor executor;
+
+    private final Meter prefetchedRecords;
+    private final Meter hits;
+    private final Meter waste;
+    private final Meter dropped;
+
+    /**
+     * The reads of a client on a stream, or on the global log if the stream is null.
+     */
+    @Data
+    private static class Reader {
+        final UUID clientID;
+        final UUID streamID;
+    }
+
+    /**
+     * The position of a reader, and how far ahead of it records were prefetched.
+     */
+    private static class Window {
+        long next = -1;
+        long prefetchedTo = -1;
+    }
+
+    /**
+     * @param prefetchRecords The number of records to prefetch after a sequential read.
+     * @param loader          Loads a set of addresses into the cache, and returns the
+     *                        addresses which were loaded.
+     * @param metrics         The registry to report the prefetches, hits and waste to.
+     */
+    public ReadAhead(int prefetchRecords, Function<List<LogAddress>, Collection<LogAddress>> loader,
+                     MetricRegistry metrics) {
+        this.prefetchRecords = prefetchRecords;
+        this.loader = loader;
+        prefetchedRecords = metrics.meter(metricsPrefix + "records");
+        hits = metrics.meter(metricsPrefix + "hits");
+        waste = metrics.meter(metricsPrefix + "waste");
+        dropped = metrics.meter(metricsPrefix + "dropped");
+
+        readers = Caffeine.newBuilder()
+                .maximumSize(MAX_READERS)
+                .expireAfterAccess(READER_EXPIRY_SECONDS, TimeUnit.SECONDS)
+                .build();
+        prefetched = Caffeine.newBuilder()
+                .maximumSize(MAX_TRACKED_RECORDS)
+                .expireAfterWrite(READER_EXPIRY_SECONDS, TimeUnit.SECONDS)
+                .executor(Runnable::run)
+                .<LogAddress, Boolean>removalListener((address, value, cause) -> {
+                    if (cause != RemovalCause.EXPLICIT && cause != RemovalCause.REPLACED) {
+                        waste.mark();
+                    }
+                })
+                .build();
+        executor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(PREFETCH_QUEUE_SIZE),
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("LogUnit-Prefetch-%d")
+                        .build(),
+                (task, e) -> dropped.mark());
+    }
+
+    /**
+     * Record a read of a range of addresses, and prefetch the records which follow it
+     * if the read is sequential.
+     *
+     * @param clientID The client which read the range.
+     * @param streamID The stream the addresses belong to, or null for the global log.
+     * @param first    The first address read.
+     * @param last     The last address read.
+     */
+    public void onRead(UUID clientID, UUID streamID, long first, long last) {
+        for (long address = first; address <= last; address++) {
+            if (prefetched.asMap().remove(new LogAddress(address, streamID)) != null) {
+                hits.mark();
+            }
+        }
+
+        Window window = readers.get(new Reader(clientID, streamID), reader -> new Window());
+        long from;
+        long to;
+        synchronized (window) {
+            boolean sequential = first == window.next;
+            window.next = last + 1;
+            if (!sequential) {
+                window.prefetchedTo = last;
+                return;
+            }
+
+            // Stay in the segment of the read, the next segment is prefetched once it is reached
+            long segmentEnd = (last / StreamLogFiles.RECORDS_PER_LOG_FILE + 1)
+                    * StreamLogFiles.RECORDS_PER_LOG_FILE - 1;
+            from = Math.max(last, window.prefetchedTo) + 1;
+            to = Math.min(last + prefetchRecords, segmentEnd);
+            if (from > to) {
+                return;
+            }
+            window.prefetchedTo = to;
+        }
+
+        List<LogAddress> addresses = new ArrayList<>((int) (to - from + 1));
+        for (long address = from; address <= to; address++) {
+            addresses.add(new LogAddress(address, streamID));
+        }
+        executor.execute(() -> prefetch(addresses));
+    }
+
+    private void prefetch(List<LogAddress> addresses) {
+        try {
+            Collection<LogAddress> loaded = loader.apply(addresses);
+            for (LogAddress address : loaded) {
+                prefetched.put(address, Boolean.TRUE);
+            }
+            prefetchedRecords.mark(loaded.size());
+        } catch (RuntimeException e) {
+            // A prefetch is only a hint, the read will load the records or report the error
+            log.debug("prefetch: failed to load {} records from {}", addresses.size(), addresses.get(0), e);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.getCount();
+    }
+
+    public long getPrefetchedCount() {
+        return prefetchedRecords.getCount();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -1,12 +1,14 @@
 package org.corfudb.infrastructure;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.channel.ChannelHandlerContext;
+import lombok.Data;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.corfudb.protocols.wireprotocol.*;
@@ -16,17 +18,25 @@ import org.corfudb.util.MetricsUtils;
 import org.corfudb.util.Utils;
 
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
-import static org.corfudb.util.MetricsUtils.addCacheGauges;
-
 /**
  * This server implements the sequencer functionality of Corfu.
  * <p>
@@ -64,6 +74,31 @@ import static org.corfudb.util.MetricsUtils.addCacheGauges;
  * commits, the sequencer updates the tails of all the streams and the cache
  * of conflict parameters.
  *
+ * Clients coalesce the token requests they issue concurrently into a single
+ * MULTIPLE_TOKEN_REQ, which is served as if its requests were sent one by one,
+ * and is applied by the allocation loop as a single change.
+ *
+ * Queries only read the tails, and are served without locking. Allocations,
+ * transaction commits and resets change the state of the sequencer, so they
+ * are queued and applied in order by a single-writer allocation loop. The
+ * loop runs on whichever handler thread finds it idle, and applies the
+ * queued requests in one batch, so the other handler threads only wait for
+ * their own request to be applied instead of contending for a lock. A batch
+ * is bounded to {@link #MAX_ALLOCATION_BATCH} requests, after which the loop
+ * is handed over to the thread waiting for the oldest queued request, so no
+ * handler thread serves the other clients indefinitely.
+ *
+ * Every {@code --checkpoint-interval} tokens, the allocation loop takes a
+ * copy of the tails of the streams, which is written to the data store of
+ * the server in the background. Only the latest copy is written, so a slow
+ * data store skips checkpoints instead of holding up allocations. A
+ * sequencer started without an initial token restores the latest
+ * checkpoint. A new primary sequencer is recovered with the tails of the
+ * streams written in the log since the tail it knows of, so it keeps
+ * issuing backpointers and only aborts the transactions on the streams
+ * which were written since their snapshot. The stream positions, which
+ * are only used by Replex, are not recovered from the log.
+ *
  * Created by mwei on 12/8/15.
  */
 @Slf4j
@@ -109,33 +144,46 @@ public class SequencerServer extends AbstractServer {
 
     /**  TX conflict-resolution information:
      *
-     * {@link SequencerServer::conflictToGlobalTailCache}:
-     *      a cache of recent conflict keys and their latest global-log
-     *      position.
-     *
-     * {@link SequencerServer::maxConflictWildcard} :
-     *      a "wildcard" representing the maximal update timestamp of
-     *      all the confict keys which were evicted from the cache
+     * {@link SequencerServer::conflictTable}:
+     *      a window of recent conflict keys, fingerprinted by their stream
+     *      and conflict parameter, and their latest global-log position.
+     *      The wildcard of a stream is the maximal update timestamp of all
+     *      its conflict keys which were evicted from the window.
      */
-    private long maxConflictWildcard = Address.NOT_FOUND;
-    private final long maxConflictCacheSize = 1_000_000;
-    private final Cache<Integer, Long>
-            conflictToGlobalTailCache = Caffeine.newBuilder()
-            .maximumSize(maxConflictCacheSize)
-            .removalListener((Integer K, Long V, RemovalCause cause) -> {
-                if (!RemovalCause.REPLACED.equals(cause)) {
-                    log.trace("Updating maxConflictWildcard. Old value = '{}', new value = '{}', conflictParam = '{}'. Removal cause = '{}'",
-                            maxConflictWildcard, V, K, cause);
-                    maxConflictWildcard = Math.max(V, maxConflictWildcard);
-                }
-            })
-            .recordStats()
-            .build();
+    private static final long DEFAULT_CONFLICT_WINDOW = 1_000_000L;
+    private static final long DEFAULT_CONFLICT_TABLE_BYTES = 64L << 20;
+    private final ConflictTable conflictTable;
+
+    /**
+     * The checkpoint which was taken by the allocation loop, and is not written yet.
+     * The global tail of the latest checkpoint taken is only accessed by the allocation loop.
+     */
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 100_000L;
+    private final long checkpointInterval;
+    private final AtomicReference<Checkpoint> pendingCheckpoint = new AtomicReference<>();
+    private long lastCheckpointTail;
+    private static final long CHECKPOINT_SHUTDOWN_SECONDS = 10;
+
+    /** Writes checkpoints to the data store, off the allocation loop. */
+    private final ExecutorService checkpointWriter = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("Sequencer-Checkpoint-%d")
+                    .build());
 
     /** flag indicating whether this sequencer is the bootstrap
      * sequencer for the log, or not.
      */
-    private boolean isFailoverSequencer = false;
+    private volatile boolean isFailoverSequencer = false;
+
+    /** The most changes a handler thread applies in one run of the allocation loop. */
+    static final int MAX_ALLOCATION_BATCH = 1_000;
+
+    /** Allocations and resets, waiting to be applied by the allocation loop. */
+    private final Queue<AllocationTask> allocationQueue = new ConcurrentLinkedQueue<>();
+
+    /** Set while a handler thread runs the allocation loop. */
+    private final AtomicBoolean allocationLoopRunning = new AtomicBoolean(false);
 
     /** Handler for this server */
     @Getter
@@ -145,32 +193,52 @@ public class SequencerServer extends AbstractServer {
     private static final String metricsPrefix = "corfu.server.sequencer.";
     static private Counter counterTokenSum;
     static private Counter counterToken0;
+    private final Histogram allocationBatchSizes;
+    private final Histogram tokenBatchSizes;
+    private final Counter counterAbortConflict;
+    private final Counter counterAbortWildcard;
+    private final Counter counterAbortNewSequencer;
+    private final Timer checkpointTimer;
 
     public SequencerServer(ServerContext serverContext) {
         this.serverContext = serverContext;
         this.opts = serverContext.getServerConfig();
 
+        long conflictWindow = opts.get("--conflict-window") == null ? DEFAULT_CONFLICT_WINDOW
+                : Long.parseLong((String) opts.get("--conflict-window"));
+        long conflictTableBytes = opts.get("--conflict-table-bytes") == null ? DEFAULT_CONFLICT_TABLE_BYTES
+                : Long.parseLong((String) opts.get("--conflict-table-bytes"));
+        conflictTable = new ConflictTable(conflictTableBytes, conflictWindow);
+        checkpointInterval = opts.get("--checkpoint-interval") == null ? DEFAULT_CHECKPOINT_INTERVAL
+                : Long.parseLong((String) opts.get("--checkpoint-interval"));
+
         long initialToken = Utils.parseLong(opts.get("--initial-token"));
         if (Address.nonAddress(initialToken)) {
             globalLogTail.set(0L);
+            restoreCheckpoint();
         } else {
             globalLogTail.set(initialToken);
         }
+        lastCheckpointTail = globalLogTail.get();
 
         MetricRegistry metrics = serverContext.getMetrics();
         counterTokenSum = metrics.counter(metricsPrefix + "token-sum");
         counterToken0 = metrics.counter(metricsPrefix + "token-query");
-        addCacheGauges(metrics, metricsPrefix + "conflict.cache.", conflictToGlobalTailCache);
+        allocationBatchSizes = metrics.histogram(metricsPrefix + "allocation-batch-size");
+        tokenBatchSizes = metrics.histogram(metricsPrefix + "token-batch-size");
+        counterAbortConflict = metrics.counter(metricsPrefix + "abort.conflict");
+        counterAbortWildcard = metrics.counter(metricsPrefix + "abort.wildcard");
+        counterAbortNewSequencer = metrics.counter(metricsPrefix + "abort.new-sequencer");
+        checkpointTimer = metrics.timer(metricsPrefix + "checkpoint");
+        addConflictTableGauges(metrics, metricsPrefix + "conflict.table.", conflictTable);
     }
 
-    /** Get the conflict hash code for a stream ID and conflict param.
-     *
-     * @param streamID          The stream ID.
-     * @param conflictParam     The conflict parameter.
-     * @return                  A conflict hash code.
-     */
-    public int getConflictHashCode(UUID streamID, int conflictParam) {
-            return Objects.hash(streamID, conflictParam);
+    private static void addConflictTableGauges(MetricRegistry metrics, String name, ConflictTable table) {
+        MetricsUtils.addGauges(metrics, name, ImmutableMap.of(
+                "size", (Gauge<Integer>) table::size,
+                "bytes", (Gauge<Long>) table::getBytes,
+                "evictions", (Gauge<Long>) table::getEvictionCount,
+                "wildcard", (Gauge<Long>) table::getWildcard));
     }
 
     /**
@@ -191,10 +259,13 @@ public class SequencerServer extends AbstractServer {
         if (txSnapshotTimestamp < globalLogStart.get()-1) {
             log.debug("ABORT[{}] snapshot-ts[{}] failover-ts[{}]",
                     txSnapshotTimestamp, globalLogStart.get());
+            counterAbortNewSequencer.inc();
             return TokenType.TX_ABORT_NEWSEQ;
         }
 
         AtomicReference<TokenType> response = new AtomicReference<>(TokenType.NORMAL);
+        // a true conflict takes precedence over a wildcard as the cause of an abort
+        AtomicReference<Counter> abortCause = new AtomicReference<>();
 
         for (Map.Entry<UUID, Set<Integer>> entry : txInfo.getConflictSet().entrySet()) {
             if (response.get() != TokenType.NORMAL)
@@ -206,21 +277,21 @@ public class SequencerServer extends AbstractServer {
                 // for each key pair, check for conflict;
                 // if not present, check against the wildcard
                 conflictParamSet.forEach(conflictParam -> {
-                    int conflictKeyHash = getConflictHashCode(entry.getKey(),
-                            conflictParam);
-                    Long v = conflictToGlobalTailCache.getIfPresent(conflictKeyHash);
+                    long v = conflictTable.get(entry.getKey(), conflictParam);
 
                     log.trace("Commit-ck[{}] conflict-key[{}](ts={})", txInfo, conflictParam, v);
 
-                    if (v != null && v > txSnapshotTimestamp ) {
+                    if (v != Address.NOT_FOUND && v > txSnapshotTimestamp ) {
                         log.debug("ABORT[{}] conflict-key[{}](ts={})", txInfo, conflictParam, v);
                         response.set(TokenType.TX_ABORT_CONFLICT);
+                        abortCause.set(counterAbortConflict);
                     }
 
-                    if (v == null && maxConflictWildcard > txSnapshotTimestamp ) {
+                    if (v == Address.NOT_FOUND && conflictTable.getWildcard(entry.getKey()) > txSnapshotTimestamp ) {
                         log.warn("ABORT[{}] conflict-key[{}](WILDCARD ts={})", txInfo, conflictParam,
-                                maxConflictWildcard);
+                                conflictTable.getWildcard(entry.getKey()));
                         response.set(TokenType.TX_ABORT_CONFLICT);
+                        abortCause.compareAndSet(null, counterAbortWildcard);
                     }
                 });
             }
@@ -236,12 +307,16 @@ public class SequencerServer extends AbstractServer {
                         log.debug("ABORT[{}] conflict-stream[{}](ts={})",
                                 txInfo, Utils.toReadableID(streamID), v);
                         response.set(TokenType.TX_ABORT_CONFLICT);
+                        abortCause.set(counterAbortConflict);
                     }
                     return v;
                 });
             }
         }
 
+        if (abortCause.get() != null) {
+            abortCause.get().inc();
+        }
         return response.get();
     }
 
@@ -251,14 +326,11 @@ public class SequencerServer extends AbstractServer {
      * This returns information about the tail of the
      * log and/or streams without changing/allocating anything.
      *
-     * @param msg
-     * @param ctx
-     * @param r
+     * @param req
+     * @param serverEpoch
+     * @return the token response
      */
-    public void handleTokenQuery(CorfuPayloadMsg<TokenRequest> msg,
-                                 ChannelHandlerContext ctx, IServerRouter r) {
-        TokenRequest req = msg.getPayload();
-
+    private TokenResponse handleTokenQuery(TokenRequest req, long serverEpoch) {
         // sanity backward-compatibility assertion; TODO: remove
         if (req.getStreams().size() > 1) {
             log.error("TOKEN-QUERY[{}]", req.getStreams());
@@ -281,19 +353,25 @@ public class SequencerServer extends AbstractServer {
 
         // If no streams are specified in the request, this value returns the last global token issued.
         long responseGlobalTail = (req.getStreams().size() == 0) ? globalLogTail.get() - 1 : maxStreamGlobalTail;
-        Token token = new Token(responseGlobalTail, r.getServerEpoch());
-        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(
-                new TokenResponse(TokenType.NORMAL, token, Collections.emptyMap(), Collections.emptyMap())));
+        Token token = new Token(responseGlobalTail, serverEpoch);
+        return new TokenResponse(TokenType.NORMAL, token, Collections.emptyMap(), Collections.emptyMap());
     }
 
     /**
      * Service an incoming request to reset the sequencer.
      */
     @ServerHandler(type=CorfuMsgType.RESET_SEQUENCER, opTimer=metricsPrefix + "reset")
-    public synchronized void resetServer(CorfuPayloadMsg<Long> msg, ChannelHandlerContext ctx, IServerRouter r,
-                                         boolean isMetricsEnabled) {
-         long initialToken = msg.getPayload();
+    public void resetServer(CorfuPayloadMsg<Long> msg, ChannelHandlerContext ctx, IServerRouter r,
+                            boolean isMetricsEnabled) {
+        runAllocation(() -> reset(msg, ctx, r));
+    }
+
+    private void reset(CorfuPayloadMsg<Long> msg, ChannelHandlerContext ctx, IServerRouter r) {
+        resetTo(msg.getPayload());
+        r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
+    }
 
+    private void resetTo(long initialToken) {
         //
         // if the sequencer is reset, then we can't know when was
         // the latest update to any stream or conflict parameter.
@@ -301,7 +379,7 @@ public class SequencerServer extends AbstractServer {
         // preceding the reset-time of this sequencer.
         //
         // Therefore, we remember the new start tail.
-        // We empty the cache of conflict parameters.
+        // We empty the table of conflict parameters.
         // We set the wildcard to the new start tail.
         //
         // Note, this is correct, but conservative (may lead to false abort).
@@ -311,11 +389,58 @@ public class SequencerServer extends AbstractServer {
             isFailoverSequencer = true;
             globalLogTail.set(initialToken);
             globalLogStart.set(initialToken);
-            maxConflictWildcard = initialToken-1;
-            conflictToGlobalTailCache.invalidateAll();
+            conflictTable.reset(initialToken-1);
         }
 
         log.info("Sequencer reset with token = {}", initialToken);
+    }
+
+    /**
+     * Service an incoming request to recover the sequencer, with the tails of the streams
+     * written in the log since the tail this sequencer knows of.
+     *
+     * Only the global tails of the streams, used for backpointers and conflict resolution,
+     * are recovered. The stream positions in {@code streamTailMap} are
+     * not rebuilt: the log only holds them for entries written through Replex, and the
+     * summary of the log units doesn't carry them. The streams written since the tail
+     * this sequencer knows of restart their stream positions from where the sequencer
+     * left them. A stream missing from both this sequencer and the summary was never
+     * written, so it still gets no backpointer.
+     */
+    @ServerHandler(type=CorfuMsgType.RECOVER_SEQUENCER, opTimer=metricsPrefix + "recover")
+    public void recoverServer(CorfuPayloadMsg<SequencerRecoveryMsg> msg, ChannelHandlerContext ctx,
+                              IServerRouter r, boolean isMetricsEnabled) {
+        runAllocation(() -> recover(msg, ctx, r));
+    }
+
+    private void recover(CorfuPayloadMsg<SequencerRecoveryMsg> msg, ChannelHandlerContext ctx, IServerRouter r) {
+        SequencerRecoveryMsg recovery = msg.getPayload();
+
+        //
+        // if the scan started past our tail, some streams may have been written
+        // in between, and we fall back to a conservative reset.
+        //
+        // otherwise, we know the tail of every stream. The conflict parameters
+        // written since our tail are not in the log, so every conflict parameter
+        // of a stream which was written may have been written as late as the
+        // tail of the stream.
+        //
+        if (recovery.getScanStart() > globalLogTail.get()) {
+            log.warn("recover: scan started at {}, past the tail {}, resetting",
+                    recovery.getScanStart(), globalLogTail.get());
+            resetTo(recovery.getGlobalTail());
+        } else {
+            // the stream positions can't be recovered from the summary, see above
+            recovery.getStreamTails().forEach((streamID, tail) -> {
+                streamTailToGlobalTailMap.merge(streamID, tail, Math::max);
+                conflictTable.raiseWildcard(streamID, tail);
+            });
+            if (recovery.getGlobalTail() > globalLogTail.get()) {
+                globalLogTail.set(recovery.getGlobalTail());
+            }
+            log.info("Sequencer recovered with token = {}, {} streams written since {}",
+                    globalLogTail.get(), recovery.getStreamTails().size(), recovery.getScanStart());
+        }
         r.sendResponse(ctx, msg, CorfuMsgType.ACK.msg());
     }
 
@@ -323,35 +448,255 @@ public class SequencerServer extends AbstractServer {
      * Service an incoming token request.
      */
     @ServerHandler(type=CorfuMsgType.TOKEN_REQ, opTimer=metricsPrefix + "token-req")
-    public synchronized void tokenRequest(CorfuPayloadMsg<TokenRequest> msg,
-                                          ChannelHandlerContext ctx, IServerRouter r,
-                                          boolean isMetricsEnabled) {
+    public void tokenRequest(CorfuPayloadMsg<TokenRequest> msg,
+                             ChannelHandlerContext ctx, IServerRouter r,
+                             boolean isMetricsEnabled) {
         TokenRequest req = msg.getPayload();
+        countTokens(req, isMetricsEnabled);
+
+        // queries are served directly, everything else goes through the allocation loop
+        if (req.getReqType() == TokenRequest.TK_QUERY) {
+            r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(
+                    handleTokenQuery(req, r.getServerEpoch())));
+        } else {
+            runAllocation(() -> r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(
+                    handleToken(req, r.getServerEpoch()))));
+        }
+    }
+
+    /**
+     * Service an incoming batch of token requests. The requests are served in order, and
+     * the whole batch goes through the allocation loop as a single change, unless it only
+     * holds queries.
+     */
+    @ServerHandler(type=CorfuMsgType.MULTIPLE_TOKEN_REQ, opTimer=metricsPrefix + "multiple-token-req")
+    public void multipleTokenRequest(CorfuPayloadMsg<MultipleTokenRequest> msg,
+                                     ChannelHandlerContext ctx, IServerRouter r,
+                                     boolean isMetricsEnabled) {
+        List<TokenRequest> requests = msg.getPayload().getRequests();
+        requests.forEach(req -> countTokens(req, isMetricsEnabled));
+        tokenBatchSizes.update(requests.size());
+
+        Runnable serveBatch = () -> {
+            final long serverEpoch = r.getServerEpoch();
+            List<TokenResponse> responses = new ArrayList<>(requests.size());
+            for (TokenRequest req : requests) {
+                responses.add(handleToken(req, serverEpoch));
+            }
+            r.sendResponse(ctx, msg, CorfuMsgType.MULTIPLE_TOKEN_RES.payloadMsg(
+                    new MultipleTokenResponse(responses)));
+        };
+        if (requests.stream().allMatch(req -> req.getReqType() == TokenRequest.TK_QUERY)) {
+            serveBatch.run();
+        } else {
+            runAllocation(serveBatch);
+        }
+    }
 
-        // metrics collection
+    private void countTokens(TokenRequest req, boolean isMetricsEnabled) {
         if (req.getReqType() == TokenRequest.TK_QUERY) {
             MetricsUtils.incConditionalCounter(isMetricsEnabled, counterToken0, 1);
         } else {
             MetricsUtils.incConditionalCounter(isMetricsEnabled, counterTokenSum, req.getNumTokens());
         }
+    }
 
-        // dispatch request handler according to request type
+    /**
+     * Dispatch a token request to its handler according to the request type.
+     * Anything but a query must be run by the allocation loop.
+     */
+    private TokenResponse handleToken(TokenRequest req, long serverEpoch) {
         switch (req.getReqType()) {
             case TokenRequest.TK_QUERY:
-                handleTokenQuery(msg, ctx, r);
-                return;
+                return handleTokenQuery(req, serverEpoch);
 
             case TokenRequest.TK_RAW:
-                handleRawToken(msg, ctx, r);
-                return;
+                return handleRawToken(req, serverEpoch);
 
             case TokenRequest.TK_TX:
-                handleTxToken(msg, ctx, r);
-                return;
+                return handleTxToken(req, serverEpoch);
 
             default:
-                handleAllocation(msg, ctx, r);
-                return;
+                return handleAllocation(req, serverEpoch);
+        }
+    }
+
+    /**
+     * Queue a change to the state of the sequencer, run the allocation loop unless another
+     * handler thread already runs it, and wait for the change to be applied.
+     *
+     * @param action The change, which also sends the response.
+     */
+    private void runAllocation(Runnable action) {
+        AllocationTask task = new AllocationTask(action);
+        allocationQueue.add(task);
+        runAllocationLoop();
+        try {
+            while (task.awaitTurn()) {
+                runAllocationLoop();
+            }
+            task.get();
+        } catch (InterruptedException e) {
+            // pass the loop on, in case it was handed over to this thread
+            runAllocationLoop();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Apply up to {@link #MAX_ALLOCATION_BATCH} queued changes in order, unless another
+     * thread applies them. If changes are still queued once the loop is released, the
+     * loop is handed over to the thread waiting for the oldest one. A change queued while
+     * the loop was held is never left behind: either it is queued before the loop is
+     * released and handed over, or the thread which queued it runs the loop itself.
+     */
+    private void runAllocationLoop() {
+        if (!allocationLoopRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int batchSize = 0;
+            AllocationTask task;
+            while (batchSize < MAX_ALLOCATION_BATCH && (task = allocationQueue.poll()) != null) {
+                task.run();
+                batchSize++;
+            }
+            if (batchSize > 0) {
+                allocationBatchSizes.update(batchSize);
+                checkpointIfDue();
+            }
+        } finally {
+            allocationLoopRunning.set(false);
+        }
+
+        AllocationTask next = allocationQueue.peek();
+        if (next != null) {
+            next.handOver();
+        }
+    }
+
+    /**
+     * A change waiting to be applied by the allocation loop. The thread waiting for it
+     * is woken up when it is applied, or when the loop is handed over to it.
+     */
+    private static class AllocationTask extends FutureTask<Void> {
+
+        /** Set when the waiting thread should run the allocation loop. */
+        private boolean turn = false;
+
+        AllocationTask(Runnable action) {
+            super(action, null);
+        }
+
+        /**
+         * Wait until the change is applied, or the allocation loop is handed over.
+         *
+         * @return True if the waiting thread should run the allocation loop.
+         */
+        synchronized boolean awaitTurn() throws InterruptedException {
+            while (!isDone() && !turn) {
+                wait();
+            }
+            boolean isTurn = turn && !isDone();
+            turn = false;
+            return isTurn;
+        }
+
+        synchronized void handOver() {
+            turn = true;
+            notifyAll();
+        }
+
+        @Override
+        protected synchronized void done() {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Take a checkpoint if enough tokens were issued since the last one, and hand it to the
+     * checkpoint writer. If the writer is still busy with an earlier checkpoint, the earlier
+     * one is replaced, if it was not picked up yet.
+     */
+    private void checkpointIfDue() {
+        long tail = globalLogTail.get();
+        if (tail - lastCheckpointTail < checkpointInterval) {
+            return;
+        }
+        lastCheckpointTail = tail;
+        Checkpoint checkpoint = new Checkpoint(tail, new StreamTails(streamTailMap),
+                new StreamTails(streamTailToGlobalTailMap));
+        if (pendingCheckpoint.getAndSet(checkpoint) == null) {
+            checkpointWriter.execute(this::writeCheckpoint);
+        }
+    }
+
+    private void writeCheckpoint() {
+        Checkpoint checkpoint = pendingCheckpoint.getAndSet(null);
+        if (checkpoint == null) {
+            return;
+        }
+        // the global tail is written last: a checkpoint which was only partly written
+        // has newer stream tails, and the tail is raised past them when it is restored
+        IDataStore dataStore = serverContext.getDataStore();
+        try (Timer.Context context = checkpointTimer.time()) {
+            dataStore.put(StreamTails.class, PREFIX_SEQUENCER, KEY_STREAM_TAIL_MAP,
+                    checkpoint.getStreamTails());
+            dataStore.put(StreamTails.class, PREFIX_SEQUENCER, KEY_STREAM_TAIL_TO_GLOBAL_TAIL_MAP,
+                    checkpoint.getGlobalTails());
+            dataStore.put(Long.class, PREFIX_SEQUENCER, KEY_GLOBAL_LOG_TAIL, checkpoint.getGlobalTail());
+            log.debug("writeCheckpoint: global tail {}, {} streams",
+                    checkpoint.getGlobalTail(), checkpoint.getGlobalTails().size());
+        } catch (RuntimeException e) {
+            log.error("writeCheckpoint: failed to write checkpoint at {}", checkpoint.getGlobalTail(), e);
+        }
+    }
+
+    /**
+     * Restore the tails of the latest checkpoint in the data store, if there is one.
+     * The conflict parameters are not checkpointed, so every conflict parameter of a stream
+     * may have been written as late as the tail of the stream.
+     */
+    private void restoreCheckpoint() {
+        IDataStore dataStore = serverContext.getDataStore();
+        StreamTails globalTails = dataStore.get(StreamTails.class, PREFIX_SEQUENCER,
+                KEY_STREAM_TAIL_TO_GLOBAL_TAIL_MAP);
+        if (globalTails == null) {
+            return;
+        }
+        StreamTails streamTails = dataStore.get(StreamTails.class, PREFIX_SEQUENCER, KEY_STREAM_TAIL_MAP);
+        Long checkpointTail = dataStore.get(Long.class, PREFIX_SEQUENCER, KEY_GLOBAL_LOG_TAIL);
+
+        long tail = checkpointTail == null ? 0L : checkpointTail;
+        for (Map.Entry<UUID, Long> entry : globalTails.entrySet()) {
+            streamTailToGlobalTailMap.put(entry.getKey(), entry.getValue());
+            conflictTable.raiseWildcard(entry.getKey(), entry.getValue());
+            tail = Math.max(tail, entry.getValue() + 1);
+        }
+        if (streamTails != null) {
+            streamTailMap.putAll(streamTails);
+        }
+        globalLogTail.set(tail);
+        log.info("restoreCheckpoint: restored global tail {}, {} streams", tail, globalTails.size());
+    }
+
+    /**
+     * Shutdown the server, after the pending checkpoint is written.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        checkpointWriter.shutdown();
+        try {
+            checkpointWriter.awaitTermination(CHECKPOINT_SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -359,19 +704,13 @@ public class SequencerServer extends AbstractServer {
      * this method serves log-tokens for a raw log implementation.
      * it simply extends the global log tail and returns the global-log token
      *
-     * @param msg
-     * @param ctx
-     * @param r
+     * @param req
+     * @param serverEpoch
+     * @return the token response
      */
-    private void handleRawToken(CorfuPayloadMsg<TokenRequest> msg,
-                                ChannelHandlerContext ctx, IServerRouter r) {
-        final long serverEpoch = r.getServerEpoch();
-        final TokenRequest req = msg.getPayload();
-
+    private TokenResponse handleRawToken(TokenRequest req, long serverEpoch) {
         Token token = new Token(globalLogTail.getAndAdd(req.getNumTokens()), serverEpoch);
-        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(
-                new TokenResponse(TokenType.NORMAL, token, Collections.emptyMap(), Collections.emptyMap())));
-
+        return new TokenResponse(TokenType.NORMAL, token, Collections.emptyMap(), Collections.emptyMap());
     }
 
     /**
@@ -383,15 +722,11 @@ public class SequencerServer extends AbstractServer {
      *  - if the transaction may commit,
      *    then a normal allocation of log position(s) is pursued.
      *
-     * @param msg
-     * @param ctx
-     * @param r
+     * @param req
+     * @param serverEpoch
+     * @return the token response
      */
-    private void handleTxToken(CorfuPayloadMsg<TokenRequest> msg,
-                                ChannelHandlerContext ctx, IServerRouter r) {
-        final long serverEpoch = r.getServerEpoch();
-        final TokenRequest req = msg.getPayload();
-
+    private TokenResponse handleTxToken(TokenRequest req, long serverEpoch) {
         // in the TK_TX request type, the sequencer is utilized for transaction conflict-resolution.
         // Token allocation is conditioned on commit.
         // First, we check if the transaction can commit.
@@ -399,15 +734,13 @@ public class SequencerServer extends AbstractServer {
         if (tokenType != TokenType.NORMAL) {
             // If the txn aborts, then DO NOT hand out a token.
             Token token = new Token(Address.ABORTED, serverEpoch);
-            r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(
-                    new TokenResponse(tokenType, token, Collections.emptyMap(), Collections.emptyMap())));
-            return;
+            return new TokenResponse(tokenType, token, Collections.emptyMap(), Collections.emptyMap());
         }
 
         // if we get here, this means the transaction can commit.
         // handleAllocation() does the actual allocation of log position(s)
         // and returns the reponse
-        handleAllocation(msg, ctx, r);
+        return handleAllocation(req, serverEpoch);
     }
 
     /**
@@ -415,15 +748,11 @@ public class SequencerServer extends AbstractServer {
      * it also maintains stream-tails, returns a map of stream-tails for backpointers,
      * and maintains a conflict-parameters map.
      *
-     * @param msg
-     * @param ctx
-     * @param r
+     * @param req
+     * @param serverEpoch
+     * @return the token response
      */
-    private void handleAllocation(CorfuPayloadMsg<TokenRequest> msg,
-                                  ChannelHandlerContext ctx, IServerRouter r) {
-        final long serverEpoch = r.getServerEpoch();
-        final TokenRequest req = msg.getPayload();
-
+    private TokenResponse handleAllocation(TokenRequest req, long serverEpoch) {
         // extend the tail of the global log by the requested # of tokens
         // currentTail is the first available position in the global log
         long currentTail = globalLogTail.getAndAdd(req.getNumTokens());
@@ -464,7 +793,7 @@ public class SequencerServer extends AbstractServer {
             });
         }
 
-        // update the cache of conflict parameters
+        // update the table of conflict parameters
         if (req.getTxnResolution() != null)
             req.getTxnResolution().getWriteConflictParams().entrySet()
                 .stream()
@@ -472,12 +801,9 @@ public class SequencerServer extends AbstractServer {
                 .forEach(txEntry ->
                         // and for each conflict param
                             txEntry.getValue().stream().forEach(conflictParam ->
-                                    // insert an entry with the new timestamp
-                                    // using the hash code based on the param
-                                    // and the stream id.
-                                    conflictToGlobalTailCache.put(
-                                            getConflictHashCode(txEntry
-                                                    .getKey(), conflictParam),
+                                    // insert an entry with the new timestamp,
+                                    // keyed by the stream id and the param.
+                                    conflictTable.put(txEntry.getKey(), conflictParam,
                                             newTail - 1)));
 
         log.trace("token {} backpointers {} stream-tokens {}",
@@ -485,12 +811,33 @@ public class SequencerServer extends AbstractServer {
         // return the token response with the new global tail, new streams tails,
         // and the streams backpointers
         Token token = new Token(currentTail, serverEpoch);
-        r.sendResponse(ctx, msg, CorfuMsgType.TOKEN_RES.payloadMsg(
-                new TokenResponse(TokenType.NORMAL,
-                        token,
-                        backPointerMap.build(),
-                        requestStreamTokens.build())));
+        return new TokenResponse(TokenType.NORMAL,
+                token,
+                backPointerMap.build(),
+                requestStreamTokens.build());
     }
 
     private static final int globalTokenBatchSize = 100;
+
+    /**
+     * The tails of the streams, as they are stored in the data store.
+     */
+    static class StreamTails extends HashMap<UUID, Long> {
+        StreamTails() {
+        }
+
+        StreamTails(Map<UUID, Long> tails) {
+            super(tails);
+        }
+    }
+
+    /**
+     * A copy of the tails of the log and of the streams, at a global tail.
+     */
+    @Data
+    private static class Checkpoint {
+        final long globalTail;
+        final StreamTails streamTails;
+        final StreamTails globalTails;
+    }
 }
@@ -30,6 +30,8 @@ public class ServerContext {
     private static final String KEY_EPOCH = "CURRENT";
     private static final String PREFIX_TAIL_SEGMENT = "TAIL_SEGMENT";
     private static final String KEY_TAIL_SEGMENT = "CURRENT";
+    private static final String PREFIX_TRIM_MARK = "TRIM_MARK";
+    private static final String KEY_TRIM_MARK = "CURRENT";
 
     /**
      * various duration constants
@@ -70,7 +72,6 @@ public class ServerContext {
         synchronized (metrics) {
             if (! isMetricsReportingSetUp(metrics)) {
                 addJVMMetrics(metrics, mp);
-                MetricsUtils.addCacheGauges(metrics, mp + "datastore.cache.", dataStore.getCache());
                 MetricsUtils.metricsReportingSetup(metrics);
             }
         }
@@ -99,4 +100,16 @@ public class ServerContext {
     public void setTailSegment(long tailSegment) {
         dataStore.put(Long.class, PREFIX_TAIL_SEGMENT, KEY_TAIL_SEGMENT, tailSegment);
     }
+
+    /**
+     * The first address of the global log which wasn't prefix trimmed.
+     */
+    public long getTrimMark() {
+        Long trimMark = dataStore.get(Long.class, PREFIX_TRIM_MARK, KEY_TRIM_MARK);
+        return trimMark == null ? 0 : trimMark;
+    }
+
+    public void setTrimMark(long trimMark) {
+        dataStore.put(Long.class, PREFIX_TRIM_MARK, KEY_TRIM_MARK, trimMark);
+    }
 }
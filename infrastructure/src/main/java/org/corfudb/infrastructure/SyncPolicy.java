@@ -0,0 +1,104 @@
+package org.corfudb.infrastructure;
+
+import lombok.Data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The policy a {@link BatchWriter} uses to decide when a batch of writes is made durable.
+ * <p>
+ * A policy is configured as a string:
+ * <ul>
+ * <li>records:N - sync once N records were written, or as soon as no more writes are queued.</li>
+ * <li>bytes:N - sync once N bytes of payload were written, or as soon as no more writes are queued.</li>
+ * <li>micros:T - sync at most every T microseconds, grouping all the writes received in that window.</li>
+ * <li>never - never sync, writes complete once they reach the operating system. For testing only.</li>
+ * </ul>
+ */
+@Data
+public class SyncPolicy {
+
+    public enum Type {
+        RECORDS,
+        BYTES,
+        MICROS,
+        NEVER
+    }
+
+    /** The number of records a batch is bounded to, unless the policy bounds it otherwise. */
+    public static final int DEFAULT_BATCH_RECORDS = 50;
+
+    public static final SyncPolicy NEVER = new SyncPolicy(Type.NEVER, 0);
+
+    private final Type type;
+    private final long threshold;
+
+    /**
+     * Parse a sync policy.
+     *
+     * @param policy The policy, as described above.
+     * @return The parsed policy.
+     * @throws IllegalArgumentException if the policy is malformed.
+     */
+    public static SyncPolicy parse(String policy) {
+        if (policy.equalsIgnoreCase("never")) {
+            return NEVER;
+        }
+
+        String[] parts = policy.split(":");
+        try {
+            if (parts.length == 2) {
+                Type type = Type.valueOf(parts[0].toUpperCase());
+                long threshold = Long.parseLong(parts[1]);
+                if (type != Type.NEVER && threshold > 0) {
+                    return new SyncPolicy(type, threshold);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Fall through to report the whole policy
+        }
+        throw new IllegalArgumentException("Invalid sync policy " + policy);
+    }
+
+    /**
+     * @return True if batches are forced to secondary storage.
+     */
+    public boolean isDurable() {
+        return type != Type.NEVER;
+    }
+
+    /**
+     * Check whether a batch should be synced without waiting for more writes.
+     *
+     * @param records The number of records in the batch.
+     * @param bytes   The number of payload bytes in the batch.
+     * @return True if the batch is complete.
+     */
+    public boolean isBatchFull(int records, long bytes) {
+        switch (type) {
+            case RECORDS:
+                return records >= threshold;
+            case BYTES:
+                return bytes >= threshold;
+            case MICROS:
+                return false;
+            case NEVER:
+                // Nothing is synced, but batches still bound how many writes are appended together
+                return records >= DEFAULT_BATCH_RECORDS;
+            default:
+                throw new IllegalStateException("Unknown sync policy type " + type);
+        }
+    }
+
+    /**
+     * @return How long a batch may wait for more writes once the queue is empty, in nanoseconds.
+     */
+    public long getLingerNanos() {
+        return type == Type.MICROS ? TimeUnit.MICROSECONDS.toNanos(threshold) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.NEVER ? "never" : type.name().toLowerCase() + ":" + threshold;
+    }
+}
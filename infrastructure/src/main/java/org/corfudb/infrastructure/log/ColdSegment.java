@@ -0,0 +1,315 @@
+package org.corfudb.infrastructure.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.corfudb.format.Types.ColdSegmentIndex;
+import org.corfudb.format.Types.Metadata;
+import org.corfudb.runtime.exceptions.DataCorruptionException;
+
+/**
+ * A sealed log segment which was moved to the cold tier.
+ * <p>
+ * The records of the segment are stored back to back, without their delimiters and
+ * metadata, in blocks of about {@link #BLOCK_SIZE} bytes which are deflated separately.
+ * The blocks are followed by a {@link ColdSegmentIndex}, which locates every record and
+ * every block, and by the metadata of the index. A record is read by inflating the one
+ * block that holds it, and the last inflated block is kept, so that reading the records
+ * of a segment in order inflates each block once.
+ */
+@Slf4j
+public class ColdSegment {
+
+    /**
+     * The uncompressed size blocks are filled up to. A record is never split between
+     * blocks, so a block holding a large record can be larger.
+     */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+
+    /** The uncompressed position each block starts at. */
+    private final long[] blockStarts;
+
+    /** The position of each compressed block in the file. */
+    private final long[] blockOffsets;
+
+    /** The compressed length of each block. */
+    private final int[] blockLengths;
+
+    /** The total size of the uncompressed records. */
+    private final long recordsSize;
+
+    /**
+     * The size of the segment file this segment was moved from.
+     */
+    @Getter
+    private final long segmentSize;
+
+    private volatile InflatedBlock lastBlock;
+
+    @RequiredArgsConstructor
+    private static class InflatedBlock {
+        final int block;
+        final byte[] data;
+    }
+
+    /**
+     * Open a cold segment, and load its address space.
+     *
+     * @param channel   A readable channel for the cold segment file.
+     * @param addresses The address space to load the records of the segment into.
+     * @throws IOException
+     */
+    public ColdSegment(FileChannel channel, SegmentAddressSpace addresses) throws IOException {
+        this.channel = channel;
+
+        long fileSize = channel.size();
+        if (fileSize < StreamLogFiles.METADATA_SIZE) {
+            log.error("Truncated cold segment {}", channel);
+            throw new DataCorruptionException();
+        }
+
+        ByteBuffer metadataBuf = ByteBuffer.allocate(StreamLogFiles.METADATA_SIZE);
+        readFully(channel, metadataBuf, fileSize - StreamLogFiles.METADATA_SIZE);
+
+        ColdSegmentIndex index;
+        try {
+            Metadata metadata = Metadata.parseFrom(metadataBuf.array());
+            if (metadata.getLength() < 0 || metadata.getLength() > fileSize - StreamLogFiles.METADATA_SIZE) {
+                log.error("Truncated cold segment index {}", channel);
+                throw new DataCorruptionException();
+            }
+
+            ByteBuffer indexBuf = ByteBuffer.allocate(metadata.getLength());
+            readFully(channel, indexBuf, fileSize - StreamLogFiles.METADATA_SIZE - metadata.getLength());
+            if (metadata.getChecksum() != StreamLogFiles.getChecksum(indexBuf.array())) {
+                log.error("Checksum mismatch detected while trying to read cold segment index {}", channel);
+                throw new DataCorruptionException();
+            }
+            index = ColdSegmentIndex.parseFrom(indexBuf.array());
+        } catch (InvalidProtocolBufferException e) {
+            throw new DataCorruptionException();
+        }
+
+        segmentSize = index.getSegmentSize();
+        recordsSize = index.getRecordsSize();
+
+        int blocks = index.getBlockStartsCount();
+        blockStarts = new long[blocks];
+        blockOffsets = new long[blocks];
+        blockLengths = new int[blocks];
+        for (int x = 0; x < blocks; x++) {
+            blockStarts[x] = index.getBlockStarts(x);
+            blockOffsets[x] = index.getBlockOffsets(x);
+            blockLengths[x] = index.getBlockLengths(x);
+        }
+
+        for (int x = 0; x < index.getAddressesCount(); x++) {
+            addresses.put(index.getAddresses(x),
+                    new AddressMetaData(index.getChecksums(x), index.getLengths(x), index.getOffsets(x)));
+        }
+    }
+
+    /**
+     * Read a record of the segment.
+     *
+     * @param metaData The location of the record in the uncompressed records.
+     * @return A buffer holding the record.
+     */
+    public ByteBuffer read(AddressMetaData metaData) throws IOException {
+        int block = Arrays.binarySearch(blockStarts, metaData.offset);
+        if (block < 0) {
+            // The record starts inside the block before the insertion point
+            block = -block - 2;
+        }
+        if (block < 0 || metaData.offset + metaData.length > getBlockEnd(block)) {
+            log.error("Record at offset {} is not in a block of cold segment {}", metaData.offset, channel);
+            throw new DataCorruptionException();
+        }
+
+        byte[] data = inflate(block);
+        return ByteBuffer.wrap(data, (int) (metaData.offset - blockStarts[block]), metaData.length).slice();
+    }
+
+    private long getBlockEnd(int block) {
+        return block + 1 < blockStarts.length ? blockStarts[block + 1] : recordsSize;
+    }
+
+    private byte[] inflate(int block) throws IOException {
+        InflatedBlock last = lastBlock;
+        if (last != null && last.block == block) {
+            return last.data;
+        }
+
+        ByteBuffer compressed = ByteBuffer.allocate(blockLengths[block]);
+        readFully(channel, compressed, blockOffsets[block]);
+        byte[] data = new byte[(int) (getBlockEnd(block) - blockStarts[block])];
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            int inflated = inflater.inflate(data);
+            if (inflated != data.length || !inflater.finished()) {
+                log.error("Truncated block {} in cold segment {}", block, channel);
+                throw new DataCorruptionException();
+            }
+        } catch (DataFormatException e) {
+            log.error("Corrupt block {} in cold segment {}", block, channel);
+            throw new DataCorruptionException();
+        } finally {
+            inflater.end();
+        }
+
+        lastBlock = new InflatedBlock(block, data);
+        return data;
+    }
+
+    /**
+     * Write the records of a sealed segment as a cold segment.
+     *
+     * @param source      A readable channel for the segment file.
+     * @param segmentSize The size of the segment file.
+     * @param addresses   The address space of the segment.
+     * @param destination The channel to write the cold segment to.
+     * @return The number of bytes written.
+     * @throws IOException
+     */
+    public static long write(FileChannel source, long segmentSize, SegmentAddressSpace addresses,
+                             FileChannel destination) throws IOException {
+        List<Long> records = new ArrayList<>(addresses.size());
+        addresses.forEach((address, metaData) -> records.add(address));
+        // Keep the file order, so the segment file is read sequentially
+        records.sort(Comparator.comparingLong(address -> addresses.get(address).offset));
+
+        ColdSegmentIndex.Builder index = ColdSegmentIndex.newBuilder().setSegmentSize(segmentSize);
+        BlockWriter writer = new BlockWriter(destination);
+        try {
+            long recordsSize = 0;
+            for (long address : records) {
+                AddressMetaData metaData = addresses.get(address);
+                if (writer.getBlockSize() >= BLOCK_SIZE) {
+                    writer.flush(index);
+                }
+                if (writer.getBlockSize() == 0) {
+                    index.addBlockStarts(recordsSize);
+                }
+
+                ByteBuffer record = writer.reserve(metaData.length);
+                readFully(source, record, metaData.offset);
+
+                index.addAddresses(address)
+                        .addOffsets(recordsSize)
+                        .addLengths(metaData.length)
+                        .addChecksums(metaData.checksum);
+                recordsSize += metaData.length;
+            }
+            writer.flush(index);
+            index.setRecordsSize(recordsSize);
+        } finally {
+            writer.end();
+        }
+
+        byte[] indexBuf = index.build().toByteArray();
+        Metadata metadata = Metadata.newBuilder()
+                .setChecksum(StreamLogFiles.getChecksum(indexBuf))
+                .setLength(indexBuf.length)
+                .build();
+        writeFully(destination, ByteBuffer.wrap(indexBuf));
+        writeFully(destination, ByteBuffer.wrap(metadata.toByteArray()));
+        return writer.getPosition() + indexBuf.length + StreamLogFiles.METADATA_SIZE;
+    }
+
+    /**
+     * Buffers the records of a block, and writes the block deflated.
+     */
+    private static class BlockWriter {
+        private final FileChannel channel;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] output = new byte[BLOCK_SIZE];
+        private byte[] block = new byte[BLOCK_SIZE];
+
+        @Getter
+        private int blockSize = 0;
+
+        @Getter
+        private long position = 0;
+
+        BlockWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Reserve space for a record at the end of the block.
+         *
+         * @param length The length of the record.
+         * @return A buffer to fill with the record.
+         */
+        ByteBuffer reserve(int length) {
+            if (blockSize + length > block.length) {
+                block = Arrays.copyOf(block, Math.max(block.length * 2, blockSize + length));
+            }
+            ByteBuffer record = ByteBuffer.wrap(block, blockSize, length);
+            blockSize += length;
+            return record;
+        }
+
+        /**
+         * Deflate and write the block, if it isn't empty.
+         *
+         * @param index The index to add the block to.
+         */
+        void flush(ColdSegmentIndex.Builder index) throws IOException {
+            if (blockSize == 0) {
+                return;
+            }
+
+            long offset = position;
+            deflater.reset();
+            deflater.setInput(block, 0, blockSize);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int deflated = deflater.deflate(output);
+                writeFully(channel, ByteBuffer.wrap(output, 0, deflated));
+                position += deflated;
+            }
+
+            index.addBlockOffsets(offset).addBlockLengths((int) (position - offset));
+            blockSize = 0;
+        }
+
+        void end() {
+            deflater.end();
+        }
+    }
+
+    private static void readFully(FileChannel fc, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = fc.read(dst, position);
+            if (read < 0) {
+                throw new DataCorruptionException();
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel fc, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            fc.write(src);
+        }
+    }
+}
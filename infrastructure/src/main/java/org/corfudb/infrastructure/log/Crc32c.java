@@ -0,0 +1,206 @@
+package org.corfudb.infrastructure.log;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C checksums of log records.
+ * <p>
+ * When the JVM provides java.util.zip.CRC32C (Java 9 and later), which the JIT compiles to the
+ * CPU's crc32 instructions, the checksum is delegated to it. Otherwise it is computed with a
+ * slicing-by-8 table implementation, which processes eight bytes per step. Both compute the
+ * same checksum as Guava's crc32c, which the log format was defined with.
+ * <p>
+ * Buffers are checksummed in place, so direct buffers don't need to be copied to a byte array.
+ */
+public final class Crc32c implements Checksum {
+
+    /** The CRC32C (Castagnoli) polynomial, in reversed bit order. */
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int TABLES = 8;
+    private static final int TABLE_SIZE = 256;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int SCRATCH_SIZE = 8192;
+
+    /** TABLE[k][b] is the checksum of byte b followed by k zero bytes. */
+    private static final int[][] TABLE = new int[TABLES][TABLE_SIZE];
+
+    private static final MethodHandle NEW_INTRINSIC;
+    private static final MethodHandle UPDATE_INTRINSIC;
+
+    private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
+
+    static {
+        for (int b = 0; b < TABLE_SIZE; b++) {
+            int crc = b;
+            for (int bit = 0; bit < Byte.SIZE; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLE[0][b] = crc;
+        }
+        for (int k = 1; k < TABLES; k++) {
+            for (int b = 0; b < TABLE_SIZE; b++) {
+                int previous = TABLE[k - 1][b];
+                TABLE[k][b] = (previous >>> Byte.SIZE) ^ TABLE[0][previous & BYTE_MASK];
+            }
+        }
+
+        MethodHandle newIntrinsic = null;
+        MethodHandle updateIntrinsic = null;
+        try {
+            Class<?> crc32c = Class.forName("java.util.zip.CRC32C");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            newIntrinsic = lookup.findConstructor(crc32c, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+            updateIntrinsic = lookup.findVirtual(crc32c, "update",
+                    MethodType.methodType(void.class, ByteBuffer.class))
+                    .asType(MethodType.methodType(void.class, Checksum.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException e) {
+            // Not available before Java 9, use the table implementation
+            newIntrinsic = null;
+            updateIntrinsic = null;
+        }
+        NEW_INTRINSIC = newIntrinsic;
+        UPDATE_INTRINSIC = updateIntrinsic;
+    }
+
+    /** The JDK checksum, or null if the table implementation is used. */
+    private final Checksum intrinsic;
+    private int crc = ~0;
+
+    public Crc32c() {
+        this(true);
+    }
+
+    /**
+     * @param useIntrinsic Whether to use the JDK's CRC32C if it's available.
+     */
+    Crc32c(boolean useIntrinsic) {
+        intrinsic = useIntrinsic && NEW_INTRINSIC != null ? newIntrinsic() : null;
+    }
+
+    /**
+     * @return True if checksums are computed by the JDK's CRC32C.
+     */
+    public static boolean isIntrinsic() {
+        return NEW_INTRINSIC != null;
+    }
+
+    /**
+     * Compute the checksum of a byte array.
+     *
+     * @param bytes The bytes to checksum.
+     * @return The checksum.
+     */
+    public static int checksum(byte[] bytes) {
+        Crc32c crc32c = new Crc32c();
+        crc32c.update(bytes, 0, bytes.length);
+        return (int) crc32c.getValue();
+    }
+
+    /**
+     * Compute the checksum of the remaining bytes of a buffer, without changing its position.
+     *
+     * @param buf The buffer to checksum.
+     * @return The checksum.
+     */
+    public static int checksum(ByteBuffer buf) {
+        Crc32c crc32c = new Crc32c();
+        crc32c.update(buf.duplicate());
+        return (int) crc32c.getValue();
+    }
+
+    @Override
+    public void update(int b) {
+        if (intrinsic != null) {
+            intrinsic.update(b);
+        } else {
+            crc = (crc >>> Byte.SIZE) ^ TABLE[0][(crc ^ b) & BYTE_MASK];
+        }
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        if (intrinsic != null) {
+            intrinsic.update(b, off, len);
+            return;
+        }
+
+        int localCrc = crc;
+        while (len >= TABLES) {
+            localCrc ^= (b[off] & BYTE_MASK)
+                    | (b[off + 1] & BYTE_MASK) << 8
+                    | (b[off + 2] & BYTE_MASK) << 16
+                    | (b[off + 3] & BYTE_MASK) << 24;
+            localCrc = TABLE[7][localCrc & BYTE_MASK]
+                    ^ TABLE[6][(localCrc >>> 8) & BYTE_MASK]
+                    ^ TABLE[5][(localCrc >>> 16) & BYTE_MASK]
+                    ^ TABLE[4][localCrc >>> 24]
+                    ^ TABLE[3][b[off + 4] & BYTE_MASK]
+                    ^ TABLE[2][b[off + 5] & BYTE_MASK]
+                    ^ TABLE[1][b[off + 6] & BYTE_MASK]
+                    ^ TABLE[0][b[off + 7] & BYTE_MASK];
+            off += TABLES;
+            len -= TABLES;
+        }
+        while (len > 0) {
+            localCrc = (localCrc >>> Byte.SIZE) ^ TABLE[0][(localCrc ^ b[off]) & BYTE_MASK];
+            off++;
+            len--;
+        }
+        crc = localCrc;
+    }
+
+    /**
+     * Update the checksum with the remaining bytes of a buffer, consuming them.
+     *
+     * @param buf The bytes to add to the checksum.
+     */
+    public void update(ByteBuffer buf) {
+        if (intrinsic != null) {
+            updateIntrinsic(buf);
+        } else if (buf.hasArray()) {
+            update(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            buf.position(buf.limit());
+        } else {
+            byte[] chunk = scratch.get();
+            while (buf.hasRemaining()) {
+                int len = Math.min(chunk.length, buf.remaining());
+                buf.get(chunk, 0, len);
+                update(chunk, 0, len);
+            }
+        }
+    }
+
+    @Override
+    public long getValue() {
+        return intrinsic != null ? intrinsic.getValue() : ~crc & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        if (intrinsic != null) {
+            intrinsic.reset();
+        }
+        crc = ~0;
+    }
+
+    private static Checksum newIntrinsic() {
+        try {
+            return (Checksum) NEW_INTRINSIC.invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to create a CRC32C checksum", t);
+        }
+    }
+
+    private void updateIntrinsic(ByteBuffer buf) {
+        try {
+            UPDATE_INTRINSIC.invokeExact(intrinsic, buf);
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to update a CRC32C checksum", t);
+        }
+    }
+}
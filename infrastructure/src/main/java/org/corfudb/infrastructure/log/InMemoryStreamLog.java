@@ -1,58 +1,108 @@
 package org.corfudb.infrastructure.log;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
 
 import org.corfudb.protocols.wireprotocol.LogData;
 import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.exceptions.TrimmedException;
 
 /**
- * This class implements the StreamLog interface using a Java hash map. The stream log is only stored in-memory and not
- * persisted and thus should only be used for testing.
+ * This class implements the StreamLog interface in memory. The stream log is not persisted and thus should only
+ * be used for testing.
+ * <p>
+ * The global log is stored in chunks of {@link #CHUNK_SIZE} entries, indexed by address, and streams are stored in
+ * concurrent maps. Reads don't lock. Appends lock one of {@link #STRIPES} locks, chosen by address, so appends to
+ * different addresses proceed in parallel while appends to the same address are serialized.
+ * <p>
+ * The entries of the global log and of the streams are bounded by their total size. When an append exceeds the
+ * bound, the oldest chunks are trimmed, as with a prefix trim, along with the stream entries whose global address
+ * falls below the new trim mark, until the log is back under the bound or only the chunk holding the tail is left.
+ * Reads of a dropped stream entry throw {@link TrimmedException}, as reads of the trimmed global log do.
  *
  * Created by maithem on 7/21/16.
  */
+@Slf4j
 public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressSpace {
 
-    private Map<Long, LogData> logCache;
-    private Map<UUID, Map<Long, LogData>> streamCache;
-    private Set<LogAddress> trimmed;
+    private static final int CHUNK_BITS = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int STRIPES = 64;
+
+    private final long maxBytes;
+    private final ConcurrentNavigableMap<Long, AtomicReferenceArray<LogData>> chunks = new ConcurrentSkipListMap<>();
+    private final Map<UUID, Map<Long, LogData>> streamCache = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> streamTrimMarks = new ConcurrentHashMap<>();
+    private final Set<LogAddress> trimmed = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final AtomicLong bytes = new AtomicLong();
     final private AtomicLong globalTail = new AtomicLong(0L);
+    private volatile long trimMark = 0L;
 
     public InMemoryStreamLog() {
-        logCache = new ConcurrentHashMap();
-        streamCache = new HashMap();
-        trimmed = new HashSet();
+        this(Long.MAX_VALUE);
     }
 
-    @Override
-    public synchronized void append(LogAddress logAddress, LogData entry) {
-        if (logAddress.getStream() == null) {
-            if(logCache.containsKey(logAddress.address)) {
-                throwLogUnitExceptionsIfNecessary(logAddress, entry);
-            }
-            logCache.put(logAddress.address, entry);
-        } else {
+    /**
+     * @param maxBytes The maximum total size of the entries of the global log and the streams, in bytes.
+     */
+    public InMemoryStreamLog(long maxBytes) {
+        this.maxBytes = maxBytes;
+        for (int x = 0; x < STRIPES; x++) {
+            stripes[x] = new ReentrantLock();
+        }
+    }
 
-            Map<Long, LogData> stream = streamCache.get(logAddress.getStream());
-            if(stream == null) {
-                stream = new HashMap();
-                streamCache.put(logAddress.getStream(), stream);
-            }
+    @Override
+    public void append(LogAddress logAddress, LogData entry) {
+        ReentrantLock stripe = getStripe(logAddress);
+        stripe.lock();
+        try {
+            if (logAddress.getStream() == null) {
+                if (logAddress.address < trimMark) {
+                    throw new OverwriteException();
+                }
+                AtomicReferenceArray<LogData> chunk = chunks.computeIfAbsent(logAddress.address >>> CHUNK_BITS,
+                        k -> new AtomicReferenceArray<>(CHUNK_SIZE));
+                int slot = getSlot(logAddress.address);
+                LogData previous = chunk.get(slot);
+                if (previous != null) {
+                    throwLogUnitExceptionsIfNecessary(logAddress, entry);
+                }
+                chunk.set(slot, entry);
+                bytes.addAndGet(sizeOf(entry) - (previous == null ? 0 : sizeOf(previous)));
+            } else {
+                Map<Long, LogData> stream = streamCache.computeIfAbsent(logAddress.getStream(),
+                        k -> new ConcurrentHashMap<>());
 
-            if(stream.containsKey(logAddress.address)) {
-                throwLogUnitExceptionsIfNecessary(logAddress, entry);
+                if (logAddress.address <= streamTrimMarks.getOrDefault(logAddress.getStream(), -1L)) {
+                    throw new OverwriteException();
+                }
+                if (stream.containsKey(logAddress.address)) {
+                    throwLogUnitExceptionsIfNecessary(logAddress, entry);
+                }
+                LogData previous = stream.put(logAddress.address, entry);
+                bytes.addAndGet(sizeOf(entry) - (previous == null ? 0 : sizeOf(previous)));
             }
-            stream.put(logAddress.address, entry);
+        } finally {
+            stripe.unlock();
         }
 
         globalTail.getAndUpdate(maxTail -> entry.getGlobalAddress() > maxTail ? entry.getGlobalAddress() : maxTail);
+
+        if (bytes.get() > maxBytes && canAutoTrim()) {
+            autoTrim();
+        }
     }
 
     @Override
@@ -70,29 +120,136 @@ public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressS
     }
 
     @Override
-    public synchronized void trim(LogAddress logAddress) {
+    public void trim(LogAddress logAddress) {
         trimmed.add(logAddress);
     }
 
+    @Override
+    public synchronized void prefixTrim(long address) {
+        truncate(address + 1, false);
+    }
+
+    @Override
+    public long getTrimMark() {
+        return trimMark;
+    }
+
+    /**
+     * @return True if the trim mark is below the chunk holding the tail, so an auto trim can drop entries.
+     */
+    private boolean canAutoTrim() {
+        return trimMark < (globalTail.get() >>> CHUNK_BITS) << CHUNK_BITS;
+    }
+
+    /**
+     * Trim the oldest chunks of the global log and the stream entries below them, until the entries
+     * are back under the bound. The chunk holding the tail is never trimmed, so appends at the tail
+     * keep succeeding.
+     */
+    private synchronized void autoTrim() {
+        while (bytes.get() > maxBytes && canAutoTrim()) {
+            long tailChunk = globalTail.get() >>> CHUNK_BITS;
+            long firstChunk = chunks.isEmpty() ? tailChunk - 1 : Math.min(chunks.firstKey(), tailChunk - 1);
+            long newMark = (firstChunk + 1) << CHUNK_BITS;
+            log.warn("autoTrim: log exceeds {} bytes, trimming up to address {}", maxBytes, newMark - 1);
+            truncate(newMark, true);
+        }
+    }
+
+    /**
+     * Drop the entries of the global log below a new trim mark, and optionally the stream entries
+     * whose global address is below it. Holds every stripe, so no append can land in a chunk or a
+     * stream while it is dropped. Must be called holding the monitor.
+     */
+    private void truncate(long newMark, boolean streams) {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+        try {
+            if (newMark <= trimMark) {
+                return;
+            }
+            trimMark = newMark;
+
+            Iterator<AtomicReferenceArray<LogData>> it = chunks.headMap(newMark >>> CHUNK_BITS).values().iterator();
+            while (it.hasNext()) {
+                AtomicReferenceArray<LogData> chunk = it.next();
+                clear(chunk, CHUNK_SIZE);
+                it.remove();
+            }
+            AtomicReferenceArray<LogData> partial = chunks.get(newMark >>> CHUNK_BITS);
+            if (partial != null) {
+                clear(partial, getSlot(newMark));
+            }
+
+            if (streams) {
+                streamCache.forEach((id, stream) -> truncateStream(id, stream, newMark));
+            }
+        } finally {
+            for (ReentrantLock stripe : stripes) {
+                stripe.unlock();
+            }
+        }
+    }
+
+    /**
+     * Drop the entries of a stream whose global address is below the trim mark, and raise the
+     * trim mark of the stream to the highest stream address dropped.
+     */
+    private void truncateStream(UUID id, Map<Long, LogData> stream, long newMark) {
+        long streamMark = streamTrimMarks.getOrDefault(id, -1L);
+        Iterator<Map.Entry<Long, LogData>> it = stream.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, LogData> e = it.next();
+            if (e.getValue().getGlobalAddress() < newMark) {
+                streamMark = Math.max(streamMark, e.getKey());
+                bytes.addAndGet(-sizeOf(e.getValue()));
+                it.remove();
+            }
+        }
+        if (streamMark >= 0) {
+            streamTrimMarks.put(id, streamMark);
+        }
+    }
+
+    private void clear(AtomicReferenceArray<LogData> chunk, int slots) {
+        for (int slot = 0; slot < slots; slot++) {
+            LogData entry = chunk.getAndSet(slot, null);
+            if (entry != null) {
+                bytes.addAndGet(-sizeOf(entry));
+            }
+        }
+    }
+
     @Override
     public LogData read(LogAddress logAddress) {
-        if(trimmed.contains(logAddress)) {
+        if(trimmed.contains(logAddress)
+                || (logAddress.getStream() == null && logAddress.address < trimMark)) {
             throw new TrimmedException();
         }
 
         if (logAddress.getStream() == null) {
-            return logCache.get(logAddress.address);
+            AtomicReferenceArray<LogData> chunk = chunks.get(logAddress.address >>> CHUNK_BITS);
+            return chunk == null ? null : chunk.get(getSlot(logAddress.address));
         } else {
 
             Map<Long, LogData> stream = streamCache.get(logAddress.getStream());
-            if (stream == null) {
-                return null;
-            } else {
-                return stream.get(logAddress.address);
+            LogData entry = stream == null ? null : stream.get(logAddress.address);
+            if (entry == null
+                    && logAddress.address <= streamTrimMarks.getOrDefault(logAddress.getStream(), -1L)) {
+                throw new TrimmedException();
             }
+            return entry;
         }
     }
 
+    /**
+     * @return The total size of the entries of the global log and the streams, in bytes.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
     @Override
     public void sync(boolean force){
         //no-op
@@ -100,8 +257,10 @@ public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressS
 
     @Override
     public void close() {
-        logCache = new HashMap();
-        streamCache = new HashMap();
+        chunks.clear();
+        streamCache.clear();
+        streamTrimMarks.clear();
+        bytes.set(0);
     }
 
     @Override
@@ -112,15 +271,41 @@ public class InMemoryStreamLog implements StreamLog, StreamLogWithRankedAddressS
     @Override
     public void compact() {
         for (LogAddress logAddress : trimmed) {
-
-            if(logAddress.getStream() == null) {
-                logCache.remove(logAddress.address);
-            } else {
-                Map<Long, LogData> stream = streamCache.get(logAddress.getStream());
-                if(stream != null){
-                    stream.remove(logAddress.address);
+            ReentrantLock stripe = getStripe(logAddress);
+            stripe.lock();
+            try {
+                if (logAddress.getStream() == null) {
+                    AtomicReferenceArray<LogData> chunk = chunks.get(logAddress.address >>> CHUNK_BITS);
+                    LogData entry = chunk == null ? null : chunk.getAndSet(getSlot(logAddress.address), null);
+                    if (entry != null) {
+                        bytes.addAndGet(-sizeOf(entry));
+                    }
+                } else {
+                    Map<Long, LogData> stream = streamCache.get(logAddress.getStream());
+                    LogData entry = stream == null ? null : stream.remove(logAddress.address);
+                    if (entry != null) {
+                        bytes.addAndGet(-sizeOf(entry));
+                    }
                 }
+            } finally {
+                stripe.unlock();
             }
         }
     }
+
+    private ReentrantLock getStripe(LogAddress logAddress) {
+        int hash = logAddress.getStream() == null ? Long.hashCode(logAddress.address) : logAddress.hashCode();
+        return stripes[(hash & Integer.MAX_VALUE) % STRIPES];
+    }
+
+    private static int getSlot(long address) {
+        return (int) (address & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * The size an entry counts for, as the log unit cache weighs it.
+     */
+    private static long sizeOf(LogData entry) {
+        return entry.getData() == null ? 1 : entry.getData().length;
+    }
 }
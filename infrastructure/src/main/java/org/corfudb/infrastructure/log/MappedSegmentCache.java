@@ -0,0 +1,166 @@
+package org.corfudb.infrastructure.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import sun.misc.Cleaner;
+import sun.nio.ch.DirectBuffer;
+
+/**
+ * A bounded cache of read-only memory mappings of sealed log segments.
+ * <p>
+ * Segments are weighed by their mapped size, and the least recently used mappings are
+ * unmapped once the total exceeds the configured number of bytes. Mappings are reference
+ * counted, so a segment evicted while a reader is still using it is only unmapped once
+ * that reader releases it.
+ */
+@Slf4j
+public class MappedSegmentCache {
+
+    private final Cache<String, MappedSegment> segments;
+
+    public MappedSegmentCache(long maxMappedBytes) {
+        segments = Caffeine.newBuilder()
+                .<String, MappedSegment>weigher((k, v) -> v.getLength())
+                .maximumWeight(maxMappedBytes)
+                .removalListener((String k, MappedSegment v, RemovalCause cause) -> {
+                    log.trace("Unmapping segment {}: {}", k, cause);
+                    v.release();
+                })
+                .build();
+    }
+
+    /**
+     * Acquire the mapping for a segment file, mapping it if it isn't mapped yet.
+     * The caller is responsible for releasing the returned segment.
+     *
+     * @param fileName The segment file.
+     * @param channel  A readable channel for the segment file.
+     * @return The retained mapping, or null if the segment can't be mapped.
+     */
+    public MappedSegment acquire(String fileName, FileChannel channel) {
+        while (true) {
+            MappedSegment segment = segments.get(fileName, k -> map(k, channel));
+            if (segment == null) {
+                return null;
+            }
+
+            if (segment.retain()) {
+                return segment;
+            }
+
+            // The mapping was evicted and released between the lookup and the retain,
+            // drop the stale entry (if it's still there) and try again.
+            segments.asMap().remove(fileName, segment);
+        }
+    }
+
+    /**
+     * Drop the mapping for a segment file, for example because it was rewritten.
+     *
+     * @param fileName The segment file.
+     */
+    public void invalidate(String fileName) {
+        segments.invalidate(fileName);
+    }
+
+    /**
+     * Drop all mappings.
+     */
+    public void invalidateAll() {
+        segments.invalidateAll();
+    }
+
+    private MappedSegment map(String fileName, FileChannel channel) {
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                log.warn("Segment {} is too large to map ({} bytes)", fileName, size);
+                return null;
+            }
+            return new MappedSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } catch (IOException e) {
+            log.warn("Error mapping segment {}", fileName, e);
+            return null;
+        }
+    }
+
+    /**
+     * A reference counted, read-only mapping of a segment file.
+     */
+    public static class MappedSegment {
+        private final MappedByteBuffer buffer;
+
+        @Getter
+        private final int length;
+
+        // The cache holds one reference until the segment is evicted
+        private final AtomicInteger refCnt = new AtomicInteger(1);
+
+        MappedSegment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+            this.length = buffer.capacity();
+        }
+
+        /**
+         * Whether a record lies entirely within this mapping.
+         */
+        public boolean contains(long offset, int recordLength) {
+            return offset >= 0 && offset + recordLength <= length;
+        }
+
+        /**
+         * Get a view of a record in the mapping, without copying it.
+         *
+         * @param offset       The file offset of the record.
+         * @param recordLength The length of the record.
+         * @return A buffer positioned over the record.
+         */
+        public ByteBuffer slice(long offset, int recordLength) {
+            ByteBuffer dup = buffer.duplicate();
+            dup.position((int) offset);
+            dup.limit((int) offset + recordLength);
+            return dup.slice();
+        }
+
+        boolean retain() {
+            while (true) {
+                int cnt = refCnt.get();
+                if (cnt == 0) {
+                    return false;
+                }
+                if (refCnt.compareAndSet(cnt, cnt + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        public void release() {
+            if (refCnt.decrementAndGet() == 0) {
+                unmap();
+            }
+        }
+
+        private void unmap() {
+            try {
+                Cleaner cleaner = ((DirectBuffer) buffer).cleaner();
+                if (cleaner != null) {
+                    cleaner.clean();
+                }
+            } catch (Throwable t) {
+                // Not fatal, the mapping will be released when the buffer is collected.
+                log.debug("Unable to eagerly unmap segment: {}", t.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.corfudb.infrastructure.log;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+
+/**
+ * A thread-safe set of addresses within a log segment, stored as a bitset indexed
+ * by the address relative to the start of the segment.
+ */
+public class SegmentAddressSet {
+
+    private final long base;
+    private final int capacity;
+    private final AtomicLongArray words;
+
+    /**
+     * @param base     The first address of the segment.
+     * @param capacity The number of addresses in the segment.
+     */
+    public SegmentAddressSet(long base, int capacity) {
+        this.base = base;
+        this.capacity = capacity;
+        words = new AtomicLongArray((capacity + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    /**
+     * Add an address to the set.
+     *
+     * @param address The address to add.
+     * @return True if the address wasn't already in the set.
+     */
+    public boolean add(long address) {
+        int index = index(address);
+        if (index < 0) {
+            throw new IllegalArgumentException("Address " + address + " is outside of segment starting at " + base);
+        }
+
+        int word = index / Long.SIZE;
+        long mask = 1L << (index % Long.SIZE);
+        while (true) {
+            long current = words.get(word);
+            if ((current & mask) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(word, current, current | mask)) {
+                return true;
+            }
+        }
+    }
+
+    public boolean contains(long address) {
+        int index = index(address);
+        return index >= 0 && (words.get(index / Long.SIZE) & (1L << (index % Long.SIZE))) != 0;
+    }
+
+    /**
+     * @return The number of addresses in the set.
+     */
+    public int size() {
+        int size = 0;
+        for (int x = 0; x < words.length(); x++) {
+            size += Long.bitCount(words.get(x));
+        }
+        return size;
+    }
+
+    /**
+     * Apply an action to each address in the set, in address order.
+     *
+     * @param action The action to apply.
+     */
+    public void forEach(LongConsumer action) {
+        for (int x = 0; x < words.length(); x++) {
+            long word = words.get(x);
+            while (word != 0) {
+                int bit = Long.numberOfTrailingZeros(word);
+                action.accept(base + (long) x * Long.SIZE + bit);
+                word &= word - 1;
+            }
+        }
+    }
+
+    private int index(long address) {
+        long index = address - base;
+        return index < 0 || index >= capacity ? -1 : (int) index;
+    }
+}
@@ -0,0 +1,130 @@
+package org.corfudb.infrastructure.log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+/**
+ * The record metadata (offset, length and checksum) of the addresses written to a log segment.
+ * <p>
+ * The metadata is kept in primitive arrays indexed by the address relative to the start of the
+ * segment, so the segment doesn't hold a map entry, a boxed key and a metadata object per address.
+ * <p>
+ * The offset of a slot doubles as its version: a writer invalidates the offset before updating
+ * the length and checksum and then publishes the new offset, and a reader retries if the offset
+ * changed while it was reading the slot. Records are only ever appended to a segment file, so
+ * an address that is rewritten always gets a new offset.
+ */
+public class SegmentAddressSpace {
+
+    private static final long ABSENT = -1L;
+    private static final long UPDATING = -2L;
+
+    private final long base;
+    private final AtomicLongArray offsets;
+    private final AtomicIntegerArray lengths;
+    private final AtomicIntegerArray checksums;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param base     The first address of the segment.
+     * @param capacity The number of addresses in the segment.
+     */
+    public SegmentAddressSpace(long base, int capacity) {
+        this.base = base;
+        offsets = new AtomicLongArray(capacity);
+        lengths = new AtomicIntegerArray(capacity);
+        checksums = new AtomicIntegerArray(capacity);
+        for (int x = 0; x < capacity; x++) {
+            offsets.lazySet(x, ABSENT);
+        }
+    }
+
+    /**
+     * Get the metadata of an address.
+     *
+     * @param address The address to look up.
+     * @return The record metadata, or null if the address isn't known.
+     */
+    public AddressMetaData get(long address) {
+        int index = index(address);
+        if (index < 0) {
+            return null;
+        }
+
+        while (true) {
+            long offset = offsets.get(index);
+            if (offset == ABSENT) {
+                return null;
+            }
+            if (offset == UPDATING) {
+                Thread.yield();
+                continue;
+            }
+
+            int length = lengths.get(index);
+            int checksum = checksums.get(index);
+            if (offsets.get(index) == offset) {
+                return new AddressMetaData(checksum, length, offset);
+            }
+        }
+    }
+
+    /**
+     * Set the metadata of an address, replacing any previous metadata.
+     *
+     * @param address  The address to set.
+     * @param metaData The record metadata.
+     */
+    public void put(long address, AddressMetaData metaData) {
+        int index = checkedIndex(address);
+        long previous = offsets.getAndSet(index, UPDATING);
+        lengths.set(index, metaData.length);
+        checksums.set(index, metaData.checksum);
+        offsets.set(index, metaData.offset);
+
+        if (previous == ABSENT) {
+            size.incrementAndGet();
+        }
+    }
+
+    public boolean containsKey(long address) {
+        int index = index(address);
+        return index >= 0 && offsets.get(index) != ABSENT;
+    }
+
+    /**
+     * @return The number of known addresses.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Apply an action to each known address and its metadata, in address order.
+     *
+     * @param action The action to apply.
+     */
+    public void forEach(BiConsumer<Long, AddressMetaData> action) {
+        for (int x = 0; x < offsets.length(); x++) {
+            AddressMetaData metaData = get(base + x);
+            if (metaData != null) {
+                action.accept(base + x, metaData);
+            }
+        }
+    }
+
+    private int index(long address) {
+        long index = address - base;
+        return index < 0 || index >= offsets.length() ? -1 : (int) index;
+    }
+
+    private int checkedIndex(long address) {
+        int index = index(address);
+        if (index < 0) {
+            throw new IllegalArgumentException("Address " + address + " is outside of segment starting at " + base);
+        }
+        return index;
+    }
+}
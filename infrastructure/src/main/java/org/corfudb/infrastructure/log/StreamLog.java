@@ -3,6 +3,11 @@ package org.corfudb.infrastructure.log;
 import org.corfudb.protocols.wireprotocol.LogData;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * An interface definition that specifies an api to interact with a StreamLog.
@@ -19,6 +24,25 @@ public interface StreamLog {
      */
     void append(LogAddress logAddress, LogData entry);
 
+    /**
+     * Append a batch of entries to the stream log, in order. An entry that can't be
+     * appended doesn't prevent the rest of the batch from being appended.
+     * @param entries The addresses and entries to append.
+     * @return For each entry, null if it was appended, otherwise the exception it failed with.
+     */
+    default List<Exception> append(List<Map.Entry<LogAddress, LogData>> entries) {
+        List<Exception> results = new ArrayList<>(entries.size());
+        for (Map.Entry<LogAddress, LogData> entry : entries) {
+            try {
+                append(entry.getKey(), entry.getValue());
+                results.add(null);
+            } catch (Exception e) {
+                results.add(e);
+            }
+        }
+        return results;
+    }
+
     /**
      * Given an address, read the corresponding stream entry.
      * @param logAddress
@@ -26,17 +50,52 @@ public interface StreamLog {
      */
     LogData read(LogAddress logAddress);
 
+    /**
+     * Read the entries at several addresses.
+     * @param logAddresses The addresses to read.
+     * @return The entries that exist, by address. Addresses without an entry are left out.
+     */
+    default Map<LogAddress, LogData> read(Collection<LogAddress> logAddresses) {
+        Map<LogAddress, LogData> entries = new HashMap<>();
+        for (LogAddress logAddress : logAddresses) {
+            LogData entry = read(logAddress);
+            if (entry != null) {
+                entries.put(logAddress, entry);
+            }
+        }
+        return entries;
+    }
+
     /**
      * Mark a StreamLog address as trimmed.
      * @param logAddress
      */
     void trim(LogAddress logAddress);
 
+    /**
+     * Trim every address of the global log up to and including an address. The trimmed
+     * addresses can't be read or written anymore, and the space they take is reclaimed.
+     *
+     * @param address The last address to trim.
+     */
+    void prefixTrim(long address);
+
+    /**
+     * Get the first address of the global log which wasn't prefix trimmed.
+     */
+    long getTrimMark();
+
     /**
      * Remove all trimmed addresses from the StreamLog.
      */
     void compact();
 
+    /**
+     * Move the segments which are old enough to the cold tier, if the StreamLog has one.
+     */
+    default void migrateColdSegments() {
+    }
+
     /**
      * Get the last global address that was written.
      */
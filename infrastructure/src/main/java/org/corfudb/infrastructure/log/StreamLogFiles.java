@@ -1,22 +1,31 @@
 package org.corfudb.infrastructure.log;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -25,17 +34,30 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheWriter;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.RateLimiter;
 import com.google.protobuf.AbstractMessage;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 
 import lombok.Data;
@@ -49,6 +71,7 @@ import org.corfudb.format.Types.DataType;
 import org.corfudb.format.Types.LogEntry;
 import org.corfudb.format.Types.LogHeader;
 import org.corfudb.format.Types.Metadata;
+import org.corfudb.format.Types.SegmentIndex;
 import org.corfudb.infrastructure.ServerContext;
 import org.corfudb.protocols.wireprotocol.IMetadata;
 import org.corfudb.protocols.wireprotocol.LogData;
@@ -56,6 +79,7 @@ import org.corfudb.runtime.exceptions.DataCorruptionException;
 import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.exceptions.TrimmedException;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 
@@ -74,6 +98,41 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     static public int VERSION = 1;
     static public int RECORDS_PER_LOG_FILE = 10000;
     static public int TRIM_THRESHOLD = (int) (.25 * RECORDS_PER_LOG_FILE);
+    static public final int DEFAULT_MAX_OPEN_SEGMENTS = 256;
+    static public final int DEFAULT_COLD_SEGMENT_AGE = 4;
+
+    /**
+     * Matches the file names of the segments of the global log, capturing the segment.
+     */
+    private static final Pattern GLOBAL_SEGMENT_FILE = Pattern.compile("(\\d+)\\.log");
+
+    /**
+     * Matches the names of all the files of the segments of the global log, in both tiers,
+     * capturing the segment.
+     */
+    private static final Pattern GLOBAL_SEGMENT_FILES = Pattern.compile("(\\d+)\\.(log|cold)(\\..+)?");
+
+    /**
+     * Matches the file names of all segments, capturing the stream, if any, and the segment.
+     */
+    private static final Pattern SEGMENT_FILE = Pattern.compile("(?:([0-9a-fA-F-]{36})-)?(\\d+)\\.log");
+
+    /**
+     * The size of the buffer compaction writes the new segment file through.
+     */
+    private static final int COMPACTION_BUFFER_SIZE = 1024 * 1024;
+
+    private static final String metricsPrefix = "corfu.server.logunit.";
+
+    /**
+     * Records which are at most this far apart in a segment file are read with a single read.
+     */
+    static final int MAX_COALESCED_GAP = 64 * 1024;
+
+    /**
+     * The maximum length of a single coalesced read.
+     */
+    static final int MAX_COALESCED_READ = 4 * 1024 * 1024;
 
     static public final int METADATA_SIZE = Metadata.newBuilder()
             .setChecksum(-1)
@@ -82,12 +141,52 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             .getSerializedSize();
     private final boolean noVerify;
     public final String logDir;
-    private Map<String, SegmentHandle> writeChannels;
-    private Set<FileChannel> channelsToSync;
+    private final Cache<String, SegmentHandle> openSegments;
+    /**
+     * The channels written to since they were last synced, with the number of writes to them.
+     * A channel is only removed once it was synced and no write happened in between, so any
+     * concurrent sync either forces a channel or observes that it was forced.
+     */
+    private final Map<FileChannel, Long> channelsToSync;
     private MultiReadWriteLock segmentLocks = new MultiReadWriteLock();
     final private ServerContext serverContext;
     final private AtomicLong globalTail = new AtomicLong(0L);
-    private long lastSegment;
+    private volatile long lastSegment;
+
+    /**
+     * The first address of the global log which wasn't prefix trimmed.
+     */
+    private volatile long trimMark;
+
+    /**
+     * Memory mappings of sealed segments, or null if reads shouldn't use mappings.
+     */
+    private final MappedSegmentCache mappedSegments;
+
+    /**
+     * The directory sealed segments are moved to once they are old enough, or null if the
+     * log is kept in a single directory.
+     */
+    private final String coldLogDir;
+
+    /**
+     * How many segments behind the tail segment a sealed segment is moved to the cold tier.
+     */
+    private final long coldSegmentAge;
+
+    private final Timer coldReadTimer;
+    private final Counter coldBytesSaved;
+
+    /**
+     * Limits the rate compaction copies segments at, in bytes per second, or null if the
+     * rate isn't limited.
+     */
+    private final RateLimiter compactionRateLimiter;
+
+    private final Timer compactionTimer;
+    private final Counter compactedSegments;
+    private final Meter compactionBytesCopied;
+    private final Counter compactionBytesReclaimed;
 
     public StreamLogFiles(ServerContext serverContext, boolean noVerify) {
         logDir = serverContext.getServerConfig().get("--log-path") + File.separator + "log";
@@ -96,11 +195,76 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             dir.mkdirs();
         }
 
-        writeChannels = new ConcurrentHashMap();
-        channelsToSync = new HashSet<>();
+        channelsToSync = new ConcurrentHashMap<>();
         this.noVerify = noVerify;
         this.serverContext = serverContext;
+
+        String maxOpenSegments = (String) serverContext.getServerConfig().get("--max-open-segments");
+        openSegments = Caffeine.newBuilder()
+                // The tail segment weighs nothing, so that it is never evicted
+                .<String, SegmentHandle>weigher((k, v) -> v.getSegment() >= lastSegment ? 0 : 1)
+                .maximumWeight(maxOpenSegments == null ? DEFAULT_MAX_OPEN_SEGMENTS : Long.parseLong(maxOpenSegments))
+                .writer(new CacheWriter<String, SegmentHandle>() {
+                    @Override
+                    public void write(@Nonnull String key, @Nonnull SegmentHandle value) {
+                    }
+
+                    @Override
+                    public void delete(@Nonnull String key, @Nullable SegmentHandle value,
+                                       @Nonnull RemovalCause cause) {
+                        // Retire the handle atomically with its removal, so that nothing is
+                        // written through it once a replacement handle can be opened.
+                        if (value != null) {
+                            value.setEvicted(true);
+                        }
+                    }
+                })
+                .removalListener((String k, SegmentHandle v, RemovalCause cause) -> {
+                    if (cause != RemovalCause.REPLACED) {
+                        log.trace("Closing segment {}: {}", k, cause);
+                        closeSegment(v);
+                    }
+                })
+                .build();
+
+        String maxMappedBytes = (String) serverContext.getServerConfig().get("--max-mapped-bytes");
+        if (maxMappedBytes != null && Long.parseLong(maxMappedBytes) > 0) {
+            mappedSegments = new MappedSegmentCache(Long.parseLong(maxMappedBytes));
+        } else {
+            mappedSegments = null;
+        }
+
+        String coldLogPath = (String) serverContext.getServerConfig().get("--cold-log-path");
+        if (coldLogPath != null) {
+            coldLogDir = coldLogPath + File.separator + "log";
+            new File(coldLogDir).mkdirs();
+        } else {
+            coldLogDir = null;
+        }
+        String coldSegmentAge = (String) serverContext.getServerConfig().get("--cold-segment-age");
+        this.coldSegmentAge = coldSegmentAge == null ? DEFAULT_COLD_SEGMENT_AGE : Long.parseLong(coldSegmentAge);
+
+        String compactionRate = (String) serverContext.getServerConfig().get("--compaction-rate");
+        if (compactionRate != null && Long.parseLong(compactionRate) > 0) {
+            compactionRateLimiter = RateLimiter.create(Long.parseLong(compactionRate));
+        } else {
+            compactionRateLimiter = null;
+        }
+
+        MetricRegistry metrics = ServerContext.getMetrics();
+        coldReadTimer = metrics.timer(metricsPrefix + "cold.read");
+        coldBytesSaved = metrics.counter(metricsPrefix + "cold.bytes-saved");
+        compactionTimer = metrics.timer(metricsPrefix + "compaction.segment");
+        compactedSegments = metrics.counter(metricsPrefix + "compaction.segments");
+        compactionBytesCopied = metrics.meter(metricsPrefix + "compaction.bytes-copied");
+        compactionBytesReclaimed = metrics.counter(metricsPrefix + "compaction.bytes-reclaimed");
+
         verifyLogs();
+
+        // Finish deleting the segments below the trim mark, in case it was interrupted
+        trimMark = serverContext.getTrimMark();
+        deletePrefixTrimmedSegments();
+
         initializeMaxGlobalAddress();
     }
 
@@ -117,12 +281,26 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         long segment = address / RECORDS_PER_LOG_FILE;
         if(lastSegment < segment) {
             serverContext.setTailSegment(segment);
+            long previousSegment = lastSegment;
             lastSegment = segment;
+
+            // Segments behind the new tail are no longer pinned, re-weigh them
+            openSegments.asMap().forEach((path, sh) -> {
+                if (sh.getSegment() >= previousSegment && sh.getSegment() < segment) {
+                    openSegments.asMap().replace(path, sh, sh);
+                }
+            });
         }
     }
 
     private void initializeMaxGlobalAddress() {
         long tailSegment = serverContext.getTailSegment();
+        if (isSegmentPrefixTrimmed(tailSegment)) {
+            // The whole log up to the trim mark was trimmed, and its segments deleted
+            globalTail.set(trimMark - 1);
+            lastSegment = tailSegment;
+            return;
+        }
         long addressInTailSegment = (tailSegment * RECORDS_PER_LOG_FILE) + 1;
         SegmentHandle sh = getSegmentHandleForAddress(new LogAddress(addressInTailSegment, null));
         try {
@@ -168,7 +346,7 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                     fc.close();
                     fIn.close();
 
-                    if (metadata.getChecksum() != getChecksum(header.toByteArray())) {
+                    if (metadata.getChecksum() != getChecksum(headerBuf.array())) {
                         log.error("Checksum mismatch detected while trying to read header for logfile {}", file);
                         throw new DataCorruptionException();
                     }
@@ -200,104 +378,422 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         return segmentPath + ".trimmed";
     }
 
+    static public String getSegmentIndexFilePath(String segmentPath) {
+        return segmentPath + ".index";
+    }
+
+    /**
+     * Get the path of the cold segment a segment is moved to.
+     *
+     * @param segmentPath The path of the segment file.
+     * @return The path of the cold segment file.
+     */
+    private String getColdSegmentFilePath(String segmentPath) {
+        String fileName = new File(segmentPath).getName();
+        return coldLogDir + File.separator + fileName.substring(0, fileName.length() - ".log".length()) + ".cold";
+    }
+
+    /**
+     * Mark a channel as written to, so that the next sync forces it.
+     */
+    private void markForSync(FileChannel ch) {
+        channelsToSync.merge(ch, 1L, Long::sum);
+    }
+
     @Override
     public void sync(boolean force) throws IOException {
-        if(force) {
-            for (FileChannel ch : channelsToSync) {
-                ch.force(true);
+        int synced = 0;
+        for (Map.Entry<FileChannel, Long> entry : channelsToSync.entrySet()) {
+            FileChannel ch = entry.getKey();
+            if (force) {
+                try {
+                    // The files were created and forced when the segment was opened, appends only
+                    // need their content (and the file length, which fdatasync includes) on disk
+                    ch.force(false);
+                } catch (ClosedChannelException e) {
+                    // The segment was closed (and forced) since this channel was written to
+                    log.trace("Skipping sync of closed channel {}", ch);
+                }
             }
+            channelsToSync.remove(ch, entry.getValue());
+            synced++;
         }
-        log.debug("Sync'd {} channels", channelsToSync.size());
-        channelsToSync.clear();
+        log.debug("Sync'd {} channels", synced);
     }
 
     @Override
     public void trim(LogAddress logAddress) {
-        SegmentHandle handle = getSegmentHandleForAddress(logAddress);
-        if (!handle.getKnownAddresses().containsKey(logAddress.getAddress()) ||
-                handle.getPendingTrims().contains(logAddress.getAddress())) {
-            return;
+        while (true) {
+            if (isPrefixTrimmed(logAddress)) {
+                return;
+            }
+            SegmentHandle handle;
+            try {
+                handle = getSegmentHandleForAddress(logAddress);
+            } catch (TrimmedException e) {
+                // The segment was deleted by a concurrent prefix trim
+                return;
+            }
+            try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(handle.getSegment())) {
+                if (handle.isEvicted()) {
+                    continue;
+                }
+                if (isPrefixTrimmed(logAddress)) {
+                    return;
+                }
+
+                if (!handle.getKnownAddresses().containsKey(logAddress.getAddress()) ||
+                        handle.getPendingTrims().contains(logAddress.getAddress())) {
+                    return;
+                }
+                TrimEntry entry = TrimEntry.newBuilder()
+                        .setChecksum(getChecksum(logAddress.getAddress()))
+                        .setAddress(logAddress.getAddress())
+                        .build();
+
+                // TODO(Maithem) possibly move this to SegmentHandle. Do we need to close and flush?
+                OutputStream outputStream = Channels.newOutputStream(handle.getPendingTrimChannel());
+                try {
+                    entry.writeDelimitedTo(outputStream);
+                    outputStream.flush();
+                    handle.pendingTrims.add(logAddress.getAddress());
+                    markForSync(handle.getPendingTrimChannel());
+                } catch (IOException e) {
+                    log.warn("Exception while writing a trim entry {} : {}", logAddress.toString(), e.toString());
+                }
+                return;
+            }
         }
-        TrimEntry entry = TrimEntry.newBuilder()
-                .setChecksum(getChecksum(logAddress.getAddress()))
-                .setAddress(logAddress.getAddress())
-                .build();
+    }
 
-        // TODO(Maithem) possibly move this to SegmentHandle. Do we need to close and flush?
-        OutputStream outputStream = Channels.newOutputStream(handle.getPendingTrimChannel());
-        try {
-            entry.writeDelimitedTo(outputStream);
-            outputStream.flush();
-            handle.pendingTrims.add(logAddress.getAddress());
-            channelsToSync.add(handle.getPendingTrimChannel());
-        } catch (IOException e) {
-            log.warn("Exception while writing a trim entry {} : {}", logAddress.toString(), e.toString());
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The trim mark is persisted once, before the segments entirely below it are deleted,
+     * so a deletion which was interrupted is finished when the log is opened again. Reads
+     * below the trim mark throw a {@link TrimmedException} without opening a segment.
+     */
+    @Override
+    public synchronized void prefixTrim(long address) {
+        if (address < trimMark) {
+            return;
         }
+
+        serverContext.setTrimMark(address + 1);
+        trimMark = address + 1;
+        deletePrefixTrimmedSegments();
     }
 
     @Override
-    public void compact() {
-        //TODO(Maithem) Open all segment handlers?
-        for (SegmentHandle sh : writeChannels.values()) {
-            Set<Long> pending = new HashSet(sh.getPendingTrims());
-            Set<Long> trimmed = sh.getTrimmedAddresses();
+    public long getTrimMark() {
+        return trimMark;
+    }
+
+    /**
+     * @return True if the address is in the global log, and below the trim mark.
+     */
+    private boolean isPrefixTrimmed(LogAddress logAddress) {
+        return logAddress.getStream() == null && logAddress.getAddress() < trimMark;
+    }
 
-            if (sh.getKnownAddresses().size() + trimmed.size() != RECORDS_PER_LOG_FILE) {
-                log.info("Log segment still not complete, skipping");
+    /**
+     * @return True if a segment of the global log is entirely below the trim mark, and so
+     * was deleted or is about to be.
+     */
+    private boolean isSegmentPrefixTrimmed(long segment) {
+        return (segment + 1) * RECORDS_PER_LOG_FILE <= trimMark;
+    }
+
+    /**
+     * Delete the files of the segments of the global log which are entirely below the trim mark.
+     */
+    private void deletePrefixTrimmedSegments() {
+        Set<Long> segments = new TreeSet<>();
+        for (String dir : new String[]{logDir, coldLogDir}) {
+            String[] files = dir == null ? null : new File(dir).list();
+            if (files == null) {
                 continue;
             }
+            for (String file : files) {
+                Matcher matcher = GLOBAL_SEGMENT_FILES.matcher(file);
+                if (matcher.matches()) {
+                    segments.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+
+        for (long segment : segments) {
+            if (!isSegmentPrefixTrimmed(segment)) {
+                break;
+            }
 
-            pending.removeAll(trimmed);
+            String filePath = getSegmentFilePath(new LogAddress(segment * RECORDS_PER_LOG_FILE, null));
+            try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(segment)) {
+                openSegments.invalidate(filePath);
+                if (mappedSegments != null) {
+                    mappedSegments.invalidate(filePath);
+                }
 
-            //what if pending size  == knownaddresses size ?
-            if (pending.size() < TRIM_THRESHOLD) {
-                log.trace("Thresh hold not exceeded. Ratio {} threshold {}", pending.size(), TRIM_THRESHOLD);
-                return; // TODO - should not return if compact on ranked address space is necessary
+                List<String> paths = new ArrayList<>(Arrays.asList(filePath, getTrimmedFilePath(filePath),
+                        getPendingTrimsFilePath(filePath), getSegmentIndexFilePath(filePath), filePath + ".copy"));
+                if (coldLogDir != null) {
+                    paths.add(getColdSegmentFilePath(filePath));
+                    paths.add(getColdSegmentFilePath(filePath) + ".tmp");
+                }
+                for (String path : paths) {
+                    Files.deleteIfExists(Paths.get(path));
+                }
+                log.info("Deleted prefix trimmed segment {}", filePath);
+            } catch (IOException e) {
+                log.error("Failed to delete prefix trimmed segment {}", filePath, e);
             }
+        }
+    }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every full segment with enough pending trims is compacted in turn. Its surviving
+     * records are streamed to a new segment file, at most at the configured compaction
+     * rate and without holding the segment lock, and the new file then replaces the
+     * segment under the segment's write lock. A segment which was written to during the
+     * copy is left for the next compaction.
+     * <p>
+     * Candidates are picked from the trimmed and pending trim files of the segments, so
+     * segments without enough pending trims are not opened.
+     */
+    @Override
+    public void compact() {
+        String[] files = new File(logDir).list();
+        if (files == null) {
+            return;
+        }
+
+        for (String file : files) {
+            Matcher matcher = SEGMENT_FILE.matcher(file);
+            if (!matcher.matches()) {
+                continue;
+            }
+
+            UUID stream = matcher.group(1) == null ? null : UUID.fromString(matcher.group(1));
+            long segment = Long.parseLong(matcher.group(2));
+            LogAddress logAddress = new LogAddress(segment * RECORDS_PER_LOG_FILE, stream);
             try {
-                log.info("Starting compaction, pending entries size {}", pending.size());
-                trimLogFile(sh.getFileName(), pending);
-            } catch (IOException e) {
-                log.error("Compact operation failed for file {}", sh.getFileName());
+                if (hasEnoughPendingTrims(getSegmentFilePath(logAddress))) {
+                    compactSegment(logAddress);
+                }
+            } catch (TrimmedException e) {
+                log.trace("Segment file {} was deleted by a prefix trim, skipping", file);
+            } catch (IOException | DataCorruptionException e) {
+                log.error("Compact operation failed for file {}", file, e);
             }
         }
     }
 
-    private void trimLogFile(String filePath, Set<Long> pendingTrim) throws IOException {
-        FileChannel fc = FileChannel.open(FileSystems.getDefault().getPath(filePath + ".copy"),
-                EnumSet.of(StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
-                        StandardOpenOption.CREATE, StandardOpenOption.SPARSE));
+    /**
+     * Check whether a segment has enough pending trims to be compacted, from its trimmed
+     * and pending trim files only, without opening the segment.
+     *
+     * @param filePath The segment file.
+     * @return True if the segment may have enough pending trims to be compacted.
+     */
+    private boolean hasEnoughPendingTrims(String filePath) throws IOException {
+        Path pendingPath = Paths.get(getPendingTrimsFilePath(filePath));
+        Path trimmedPath = Paths.get(getTrimmedFilePath(filePath));
+        long pendingSize = Files.exists(pendingPath) ? Files.size(pendingPath) : 0L;
+        long trimmedSize = Files.exists(trimmedPath) ? Files.size(trimmedPath) : 0L;
+
+        // Compaction only records pending trims as trimmed, each one once, so the trimmed
+        // file is no larger than the pending trim file unless new trims are pending
+        if (pendingSize <= trimmedSize) {
+            return false;
+        }
 
-        FileChannel fc2 = FileChannel.open(FileSystems.getDefault().getPath(getTrimmedFilePath(filePath)),
-                EnumSet.of(StandardOpenOption.APPEND));
+        Set<Long> pending = readTrimEntries(pendingPath, pendingSize);
+        pending.removeAll(readTrimEntries(trimmedPath, trimmedSize));
+        return pending.size() >= TRIM_THRESHOLD;
+    }
 
-        CompactedEntry log = getCompactedEntries(filePath, pendingTrim);
+    /**
+     * Read the addresses recorded in a trimmed or pending trim file.
+     *
+     * @param path The file to read.
+     * @param size The size of the file to read up to.
+     * @return The addresses in the file.
+     */
+    private static Set<Long> readTrimEntries(Path path, long size) throws IOException {
+        Set<Long> addresses = new HashSet<>();
+        if (size == 0) {
+            return addresses;
+        }
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ);
+             InputStream inputStream = Channels.newInputStream(fc)) {
+            while (fc.position() < size) {
+                addresses.add(TrimEntry.parseDelimitedFrom(inputStream).getAddress());
+            }
+        }
+        return addresses;
+    }
 
-        LogHeader header = log.getLogHeader();
-        Collection<LogEntry> compacted = log.getEntries();
+    /**
+     * Compact a segment, if it is full and has enough pending trims.
+     *
+     * @param logAddress An address in the segment.
+     */
+    private void compactSegment(LogAddress logAddress) throws IOException {
+        String filePath = getSegmentFilePath(logAddress);
+        List<Map.Entry<Long, AddressMetaData>> records = new ArrayList<>();
+        Set<Long> pending = new HashSet<>();
+        long segment;
+        long segmentSize;
+
+        while (true) {
+            SegmentHandle sh = getSegmentHandleForAddress(logAddress);
+            try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireReadLock(sh.getSegment())) {
+                if (sh.isEvicted()) {
+                    continue;
+                }
+                if (!isFull(sh)) {
+                    log.trace("Log segment {} still not complete, skipping", filePath);
+                    return;
+                }
+                if (sh.getColdSegment() != null) {
+                    // Trims of cold segments stay pending, cold segments are never rewritten
+                    return;
+                }
 
-        writeHeader(fc, header.getVersion(), header.getVerifyChecksum());
+                SegmentAddressSet trimmed = sh.getTrimmedAddresses();
+                sh.getPendingTrims().forEach(address -> {
+                    if (!trimmed.contains(address)) {
+                        pending.add(address);
+                    }
+                });
 
-        for (LogEntry entry : compacted) {
+                if (pending.size() < TRIM_THRESHOLD) {
+                    log.trace("Thresh hold not exceeded. Ratio {} threshold {}", pending.size(), TRIM_THRESHOLD);
+                    return;
+                }
+
+                sh.getKnownAddresses().forEach((address, metaData) -> {
+                    if (!pending.contains(address)) {
+                        records.add(new AbstractMap.SimpleImmutableEntry<>(address, metaData));
+                    }
+                });
+                segment = sh.getSegment();
+                segmentSize = sh.getLogChannel().size();
+                break;
+            }
+        }
+
+        log.info("Starting compaction of {}, pending entries size {}", filePath, pending.size());
+        SegmentIndex index;
+        try (Timer.Context ignored = compactionTimer.time()) {
+            Path copyPath = Paths.get(filePath + ".copy");
+            records.sort(Comparator.comparingLong(record -> record.getValue().offset));
+            index = copyRecords(filePath, copyPath, records);
+
+            try (MultiReadWriteLock.AutoCloseableLock ignoredLock = segmentLocks.acquireWriteLock(segment)) {
+                if (Files.size(Paths.get(filePath)) != segmentSize) {
+                    log.info("Log segment {} was written to during compaction, skipping", filePath);
+                    Files.deleteIfExists(copyPath);
+                    return;
+                }
 
-            ByteBuffer record = getByteBufferWithMetaData(entry);
-            ByteBuffer recordBuf = ByteBuffer.allocate(Short.BYTES // Delimiter
-                    + record.capacity());
+                writeTrimmed(filePath, pending);
 
-            recordBuf.putShort(RECORD_DELIMITER);
-            recordBuf.put(record.array());
-            recordBuf.flip();
+                // The offsets in the index no longer match the compacted file
+                Files.deleteIfExists(Paths.get(getSegmentIndexFilePath(filePath)));
+                Files.move(copyPath, Paths.get(filePath), StandardCopyOption.ATOMIC_MOVE);
+                writeSegmentIndex(filePath, index);
 
-            fc.write(recordBuf);
+                // Force the reload of the new segment
+                openSegments.invalidate(filePath);
+                if (mappedSegments != null) {
+                    mappedSegments.invalidate(filePath);
+                }
+            }
         }
 
-        fc.force(true);
-        fc.close();
+        compactedSegments.inc();
+        compactionBytesReclaimed.inc(segmentSize - index.getSegmentSize());
+        log.info("Compacted {} from {} to {} bytes", filePath, segmentSize, index.getSegmentSize());
+    }
 
-        try (OutputStream outputStream = Channels.newOutputStream(fc2)) {
-            // Todo(Maithem) How do we verify that the compacted file is correct?
-            for (Long address : pendingTrim) {
+    /**
+     * Stream records of a segment file to a new segment file, at most at the compaction rate.
+     *
+     * @param filePath The segment file to copy from.
+     * @param copyPath The segment file to copy to.
+     * @param records  The addresses and metadata of the records to copy, in file order.
+     * @return The index of the new segment file.
+     */
+    private SegmentIndex copyRecords(String filePath, Path copyPath,
+                                     List<Map.Entry<Long, AddressMetaData>> records) throws IOException {
+        SegmentIndex.Builder index = SegmentIndex.newBuilder();
+
+        try (FileChannel source = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+             FileChannel destination = FileChannel.open(copyPath, EnumSet.of(StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.SPARSE))) {
+            LogHeader header = readHeader(source);
+            writeHeader(destination, header.getVersion(), header.getVerifyChecksum());
+
+            long position = destination.position();
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(destination), COMPACTION_BUFFER_SIZE));
+            byte[] entry = new byte[0];
+            for (Map.Entry<Long, AddressMetaData> record : records) {
+                AddressMetaData metaData = record.getValue();
+                int recordSize = Short.BYTES + METADATA_SIZE + metaData.length;
+                if (compactionRateLimiter != null) {
+                    compactionRateLimiter.acquire(recordSize);
+                }
+
+                if (entry.length < metaData.length) {
+                    entry = new byte[metaData.length];
+                }
+                ByteBuffer entryBuf = ByteBuffer.wrap(entry, 0, metaData.length);
+                readFully(source, entryBuf, metaData.offset);
+                entryBuf.flip();
+                if (!noVerify && Crc32c.checksum(entryBuf) != metaData.checksum) {
+                    log.error("Checksum mismatch detected while compacting address {}", record.getKey());
+                    throw new DataCorruptionException();
+                }
+
+                output.writeShort(RECORD_DELIMITER);
+                output.write(Metadata.newBuilder()
+                        .setChecksum(metaData.checksum)
+                        .setLength(metaData.length)
+                        .build()
+                        .toByteArray());
+                output.write(entry, 0, metaData.length);
+
+                position += Short.BYTES + METADATA_SIZE;
+                index.addAddresses(record.getKey())
+                        .addOffsets(position)
+                        .addLengths(metaData.length)
+                        .addChecksums(metaData.checksum);
+                position += metaData.length;
+                compactionBytesCopied.mark(recordSize);
+            }
+            output.flush();
+            destination.force(true);
+            index.setSegmentSize(destination.size());
+        }
+
+        return index.build();
+    }
+
+    /**
+     * Record addresses of a segment as trimmed, once they are compacted.
+     *
+     * @param filePath The segment file.
+     * @param trimmed  The addresses to record.
+     */
+    private void writeTrimmed(String filePath, Set<Long> trimmed) throws IOException {
+        try (FileChannel fc = FileChannel.open(Paths.get(getTrimmedFilePath(filePath)),
+                EnumSet.of(StandardOpenOption.APPEND));
+             OutputStream outputStream = Channels.newOutputStream(fc)) {
+            for (Long address : trimmed) {
                 TrimEntry entry = TrimEntry.newBuilder()
                         .setChecksum(getChecksum(address))
                         .setAddress(address)
@@ -305,14 +801,125 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                 entry.writeDelimitedTo(outputStream);
             }
             outputStream.flush();
-            fc2.force(true);
+            fc.force(true);
         }
-        fc2.close();
+    }
+
+    /**
+     * Read the header of a segment file.
+     *
+     * @param fc The segment file.
+     * @return The header.
+     */
+    private static LogHeader readHeader(FileChannel fc) throws IOException {
+        ByteBuffer metadataBuf = ByteBuffer.allocate(METADATA_SIZE);
+        readFully(fc, metadataBuf, 0);
+        Metadata metadata = Metadata.parseFrom(metadataBuf.array());
+
+        ByteBuffer headerBuf = ByteBuffer.allocate(metadata.getLength());
+        readFully(fc, headerBuf, METADATA_SIZE);
+        if (metadata.getChecksum() != getChecksum(headerBuf.array())) {
+            log.error("Checksum mismatch detected while trying to read header of {}", fc);
+            throw new DataCorruptionException();
+        }
+        return LogHeader.parseFrom(headerBuf.array());
+    }
 
-        Files.move(Paths.get(filePath + ".copy"), Paths.get(filePath), StandardCopyOption.ATOMIC_MOVE);
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the segments of the global log are moved. A segment is moved once it is sealed
+     * and at least {@link #coldSegmentAge} segments behind the tail segment. Its trimmed
+     * and pending trim files stay in the log directory, so trims of cold segments are
+     * recorded like trims of any other segment.
+     */
+    @Override
+    public void migrateColdSegments() {
+        if (coldLogDir == null) {
+            return;
+        }
 
-        // Force the reload of the new segment
-        writeChannels.remove(filePath);
+        String[] files = new File(logDir).list();
+        if (files == null) {
+            return;
+        }
+
+        List<Long> segments = new ArrayList<>();
+        for (String file : files) {
+            Matcher matcher = GLOBAL_SEGMENT_FILE.matcher(file);
+            if (matcher.matches() && Long.parseLong(matcher.group(1)) <= lastSegment - coldSegmentAge) {
+                segments.add(Long.parseLong(matcher.group(1)));
+            }
+        }
+        Collections.sort(segments);
+
+        for (long segment : segments) {
+            try {
+                migrateColdSegment(segment);
+            } catch (TrimmedException e) {
+                log.trace("Segment {} was deleted by a prefix trim, skipping", segment);
+            } catch (IOException e) {
+                log.error("Failed to move segment {} to the cold tier", segment, e);
+            }
+        }
+    }
+
+    /**
+     * Move a segment of the global log to the cold tier, if it is sealed.
+     * <p>
+     * The cold segment is written while holding the read lock of the segment, which keeps
+     * it from being written to, and only replaces the segment file once it is complete.
+     *
+     * @param segment The segment to move.
+     */
+    private void migrateColdSegment(long segment) throws IOException {
+        LogAddress logAddress = new LogAddress(segment * RECORDS_PER_LOG_FILE, null);
+        String filePath = getSegmentFilePath(logAddress);
+        Path coldPath = Paths.get(getColdSegmentFilePath(filePath));
+        Path tempPath = Paths.get(coldPath + ".tmp");
+
+        while (true) {
+            SegmentHandle sh = getSegmentHandleForAddress(logAddress);
+            long segmentSize;
+            long coldSize;
+            try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireReadLock(sh.getSegment())) {
+                if (sh.isEvicted()) {
+                    continue;
+                }
+                if (sh.getColdSegment() != null || !isSealed(sh)) {
+                    return;
+                }
+
+                segmentSize = sh.getLogChannel().size();
+                try (FileChannel fc = FileChannel.open(tempPath, EnumSet.of(StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE))) {
+                    coldSize = ColdSegment.write(sh.getReadChannel(), segmentSize, sh.getKnownAddresses(), fc);
+                    fc.force(true);
+                }
+            }
+
+            try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(segment)) {
+                if (Files.size(Paths.get(filePath)) != segmentSize) {
+                    // The segment was written to in between, start over
+                    Files.deleteIfExists(tempPath);
+                    continue;
+                }
+
+                Files.move(tempPath, coldPath, StandardCopyOption.ATOMIC_MOVE);
+
+                // Reopen the segment from the cold tier
+                openSegments.invalidate(filePath);
+                if (mappedSegments != null) {
+                    mappedSegments.invalidate(filePath);
+                }
+                Files.deleteIfExists(Paths.get(getSegmentIndexFilePath(filePath)));
+                Files.delete(Paths.get(filePath));
+            }
+
+            coldBytesSaved.inc(segmentSize - coldSize);
+            log.info("Moved segment {} to the cold tier, {} bytes compressed to {}", segment, segmentSize, coldSize);
+            return;
+        }
     }
 
     private CompactedEntry getCompactedEntries(String filePath, Set<Long> pendingTrim) throws IOException {
@@ -355,7 +962,7 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                 LogEntry entry = LogEntry.parseFrom(logEntryBuf);
 
                 if (!noVerify) {
-                    if (metadata.getChecksum() != getChecksum(entry.toByteArray())) {
+                    if (metadata.getChecksum() != getChecksum(logEntryBuf)) {
                         log.error("Checksum mismatch detected while trying to read address {}", entry.getGlobalAddress());
                         throw new DataCorruptionException();
                     }
@@ -401,14 +1008,6 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                 .build();
     }
 
-    static private ByteBuffer getByteBuffer(Metadata metadata, AbstractMessage message) {
-        ByteBuffer buf = ByteBuffer.allocate(metadata.getSerializedSize() + message.getSerializedSize());
-        buf.put(metadata.toByteArray());
-        buf.put(message.toByteArray());
-        buf.flip();
-        return buf;
-    }
-
     static private ByteBuffer getByteBufferWithMetaData(AbstractMessage message) {
         Metadata metadata = getMetadata(message);
 
@@ -450,11 +1049,13 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     /**
-     * Reads an address space from a log file into a SegmentHandle
+     * Reads an address space from a log file into a SegmentHandle. If the segment has
+     * a valid index the address space is loaded from it, otherwise the log file is scanned.
      *
      * @param sh
+     * @return True if the address space was loaded from the segment index.
      */
-    private void readAddressSpace(SegmentHandle sh) throws IOException {
+    private boolean readAddressSpace(SegmentHandle sh) throws IOException {
         long logFileSize;
 
 
@@ -462,25 +1063,22 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             logFileSize = sh.logChannel.size();
         }
 
-        FileChannel fc = getChannel(sh.fileName, true);
-
-        if (fc == null) {
-            log.trace("Can't read address space, {} doesn't exist", sh.fileName);
-            return;
+        if (loadSegmentIndex(sh, logFileSize)) {
+            return true;
         }
 
+        FileChannel fc = sh.getReadChannel();
+
         // Skip the header
         ByteBuffer headerMetadataBuf = ByteBuffer.allocate(METADATA_SIZE);
-        fc.read(headerMetadataBuf);
+        readFully(fc, headerMetadataBuf, 0);
         headerMetadataBuf.flip();
 
         Metadata headerMetadata = Metadata.parseFrom(headerMetadataBuf.array());
 
-        fc.position(fc.position() + headerMetadata.getLength());
-        long channelOffset = fc.position();
-        ByteBuffer o = ByteBuffer.allocate((int) logFileSize - (int) fc.position());
-        fc.read(o);
-        fc.close();
+        long channelOffset = METADATA_SIZE + headerMetadata.getLength();
+        ByteBuffer o = ByteBuffer.allocate((int) logFileSize - (int) channelOffset);
+        readFully(fc, o, channelOffset);
         o.flip();
 
         while (o.hasRemaining()) {
@@ -489,7 +1087,7 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             channelOffset += Short.BYTES;
 
             if (magic != RECORD_DELIMITER) {
-                return;
+                return false;
             }
 
             byte[] metadataBuf = new byte[METADATA_SIZE];
@@ -499,19 +1097,25 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             try {
                 Metadata metadata = Metadata.parseFrom(metadataBuf);
 
-                byte[] logEntryBuf = new byte[metadata.getLength()];
+                if (metadata.getLength() > o.remaining()) {
+                    log.error("Truncated record detected while trying to read file {}", sh.fileName);
+                    throw new DataCorruptionException();
+                }
 
-                o.get(logEntryBuf);
-
-                LogEntry entry = LogEntry.parseFrom(logEntryBuf);
+                // Checksum and parse the entry in place
+                ByteBuffer logEntryBuf = o.slice();
+                logEntryBuf.limit(metadata.getLength());
+                o.position(o.position() + metadata.getLength());
 
                 if (!noVerify) {
-                    if (metadata.getChecksum() != getChecksum(entry.toByteArray())) {
+                    if (metadata.getChecksum() != Crc32c.checksum(logEntryBuf)) {
                         log.error("Checksum mismatch detected while trying to read file {}", sh.fileName);
                         throw new DataCorruptionException();
                     }
                 }
 
+                LogEntry entry = LogEntry.parseFrom(CodedInputStream.newInstance(logEntryBuf));
+
                 sh.knownAddresses.put(entry.getGlobalAddress(),
                         new AddressMetaData(metadata.getChecksum(), metadata.getLength(), channelOffset));
 
@@ -521,6 +1125,106 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                 throw new DataCorruptionException();
             }
         }
+
+        return false;
+    }
+
+    /**
+     * Load the address space of a segment from its index file.
+     *
+     * @param sh          The segment to load.
+     * @param logFileSize The current size of the segment's log file.
+     * @return True if the index was loaded, false if it is missing, corrupt or stale
+     * and the segment needs to be scanned instead.
+     */
+    private boolean loadSegmentIndex(SegmentHandle sh, long logFileSize) throws IOException {
+        Path indexPath = Paths.get(getSegmentIndexFilePath(sh.getFileName()));
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        if (buf.remaining() < METADATA_SIZE) {
+            log.warn("Truncated segment index {}, scanning segment", indexPath);
+            return false;
+        }
+
+        byte[] metadataBuf = new byte[METADATA_SIZE];
+        buf.get(metadataBuf);
+        byte[] indexBuf = new byte[buf.remaining()];
+        buf.get(indexBuf);
+
+        SegmentIndex index;
+        try {
+            Metadata metadata = Metadata.parseFrom(metadataBuf);
+            if (metadata.getLength() != indexBuf.length || metadata.getChecksum() != getChecksum(indexBuf)) {
+                log.warn("Checksum mismatch detected in segment index {}, scanning segment", indexPath);
+                return false;
+            }
+            index = SegmentIndex.parseFrom(indexBuf);
+        } catch (InvalidProtocolBufferException e) {
+            log.warn("Corrupt segment index {}, scanning segment", indexPath);
+            return false;
+        }
+
+        int count = index.getAddressesCount();
+        if (index.getSegmentSize() != logFileSize || index.getOffsetsCount() != count
+                || index.getLengthsCount() != count || index.getChecksumsCount() != count) {
+            log.warn("Stale segment index {}, scanning segment", indexPath);
+            return false;
+        }
+
+        for (int x = 0; x < count; x++) {
+            sh.knownAddresses.put(index.getAddresses(x),
+                    new AddressMetaData(index.getChecksums(x), index.getLengths(x), index.getOffsets(x)));
+        }
+
+        log.trace("Loaded {} addresses from segment index {}", count, indexPath);
+        return true;
+    }
+
+    /**
+     * Persist the address space of a full segment to its index file, so that the
+     * segment can be loaded without a scan the next time it is opened.
+     *
+     * @param sh The segment to index.
+     */
+    private void writeSegmentIndex(SegmentHandle sh) throws IOException {
+        SegmentIndex.Builder index = SegmentIndex.newBuilder();
+
+        try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireReadLock(sh.getSegment())) {
+            index.setSegmentSize(sh.getLogChannel().size());
+            sh.getKnownAddresses().forEach((address, metaData) ->
+                    index.addAddresses(address)
+                            .addOffsets(metaData.offset)
+                            .addLengths(metaData.length)
+                            .addChecksums(metaData.checksum));
+        }
+
+        writeSegmentIndex(sh.getFileName(), index.build());
+    }
+
+    /**
+     * Persist the index of a segment file.
+     *
+     * @param filePath The segment file.
+     * @param index    The index of the segment file.
+     */
+    private void writeSegmentIndex(String filePath, SegmentIndex index) throws IOException {
+        Path indexPath = Paths.get(getSegmentIndexFilePath(filePath));
+        Path tempPath = Paths.get(indexPath + ".tmp");
+
+        ByteBuffer buf = getByteBufferWithMetaData(index);
+        try (FileChannel fc = FileChannel.open(tempPath, EnumSet.of(StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE))) {
+            while (buf.hasRemaining()) {
+                fc.write(buf);
+            }
+            fc.force(true);
+        }
+
+        Files.move(tempPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+        log.trace("Wrote segment index {}", indexPath);
     }
 
     /**
@@ -530,29 +1234,94 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
      * @param address The address of the entry.
      * @return The log unit entry at that address, or NULL if there was no entry.
      */
-    private LogData  readRecord(SegmentHandle sh, long address)
+    private LogData readRecord(SegmentHandle sh, long address)
             throws IOException {
-        FileChannel fc = null;
-        try {
-            fc = getChannel(sh.fileName, true);
-            AddressMetaData metaData = sh.getKnownAddresses().get(address);
-            if (metaData == null) {
-                return null;
-            }
-
-            fc.position(metaData.offset);
+        AddressMetaData metaData = sh.getKnownAddresses().get(address);
+        if (metaData == null) {
+            return null;
+        }
 
-            try {
-                ByteBuffer entryBuf = ByteBuffer.allocate(metaData.length);
-                fc.read(entryBuf);
-                return getLogData(LogEntry.parseFrom(entryBuf.array()));
+        if (sh.getColdSegment() != null) {
+            try (Timer.Context ignored = coldReadTimer.time()) {
+                return getLogData(LogEntry.parseFrom(CodedInputStream.newInstance(
+                        sh.getColdSegment().read(metaData))));
             } catch (InvalidProtocolBufferException e) {
                 throw new DataCorruptionException();
             }
+        }
+
+        if (mappedSegments != null && isSealed(sh)) {
+            MappedSegmentCache.MappedSegment mapped = mappedSegments.acquire(sh.getFileName(),
+                    sh.getReadChannel());
+            if (mapped != null) {
+                try {
+                    if (mapped.contains(metaData.offset, metaData.length)) {
+                        return getLogData(LogEntry.parseFrom(CodedInputStream.newInstance(
+                                mapped.slice(metaData.offset, metaData.length))));
+                    }
+                    // The record was rewritten past the end of the mapping (i.e. a ranked
+                    // overwrite), so the mapping is stale.
+                    mappedSegments.invalidate(sh.getFileName());
+                } catch (InvalidProtocolBufferException e) {
+                    throw new DataCorruptionException();
+                } finally {
+                    mapped.release();
+                }
+            }
+        }
+
+        // Read into a pooled buffer using a positional read on the shared channel, so that
+        // concurrent readers don't contend on (or corrupt) a common file position.
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer(metaData.length);
+        try {
+            ByteBuffer entryBuf = buf.nioBuffer(0, metaData.length);
+            readFully(sh.getReadChannel(), entryBuf, metaData.offset);
+            entryBuf.flip();
+            return getLogData(LogEntry.parseFrom(CodedInputStream.newInstance(entryBuf)));
+        } catch (InvalidProtocolBufferException e) {
+            throw new DataCorruptionException();
         } finally {
-            if (fc != null) {
-                fc.close();
+            buf.release();
+        }
+    }
+
+    /**
+     * A segment is sealed once every address in it has been written (or trimmed) and
+     * it is no longer the tail segment, after which its contents don't change.
+     *
+     * @param sh The segment to check.
+     * @return True if the segment is sealed.
+     */
+    private boolean isSealed(SegmentHandle sh) {
+        return sh.getSegment() < lastSegment && isFull(sh);
+    }
+
+    /**
+     * A segment is full once every address in it has been written or trimmed.
+     *
+     * @param sh The segment to check.
+     * @return True if the segment is full.
+     */
+    private boolean isFull(SegmentHandle sh) {
+        return sh.getKnownAddresses().size() + sh.getTrimmedAddresses().size() == RECORDS_PER_LOG_FILE;
+    }
+
+    /**
+     * Fill a buffer from a channel starting at a given position, without
+     * modifying the channel's position.
+     *
+     * @param fc       The channel to read from.
+     * @param dst      The buffer to fill.
+     * @param position The file position to start reading from.
+     * @throws IOException
+     */
+    private static void readFully(FileChannel fc, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = fc.read(dst, position);
+            if (read < 0) {
+                throw new DataCorruptionException();
             }
+            position += read;
         }
     }
 
@@ -579,14 +1348,12 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     /**
-     * Gets the file channel for a particular address, creating it
-     * if is not present in the map.
+     * Get the path of the segment file that holds a particular address.
      *
-     * @param logAddress The address to open.
-     * @return The FileChannel for that address.
+     * @param logAddress The address.
+     * @return The path of the segment file.
      */
-    @VisibleForTesting
-    synchronized SegmentHandle getSegmentHandleForAddress(LogAddress logAddress) {
+    private String getSegmentFilePath(LogAddress logAddress) {
         String filePath = logDir + File.separator;
         long segment = logAddress.address / RECORDS_PER_LOG_FILE;
 
@@ -596,15 +1363,44 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
             filePath += logAddress.getStream().toString() + "-" + segment;
         }
 
-        filePath += ".log";
+        return filePath + ".log";
+    }
+
+    /**
+     * Gets the segment handle for a particular address, opening the segment
+     * if is not present in the open segment cache.
+     * <p>
+     * The returned handle may be evicted concurrently, so callers must check
+     * {@link SegmentHandle#isEvicted()} once they hold the segment lock, and
+     * get a fresh handle if it was.
+     * <p>
+     * A segment of the global log which is entirely below the trim mark is never opened,
+     * so that a segment deleted by a concurrent prefix trim isn't created again.
+     *
+     * @param logAddress The address to open.
+     * @return The SegmentHandle for that address.
+     * @throws TrimmedException if the segment is entirely below the trim mark.
+     */
+    @VisibleForTesting
+    SegmentHandle getSegmentHandleForAddress(LogAddress logAddress) {
+        long segment = logAddress.address / RECORDS_PER_LOG_FILE;
 
-        return writeChannels.computeIfAbsent(filePath, a -> {
+        return openSegments.get(getSegmentFilePath(logAddress), a -> {
+            // Checked as the handle is created, the deletion of prefix trimmed segments
+            // invalidates their handles after raising the trim mark
+            if (logAddress.getStream() == null && isSegmentPrefixTrimmed(segment)) {
+                throw new TrimmedException();
+            }
 
             try {
+                if (coldLogDir != null && Files.exists(Paths.get(getColdSegmentFilePath(a)))) {
+                    return openColdSegment(segment, a);
+                }
 
                 FileChannel fc1 = getChannel(a, false);
                 FileChannel fc2 = getChannel(getTrimmedFilePath(a), false);
                 FileChannel fc3 = getChannel(getPendingTrimsFilePath(a), false);
+                FileChannel readChannel = getChannel(a, true);
 
                 boolean verify = true;
 
@@ -617,11 +1413,14 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                     log.trace("Opened new segment file, writing header for {}", a);
                 }
                 log.trace("Opened new log file at {}", a);
-                SegmentHandle sh = new SegmentHandle(segment, fc1, fc2, fc3, a);
+                SegmentHandle sh = new SegmentHandle(segment, fc1, readChannel, fc2, fc3, a);
                 // The first time we open a file we should read to the end, to load the
                 // map of entries we already have.
-                readAddressSpace(sh);
+                boolean indexed = readAddressSpace(sh);
                 loadTrimAddresses(sh);
+                if (!indexed && isFull(sh)) {
+                    writeSegmentIndex(sh);
+                }
                 return sh;
             } catch (IOException e) {
                 log.error("Error opening file {}", a, e);
@@ -630,6 +1429,33 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         });
     }
 
+    /**
+     * Open a segment which was moved to the cold tier.
+     *
+     * @param segment  The segment to open.
+     * @param filePath The path of the segment file it was moved from.
+     * @return The SegmentHandle for the cold segment.
+     */
+    private SegmentHandle openColdSegment(long segment, String filePath) throws IOException {
+        // The move may have been interrupted before the segment file was deleted, the
+        // cold segment is complete once it exists
+        if (Files.deleteIfExists(Paths.get(filePath))) {
+            log.info("Deleted segment file {}, which was already moved to the cold tier", filePath);
+        }
+        Files.deleteIfExists(Paths.get(getSegmentIndexFilePath(filePath)));
+
+        // Cold segments are read-only, the same channel serves as the log channel
+        FileChannel coldChannel = getChannel(getColdSegmentFilePath(filePath), true);
+        FileChannel fc2 = getChannel(getTrimmedFilePath(filePath), false);
+        FileChannel fc3 = getChannel(getPendingTrimsFilePath(filePath), false);
+
+        SegmentHandle sh = new SegmentHandle(segment, coldChannel, coldChannel, fc2, fc3, filePath);
+        sh.setColdSegment(new ColdSegment(coldChannel, sh.getKnownAddresses()));
+        loadTrimAddresses(sh);
+        log.trace("Opened cold segment for {}", filePath);
+        return sh;
+    }
+
     private void loadTrimAddresses(SegmentHandle sh) throws IOException {
         long trimmedSize;
         long pendingTrimSize;
@@ -757,91 +1583,367 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
     }
 
     public static int getChecksum(byte[] bytes) {
-        Hasher hasher = Hashing.crc32c().newHasher();
-        for (byte a : bytes) {
-            hasher.putByte(a);
-        }
-
-        return hasher.hash().asInt();
+        return Crc32c.checksum(bytes);
     }
 
     static int getChecksum(long num) {
-        Hasher hasher = Hashing.crc32c().newHasher();
-        return hasher.putLong(num).hash().asInt();
+        ByteBuffer buf = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putLong(num).flip();
+        return Crc32c.checksum(buf);
     }
 
     /**
-     * Write a log entry record to a file.
-     *
-     * @param fh      The file handle to use.
-     * @param address The address of the entry.
-     * @param entry   The LogUnitEntry to append.
-     * @return Returns metadata for the written record
+     * Records encoded for a segment but not written yet. The records are encoded into pooled
+     * direct buffers and written to the segment with a single gathering write. The caller must
+     * hold the segment's write lock.
      */
-    private AddressMetaData writeRecord(SegmentHandle fh, long address, LogData entry) throws IOException {
-        LogEntry logEntry = getLogEntry(address, entry);
-        Metadata metadata = getMetadata(logEntry);
+    private class RecordBatch {
+        private final SegmentHandle fh;
+        private final List<ByteBuf> buffers = new ArrayList<>();
+        private final List<LogAddress> addresses = new ArrayList<>();
+        private final List<Metadata> metadata = new ArrayList<>();
+        private final List<Integer> indexes = new ArrayList<>();
+        private final BitSet written;
+
+        RecordBatch(SegmentHandle fh, BitSet written) {
+            this.fh = fh;
+            this.written = written;
+        }
 
-        ByteBuffer record = getByteBuffer(metadata, logEntry);
+        boolean contains(LogAddress logAddress) {
+            return addresses.contains(logAddress);
+        }
 
-        ByteBuffer recordBuf = ByteBuffer.allocate(Short.BYTES // Delimiter
-                + record.capacity());
+        /**
+         * Encode a log entry record, that is the delimiter, the metadata and the entry.
+         *
+         * @param index      The position of the entry in the appended batch.
+         * @param logAddress The address of the entry.
+         * @param entry      The entry to append.
+         */
+        void add(int index, LogAddress logAddress, LogData entry) {
+            byte[] logEntry = getLogEntry(logAddress.getAddress(), entry).toByteArray();
+            Metadata recordMetadata = Metadata.newBuilder()
+                    .setChecksum(getChecksum(logEntry))
+                    .setLength(logEntry.length)
+                    .build();
+
+            ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(Short.BYTES
+                    + METADATA_SIZE + logEntry.length);
+            buf.writeShort(RECORD_DELIMITER);
+            buf.writeBytes(recordMetadata.toByteArray());
+            buf.writeBytes(logEntry);
+
+            buffers.add(buf);
+            addresses.add(logAddress);
+            metadata.add(recordMetadata);
+            indexes.add(index);
+        }
 
-        recordBuf.putShort(RECORD_DELIMITER);
-        recordBuf.put(record.array());
-        recordBuf.flip();
+        /**
+         * Write the encoded records to the segment and make their addresses known.
+         */
+        void flush() throws IOException {
+            if (buffers.isEmpty()) {
+                return;
+            }
 
-        long channelOffset;
+            try {
+                ByteBuffer[] srcs = new ByteBuffer[buffers.size()];
+                long remaining = 0;
+                for (int x = 0; x < srcs.length; x++) {
+                    srcs[x] = buffers.get(x).nioBuffer();
+                    remaining += srcs[x].remaining();
+                }
 
-        try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(fh.getSegment())) {
-            channelOffset = fh.logChannel.position() + Short.BYTES + METADATA_SIZE;
-            fh.logChannel.write(recordBuf);
-            channelsToSync.add(fh.logChannel);
-            syncTailSegment(address);
+                long channelOffset = fh.logChannel.position();
+                while (remaining > 0) {
+                    remaining -= fh.logChannel.write(srcs);
+                }
+                markForSync(fh.logChannel);
+
+                for (int x = 0; x < srcs.length; x++) {
+                    long address = addresses.get(x).getAddress();
+                    Metadata recordMetadata = metadata.get(x);
+                    fh.getKnownAddresses().put(address, new AddressMetaData(recordMetadata.getChecksum(),
+                            recordMetadata.getLength(), channelOffset + Short.BYTES + METADATA_SIZE));
+                    channelOffset += buffers.get(x).readableBytes();
+                    syncTailSegment(address);
+                    written.set(indexes.get(x));
+                }
+            } finally {
+                release();
+            }
         }
 
-        return new AddressMetaData(metadata.getChecksum(), metadata.getLength(), channelOffset);
+        void release() {
+            buffers.forEach(ByteBuf::release);
+            buffers.clear();
+            addresses.clear();
+            metadata.clear();
+            indexes.clear();
+        }
     }
 
     @Override
     public void append(LogAddress logAddress, LogData entry) {
-        //evict the data by getting the next pointer.
+        Exception e = append(Collections.singletonList(new AbstractMap.SimpleImmutableEntry<>(logAddress, entry)))
+                .get(0);
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e != null) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The records bound for each segment are written with a single gathering write.
+     */
+    @Override
+    public List<Exception> append(List<Map.Entry<LogAddress, LogData>> entries) {
+        Exception[] results = new Exception[entries.size()];
+        BitSet written = new BitSet(entries.size());
+
+        // Group the entries by segment file, so the global log and each stream are apart,
+        // keeping their order within a segment
+        Map<String, List<Integer>> segments = new LinkedHashMap<>();
+        for (int x = 0; x < entries.size(); x++) {
+            segments.computeIfAbsent(getSegmentFilePath(entries.get(x).getKey()), k -> new ArrayList<>()).add(x);
+        }
+
+        for (List<Integer> indexes : segments.values()) {
+            try {
+                appendToSegment(entries, indexes, results, written);
+            } catch (IOException e) {
+                log.error("Disk_write[{}]: Exception", entries.get(indexes.get(0)).getKey(), e);
+                for (int index : indexes) {
+                    if (results[index] == null && !written.get(index)) {
+                        results[index] = e;
+                    }
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Append entries which all belong to the same segment file.
+     *
+     * @param entries The appended batch.
+     * @param indexes The positions of the entries to append in the batch.
+     * @param results The exception each entry failed with.
+     * @param written The positions of the entries that were written.
+     */
+    private void appendToSegment(List<Map.Entry<LogAddress, LogData>> entries, List<Integer> indexes,
+                                 Exception[] results, BitSet written) throws IOException {
+        LogAddress firstAddress = entries.get(indexes.get(0)).getKey();
+        if (indexes.stream().allMatch(index -> isPrefixTrimmed(entries.get(index).getKey()))) {
+            // Don't open a segment which may have been deleted
+            indexes.forEach(index -> results[index] = new OverwriteException());
+            return;
+        }
+
+        while (true) {
+            SegmentHandle fh;
+            try {
+                fh = getSegmentHandleForAddress(firstAddress);
+            } catch (TrimmedException e) {
+                // The segment was deleted by a concurrent prefix trim
+                indexes.forEach(index -> results[index] = new OverwriteException());
+                return;
+            }
+            try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(fh.getSegment())) {
+                if (fh.isEvicted()) {
+                    // The segment was closed under us, reopen it
+                    continue;
+                }
+
+                boolean wasFull = isFull(fh);
+                RecordBatch records = new RecordBatch(fh, written);
+                try {
+                    for (int index : indexes) {
+                        LogAddress logAddress = entries.get(index).getKey();
+                        LogData entry = entries.get(index).getValue();
+
+                        // An earlier entry of the batch was written to the same address,
+                        // write it first so that this entry is checked against it
+                        if (records.contains(logAddress)) {
+                            records.flush();
+                        }
+
+                        try {
+                            if (fh.getColdSegment() != null || isPrefixTrimmed(logAddress)) {
+                                // Cold segments are sealed, and never rewritten
+                                throw new OverwriteException();
+                            }
+                            // make sure the entry doesn't currently exist...
+                            if (fh.getKnownAddresses().containsKey(logAddress.address) ||
+                                    fh.getTrimmedAddresses().contains(logAddress.address)) {
+                                if (entry.getRank() == null) {
+                                    throw new OverwriteException();
+                                }
+                                // the method below might throw DataOutrankedException or ValueAdoptedException
+                                assertAppendPermittedUnsafe(logAddress, entry);
+                            }
+                            records.add(index, logAddress, entry);
+                        } catch (RuntimeException e) {
+                            results[index] = e;
+                        }
+                    }
+                    records.flush();
+                } finally {
+                    records.release();
+                }
+
+                // Index the segment once, when it becomes full. A later ranked rewrite grows the
+                // file, so the index is then found stale and the segment scanned and re-indexed
+                // the next time it is opened
+                if (!wasFull && isFull(fh)) {
+                    writeSegmentIndex(fh);
+                }
+                log.trace("Disk_write[{}]: Written {} entries to disk.", firstAddress, indexes.size());
+                return;
+            }
+        }
+    }
+
+    @Override
+    public LogData read(LogAddress logAddress) {
         try {
-            // make sure the entry doesn't currently exist...
-            // (probably need a faster way to do this - high watermark?)
-            SegmentHandle fh = getSegmentHandleForAddress(logAddress);
-            if (fh.getKnownAddresses().containsKey(logAddress.address) ||
-                    fh.getTrimmedAddresses().contains(logAddress.address)) {
-                if (entry.getRank()==null) {
-                    throw new OverwriteException();
-                } else {
-                    // the method below might throw DataOutrankedException or ValueAdoptedException
-                    assertAppendPermittedUnsafe(logAddress, entry);
-                    AddressMetaData addressMetaData = writeRecord(fh, logAddress.address, entry);
-                    fh.getKnownAddresses().put(logAddress.address, addressMetaData);
+            while (true) {
+                if (isPrefixTrimmed(logAddress)) {
+                    throw new TrimmedException();
+                }
+                SegmentHandle sh = getSegmentHandleForAddress(logAddress);
+                try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireReadLock(sh.getSegment())) {
+                    if (sh.isEvicted()) {
+                        // The segment was closed under us, reopen it
+                        continue;
+                    }
+                    if (isPrefixTrimmed(logAddress) || sh.getPendingTrims().contains(logAddress.getAddress())) {
+                        throw new TrimmedException();
+                    }
+                    return readRecord(sh, logAddress.address);
                 }
-            } else {
-                AddressMetaData addressMetaData = writeRecord(fh, logAddress.address, entry);
-                fh.getKnownAddresses().put(logAddress.address, addressMetaData);
             }
-            log.trace("Disk_write[{}]: Written to disk.", logAddress);
-        } catch (IOException e) {
-            log.error("Disk_write[{}]: Exception", logAddress, e);
+        } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The records of a segment are read in file order, and records that are close to each
+     * other in the file are read together with a single sequential read.
+     */
     @Override
-    public LogData read(LogAddress logAddress) {
+    public Map<LogAddress, LogData> read(Collection<LogAddress> logAddresses) {
+        Map<String, List<LogAddress>> segments = new LinkedHashMap<>();
+        for (LogAddress logAddress : logAddresses) {
+            segments.computeIfAbsent(getSegmentFilePath(logAddress), k -> new ArrayList<>()).add(logAddress);
+        }
+
+        Map<LogAddress, LogData> entries = new HashMap<>();
         try {
-            SegmentHandle sh = getSegmentHandleForAddress(logAddress);
-            if (sh.getPendingTrims().contains(logAddress.getAddress())) {
-                throw new TrimmedException();
+            for (List<LogAddress> segmentAddresses : segments.values()) {
+                readSegment(segmentAddresses, entries);
             }
-            return readRecord(sh, logAddress.address);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        return entries;
+    }
+
+    /**
+     * Read the entries at addresses which all belong to the same segment.
+     *
+     * @param logAddresses The addresses to read.
+     * @param entries      The map to add the entries that exist to.
+     */
+    private void readSegment(List<LogAddress> logAddresses, Map<LogAddress, LogData> entries) throws IOException {
+        while (true) {
+            if (logAddresses.stream().anyMatch(this::isPrefixTrimmed)) {
+                throw new TrimmedException();
+            }
+            SegmentHandle sh = getSegmentHandleForAddress(logAddresses.get(0));
+            try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireReadLock(sh.getSegment())) {
+                if (sh.isEvicted()) {
+                    // The segment was closed under us, reopen it
+                    continue;
+                }
+
+                List<Map.Entry<LogAddress, AddressMetaData>> records = new ArrayList<>(logAddresses.size());
+                for (LogAddress logAddress : logAddresses) {
+                    if (isPrefixTrimmed(logAddress) || sh.getPendingTrims().contains(logAddress.getAddress())) {
+                        throw new TrimmedException();
+                    }
+                    AddressMetaData metaData = sh.getKnownAddresses().get(logAddress.getAddress());
+                    if (metaData != null) {
+                        records.add(new AbstractMap.SimpleImmutableEntry<>(logAddress, metaData));
+                    }
+                }
+
+                records.sort(Comparator.comparingLong(record -> record.getValue().offset));
+                if (sh.getColdSegment() != null || (mappedSegments != null && isSealed(sh))) {
+                    // Reads of mapped segments don't need coalescing, and reads of cold
+                    // segments in order inflate each block once
+                    for (Map.Entry<LogAddress, AddressMetaData> record : records) {
+                        entries.put(record.getKey(), readRecord(sh, record.getKey().getAddress()));
+                    }
+                    return;
+                }
+
+                int start = 0;
+                while (start < records.size()) {
+                    // Extend the run while the next record is close to its end
+                    long runStart = records.get(start).getValue().offset;
+                    long runEnd = runStart + records.get(start).getValue().length;
+                    int end = start + 1;
+                    while (end < records.size()) {
+                        AddressMetaData next = records.get(end).getValue();
+                        if (next.offset - runEnd > MAX_COALESCED_GAP
+                                || next.offset + next.length - runStart > MAX_COALESCED_READ) {
+                            break;
+                        }
+                        runEnd = Math.max(runEnd, next.offset + next.length);
+                        end++;
+                    }
+
+                    readRecords(sh, records.subList(start, end), runStart, (int) (runEnd - runStart), entries);
+                    start = end;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read a run of records with a single read. The caller must hold the segment's read lock.
+     *
+     * @param sh      The segment to read from.
+     * @param records The addresses and metadata of the records in the run.
+     * @param offset  The offset of the run in the segment file.
+     * @param length  The length of the run.
+     * @param entries The map to add the entries to.
+     */
+    private void readRecords(SegmentHandle sh, List<Map.Entry<LogAddress, AddressMetaData>> records,
+                             long offset, int length, Map<LogAddress, LogData> entries) throws IOException {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.heapBuffer(length);
+        try {
+            readFully(sh.getReadChannel(), buf.nioBuffer(0, length), offset);
+            for (Map.Entry<LogAddress, AddressMetaData> record : records) {
+                AddressMetaData metaData = record.getValue();
+                ByteBuffer entryBuf = buf.nioBuffer((int) (metaData.offset - offset), metaData.length);
+                entries.put(record.getKey(), getLogData(LogEntry.parseFrom(CodedInputStream.newInstance(entryBuf))));
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw new DataCorruptionException();
+        } finally {
+            buf.release();
+        }
     }
 
     /**
@@ -855,17 +1957,52 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         @NonNull
         private final FileChannel logChannel;
         @NonNull
+        private final FileChannel readChannel;
+        @NonNull
         private final FileChannel trimmedChannel;
         @NonNull
         private final FileChannel pendingTrimChannel;
         @NonNull
         private String fileName;
-        private Map<Long, AddressMetaData> knownAddresses = new ConcurrentHashMap();
-        private Set<Long> trimmedAddresses = Collections.newSetFromMap(new ConcurrentHashMap<>());
-        private Set<Long> pendingTrims = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private SegmentAddressSpace knownAddresses;
+        private SegmentAddressSet trimmedAddresses;
+        private SegmentAddressSet pendingTrims;
+
+        /**
+         * The segment in the cold tier, if the segment was moved there. Its channel is
+         * both the log and the read channel of the handle.
+         */
+        private ColdSegment coldSegment;
+
+        /**
+         * Set once the handle has been removed from the open segment cache.
+         * An evicted handle is closed asynchronously and must not be used.
+         */
+        private volatile boolean evicted = false;
+        private boolean closed = false;
+
+        public SegmentHandle(long segment, @NonNull FileChannel logChannel, @NonNull FileChannel readChannel,
+                             @NonNull FileChannel trimmedChannel, @NonNull FileChannel pendingTrimChannel,
+                             @NonNull String fileName) {
+            this.segment = segment;
+            this.logChannel = logChannel;
+            this.readChannel = readChannel;
+            this.trimmedChannel = trimmedChannel;
+            this.pendingTrimChannel = pendingTrimChannel;
+            this.fileName = fileName;
+
+            long base = segment * RECORDS_PER_LOG_FILE;
+            knownAddresses = new SegmentAddressSpace(base, RECORDS_PER_LOG_FILE);
+            trimmedAddresses = new SegmentAddressSet(base, RECORDS_PER_LOG_FILE);
+            pendingTrims = new SegmentAddressSet(base, RECORDS_PER_LOG_FILE);
+        }
 
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
 
-        public void close() {
             Set<FileChannel> channels = new HashSet(Arrays.asList(logChannel, trimmedChannel, pendingTrimChannel));
             for (FileChannel channel : channels) {
                 try {
@@ -877,6 +2014,12 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
                 }
             }
 
+            try {
+                readChannel.close();
+            } catch (IOException e) {
+                log.warn("Error closing read channel {}: {}", readChannel.toString(), e.toString());
+            }
+
             knownAddresses = null;
             trimmedAddresses = null;
             pendingTrims = null;
@@ -900,13 +2043,36 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
         }
     }
 
+    /**
+     * Close a segment handle once no reader or writer is using it.
+     *
+     * @param sh The segment to close.
+     */
+    private void closeSegment(SegmentHandle sh) {
+        try (MultiReadWriteLock.AutoCloseableLock ignored = segmentLocks.acquireWriteLock(sh.getSegment())) {
+            sh.setEvicted(true);
+            // Closing forces the channels, so they don't need a separate sync
+            sh.close();
+            channelsToSync.keySet().removeAll(Arrays.asList(sh.getLogChannel(), sh.getPendingTrimChannel()));
+        }
+    }
+
     @Override
     public void close() {
-        for (SegmentHandle fh : writeChannels.values()) {
-            fh.close();
+        if (mappedSegments != null) {
+            mappedSegments.invalidateAll();
+        }
+
+        for (SegmentHandle fh : openSegments.asMap().values()) {
+            closeSegment(fh);
         }
 
-        writeChannels = new HashMap<>();
+        openSegments.invalidateAll();
+    }
+
+    @VisibleForTesting
+    Cache<String, SegmentHandle> getOpenSegments() {
+        return openSegments;
     }
 
     @Override
@@ -915,6 +2081,6 @@ public class StreamLogFiles implements StreamLog, StreamLogWithRankedAddressSpac
 
     @VisibleForTesting
     Set<FileChannel> getChannelsToSync() {
-        return channelsToSync;
+        return channelsToSync.keySet();
     }
 }
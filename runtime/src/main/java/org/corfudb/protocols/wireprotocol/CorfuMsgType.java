@@ -44,6 +44,9 @@ public enum CorfuMsgType {
     TOKEN_REQ(20, new TypeToken<CorfuPayloadMsg<TokenRequest>>(){}),
     TOKEN_RES(21, new TypeToken<CorfuPayloadMsg<TokenResponse>>(){}),
     RESET_SEQUENCER(22, new TypeToken<CorfuPayloadMsg<Long>>(){}),
+    RECOVER_SEQUENCER(23, new TypeToken<CorfuPayloadMsg<SequencerRecoveryMsg>>(){}),
+    MULTIPLE_TOKEN_REQ(24, new TypeToken<CorfuPayloadMsg<MultipleTokenRequest>>(){}),
+    MULTIPLE_TOKEN_RES(25, new TypeToken<CorfuPayloadMsg<MultipleTokenResponse>>(){}),
 
     // Logging Unit Messages
     WRITE(30, new TypeToken<CorfuPayloadMsg<WriteRequest>>() {}),
@@ -54,9 +57,13 @@ public enum CorfuMsgType {
     FORCE_GC(35, TypeToken.of(CorfuMsg.class)),
     GC_INTERVAL(36, new TypeToken<CorfuPayloadMsg<Long>>() {}),
     FORCE_COMPACT(37, TypeToken.of(CorfuMsg.class)),
+    MULTIPLE_READ_REQUEST(38, new TypeToken<CorfuPayloadMsg<MultipleReadRequest>>() {}),
+    PREFIX_TRIM(39, new TypeToken<CorfuPayloadMsg<Long>>() {}),
     COMMIT(40, new TypeToken<CorfuPayloadMsg<CommitRequest>>() {}),
     TAIL_REQUEST(41, TypeToken.of(CorfuMsg.class), true),
     TAIL_RESPONSE(42, new TypeToken<CorfuPayloadMsg<Long>>(){}, true),
+    STREAM_TAILS_REQUEST(43, new TypeToken<CorfuPayloadMsg<StreamTailsRequest>>(){}, true),
+    STREAM_TAILS_RESPONSE(44, new TypeToken<CorfuPayloadMsg<StreamTailsResponse>>(){}, true),
 
     WRITE_OK(50, TypeToken.of(CorfuMsg.class)),
     ERROR_TRIMMED(51, TypeToken.of(CorfuMsg.class)),
@@ -0,0 +1,96 @@
+package org.corfudb.protocols.wireprotocol;
+
+import com.google.common.collect.ImmutableList;
+import io.netty.buffer.ByteBuf;
+import lombok.Data;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A request to read an arbitrary set of addresses from a log unit.
+ * <p>
+ * The addresses are kept sorted and unique, so on the wire they are
+ * encoded as the first address followed by the variable length
+ * encoded deltas between consecutive addresses. Addresses which are
+ * close together, which is the common case when a stream is read,
+ * take one or two bytes each.
+ */
+@Data
+public class MultipleReadRequest implements ICorfuPayload<MultipleReadRequest> {
+
+    /** The bits of a varint byte which carry the value. */
+    private static final int VARINT_VALUE_MASK = 0x7F;
+
+    /** The bit of a varint byte which marks that more bytes follow. */
+    private static final int VARINT_CONTINUATION = 0x80;
+
+    /** The number of value bits in each varint byte. */
+    private static final int VARINT_SHIFT = 7;
+
+    /** The addresses to read, in ascending order. */
+    final List<Long> addresses;
+
+    public MultipleReadRequest(Collection<Long> addresses) {
+        this.addresses = ImmutableList.copyOf(addresses.stream()
+                .sorted()
+                .distinct()
+                .iterator());
+    }
+
+    public MultipleReadRequest(ByteBuf buf) {
+        int numAddresses = ICorfuPayload.fromBuffer(buf, Integer.class);
+        ImmutableList.Builder<Long> builder = ImmutableList.builder();
+        long address = 0;
+        for (int i = 0; i < numAddresses; i++) {
+            address = i == 0 ? ICorfuPayload.fromBuffer(buf, Long.class) : address + readVarLong(buf);
+            builder.add(address);
+        }
+        addresses = builder.build();
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, addresses.size());
+        long previous = 0;
+        for (int i = 0; i < addresses.size(); i++) {
+            long address = addresses.get(i);
+            if (i == 0) {
+                ICorfuPayload.serialize(buf, address);
+            } else {
+                writeVarLong(buf, address - previous);
+            }
+            previous = address;
+        }
+    }
+
+    /** Write a non-negative long, seven bits at a time, least significant bits first.
+     *
+     * @param buf   The buffer to write to.
+     * @param value The value to write.
+     */
+    private static void writeVarLong(ByteBuf buf, long value) {
+        while ((value & ~VARINT_VALUE_MASK) != 0) {
+            buf.writeByte((int) (value & VARINT_VALUE_MASK) | VARINT_CONTINUATION);
+            value >>>= VARINT_SHIFT;
+        }
+        buf.writeByte((int) value);
+    }
+
+    /** Read a long written by {@link #writeVarLong(ByteBuf, long)}.
+     *
+     * @param buf   The buffer to read from.
+     * @return      The value read.
+     */
+    private static long readVarLong(ByteBuf buf) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.readByte();
+            value |= (long) (b & VARINT_VALUE_MASK) << shift;
+            shift += VARINT_SHIFT;
+        } while ((b & VARINT_CONTINUATION) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,29 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * A batch of token requests, which the sequencer serves in order, as if they were sent one by one.
+ * Clients coalesce the requests issued concurrently into a batch, so the sequencer handles one
+ * message for all of them.
+ */
+@Data
+@AllArgsConstructor
+public class MultipleTokenRequest implements ICorfuPayload<MultipleTokenRequest> {
+
+    /** The token requests, in the order they are served. */
+    final List<TokenRequest> requests;
+
+    public MultipleTokenRequest(ByteBuf buf) {
+        requests = ICorfuPayload.listFromBuffer(buf, TokenRequest.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, requests);
+    }
+}
@@ -17,6 +17,12 @@ public class ReadResponse implements ICorfuPayload<ReadResponse> {
     @Getter
     Map<Long, LogData> readSet;
 
+    /**
+     * Entries which are already serialized, and are written to the response as is.
+     * They are deserialized into the read set on the receiving end.
+     */
+    private final Map<Long, ByteBuf> serializedSet = new HashMap<>();
+
     public ReadResponse(ByteBuf buf) {
         readSet = ICorfuPayload.mapFromBuffer(buf, Long.class, LogData.class);
     }
@@ -29,8 +35,43 @@ public class ReadResponse implements ICorfuPayload<ReadResponse> {
         readSet.put(address, data);
     }
 
+    /**
+     * Add an entry which is already serialized. The response takes ownership of the
+     * buffer, which is released once it was written, so the response can only be
+     * serialized once.
+     *
+     * @param address    The address of the entry.
+     * @param serialized The serialized entry.
+     */
+    public void putSerialized(Long address, ByteBuf serialized) {
+        serializedSet.put(address, serialized);
+    }
+
+    /**
+     * Release the serialized entries, if the response will not be serialized.
+     */
+    public void releaseSerialized() {
+        serializedSet.values().forEach(ByteBuf::release);
+        serializedSet.clear();
+    }
+
     @Override
     public void doSerialize(ByteBuf buf) {
-        ICorfuPayload.serialize(buf, readSet);
+        if (serializedSet.isEmpty()) {
+            ICorfuPayload.serialize(buf, readSet);
+            return;
+        }
+
+        // Same as serializing a map, with the serialized entries appended
+        buf.writeInt(readSet.size() + serializedSet.size());
+        readSet.forEach((address, data) -> {
+            ICorfuPayload.serialize(buf, address);
+            ICorfuPayload.serialize(buf, data);
+        });
+        serializedSet.forEach((address, serialized) -> {
+            ICorfuPayload.serialize(buf, address);
+            buf.writeBytes(serialized, serialized.readerIndex(), serialized.readableBytes());
+        });
+        releaseSerialized();
     }
 }
@@ -0,0 +1,39 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Sent to a new primary sequencer, with the tails of the streams written in the log
+ * since the tail the sequencer already knows of.
+ */
+@Data
+@AllArgsConstructor
+public class SequencerRecoveryMsg implements ICorfuPayload<SequencerRecoveryMsg> {
+
+    /** The first address the sequencer should issue. */
+    final Long globalTail;
+
+    /** The address the scan of the log started at. */
+    final Long scanStart;
+
+    /** The last address each stream was written at, between the start of the scan and the global tail. */
+    final Map<UUID, Long> streamTails;
+
+    public SequencerRecoveryMsg(ByteBuf buf) {
+        globalTail = ICorfuPayload.fromBuffer(buf, Long.class);
+        scanStart = ICorfuPayload.fromBuffer(buf, Long.class);
+        streamTails = ICorfuPayload.mapFromBuffer(buf, UUID.class, Long.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, globalTail);
+        ICorfuPayload.serialize(buf, scanStart);
+        ICorfuPayload.serialize(buf, streamTails);
+    }
+}
@@ -0,0 +1,30 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Request for the last address each stream was written at, within a range of global addresses.
+ */
+@Data
+@AllArgsConstructor
+public class StreamTailsRequest implements ICorfuPayload<StreamTailsRequest> {
+
+    /** The first address of the range. */
+    final Long start;
+
+    /** The end of the range, exclusive. */
+    final Long end;
+
+    public StreamTailsRequest(ByteBuf buf) {
+        start = ICorfuPayload.fromBuffer(buf, Long.class);
+        end = ICorfuPayload.fromBuffer(buf, Long.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, start);
+        ICorfuPayload.serialize(buf, end);
+    }
+}
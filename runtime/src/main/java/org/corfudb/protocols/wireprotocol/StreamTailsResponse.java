@@ -0,0 +1,28 @@
+package org.corfudb.protocols.wireprotocol;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Response with the last address each stream was written at, within a range of global addresses.
+ */
+@Data
+@AllArgsConstructor
+public class StreamTailsResponse implements ICorfuPayload<StreamTailsResponse> {
+
+    /** The last address each stream written in the range was written at. */
+    final Map<UUID, Long> streamTails;
+
+    public StreamTailsResponse(ByteBuf buf) {
+        streamTails = ICorfuPayload.mapFromBuffer(buf, UUID.class, Long.class);
+    }
+
+    @Override
+    public void doSerialize(ByteBuf buf) {
+        ICorfuPayload.serialize(buf, streamTails);
+    }
+}
@@ -43,6 +43,12 @@ public class CorfuRuntime {
 
         /** Number of times to attempt to read before hole filling. */
         int holeFillRetry = 10;
+
+        /** True, if token requests are sent one by one instead of being coalesced. */
+        boolean tokenBatchingDisabled = false;
+
+        /** The most token requests coalesced into a single message. */
+        int maxTokenBatchSize = 1_000;
     }
 
     @Getter
@@ -146,6 +152,8 @@ public class CorfuRuntime {
     @Getter
     static private final String mpObj = mp + "object.";
     @Getter
+    static private final String mpSV = mp + "sequencer-view.";
+    @Getter
     static public final MetricRegistry metrics = new MetricRegistry();
 
     /**
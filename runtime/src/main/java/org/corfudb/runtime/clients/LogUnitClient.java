@@ -15,6 +15,7 @@ import org.corfudb.runtime.exceptions.*;
 import org.corfudb.util.serializer.Serializers;
 
 import java.lang.invoke.MethodHandles;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -197,6 +198,18 @@ public class LogUnitClient implements IClient {
         return msg.getPayload();
     }
 
+    /**
+     * Handle a STREAM_TAILS_RESPONSE message
+     * @param msg   Incoming Message
+     * @param ctx   Context
+     * @param r     Router
+     */
+    @ClientHandler(type=CorfuMsgType.STREAM_TAILS_RESPONSE)
+    private static Object handleStreamTailsResponse(CorfuPayloadMsg<StreamTailsResponse> msg,
+                                                    ChannelHandlerContext ctx, IClientRouter r) {
+        return msg.getPayload().getStreamTails();
+    }
+
     /**
      * Asynchronously write to the logging unit.
      *
@@ -321,6 +334,20 @@ public class LogUnitClient implements IClient {
         return cf.thenApply(x -> { context.stop(); return x; });
     }
 
+    /**
+     * Asynchronously read a set of addresses from the logging unit, with a single request.
+     *
+     * @param addresses The addresses to read from.
+     * @return A CompletableFuture which will complete with a ReadResult containing
+     * every address once the read completes.
+     */
+    public CompletableFuture<ReadResponse> read(Collection<Long> addresses) {
+        Timer.Context context = getTimerContext("readMultiple");
+        CompletableFuture<ReadResponse> cf = router.sendMessageAndGetCompletable(
+                CorfuMsgType.MULTIPLE_READ_REQUEST.payloadMsg(new MultipleReadRequest(addresses)));
+        return cf.thenApply(x -> { context.stop(); return x; });
+    }
+
     public CompletableFuture<ReadResponse> read(UUID stream, Range<Long> offsetRange) {
         Timer.Context context = getTimerContext("readRange");
         CompletableFuture<ReadResponse> cf = router.sendMessageAndGetCompletable(
@@ -337,6 +364,19 @@ public class LogUnitClient implements IClient {
         return router.sendMessageAndGetCompletable(CorfuMsgType.TAIL_REQUEST.msg());
     }
 
+    /**
+     * Get the last address each stream was written at on the log unit, within a range of
+     * global addresses. Only the summary is sent back, not the entries.
+     * @param start The first address of the range.
+     * @param end   The end of the range, exclusive.
+     * @return A CompletableFuture which will complete with the tail of each stream written
+     * in the range once received.
+     */
+    public CompletableFuture<Map<UUID, Long>> getStreamTails(long start, long end) {
+        return router.sendMessageAndGetCompletable(
+                CorfuMsgType.STREAM_TAILS_REQUEST.payloadMsg(new StreamTailsRequest(start, end)));
+    }
+
     /**
      * Send a hint to the logging unit that a stream can be trimmed.
      *
@@ -347,6 +387,19 @@ public class LogUnitClient implements IClient {
         router.sendMessage(CorfuMsgType.TRIM.payloadMsg(new TrimRequest(stream, prefix)));
     }
 
+    /**
+     * Trim the global log up to and including an address. The logging unit drops the
+     * segments below the trim mark, and rejects reads below it.
+     *
+     * @param address The last address to trim.
+     */
+    public CompletableFuture<Boolean> prefixTrim(long address) {
+        Timer.Context context = getTimerContext("prefixTrim");
+        CompletableFuture<Boolean> cf = router.sendMessageAndGetCompletable(
+                CorfuMsgType.PREFIX_TRIM.payloadMsg(address));
+        return cf.thenApply(x -> { context.stop(); return x; });
+    }
+
     /**
      * Fill a hole at a given address.
      *
@@ -5,11 +5,16 @@ import lombok.Getter;
 import lombok.Setter;
 import org.corfudb.protocols.wireprotocol.CorfuMsgType;
 import org.corfudb.protocols.wireprotocol.CorfuPayloadMsg;
+import org.corfudb.protocols.wireprotocol.MultipleTokenRequest;
+import org.corfudb.protocols.wireprotocol.MultipleTokenResponse;
+import org.corfudb.protocols.wireprotocol.SequencerRecoveryMsg;
 import org.corfudb.protocols.wireprotocol.TokenRequest;
 import org.corfudb.protocols.wireprotocol.TokenResponse;
 import org.corfudb.protocols.wireprotocol.TxResolutionInfo;
 
 import java.lang.invoke.MethodHandles;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
@@ -39,14 +44,32 @@ public class SequencerClient implements IClient {
         return msg.getPayload();
     }
 
+    @ClientHandler(type=CorfuMsgType.MULTIPLE_TOKEN_RES)
+    private static Object handleMultipleTokenResponse(CorfuPayloadMsg<MultipleTokenResponse> msg,
+                                                      ChannelHandlerContext ctx, IClientRouter r) {
+        return msg.getPayload().getResponses();
+    }
+
     public CompletableFuture<TokenResponse> nextToken(Set<UUID> streamIDs, long numTokens) {
-        return router.sendMessageAndGetCompletable(
-                CorfuMsgType.TOKEN_REQ.payloadMsg(new TokenRequest(numTokens, streamIDs)));
+        return nextToken(new TokenRequest(numTokens, streamIDs));
     }
 
     public CompletableFuture<TokenResponse> nextToken(Set<UUID> streamIDs, long numTokens, TxResolutionInfo conflictInfo) {
+        return nextToken(new TokenRequest(numTokens, streamIDs, conflictInfo));
+    }
+
+    public CompletableFuture<TokenResponse> nextToken(TokenRequest request) {
+        return router.sendMessageAndGetCompletable(CorfuMsgType.TOKEN_REQ.payloadMsg(request));
+    }
+
+    /**
+     * Sends a batch of token requests in a single message.
+     * @param requests The token requests, which the sequencer serves in order.
+     * @return A CompletableFuture which completes with the responses, in the order of the requests.
+     */
+    public CompletableFuture<List<TokenResponse>> nextTokens(List<TokenRequest> requests) {
         return router.sendMessageAndGetCompletable(
-                CorfuMsgType.TOKEN_REQ.payloadMsg(new TokenRequest(numTokens, streamIDs, conflictInfo)));
+                CorfuMsgType.MULTIPLE_TOKEN_REQ.payloadMsg(new MultipleTokenRequest(requests)));
     }
 
     /**
@@ -57,4 +80,16 @@ public class SequencerClient implements IClient {
     public CompletableFuture<Boolean> reset(Long initialToken) {
         return router.sendMessageAndGetCompletable(CorfuMsgType.RESET_SEQUENCER.payloadMsg(initialToken));
     }
+
+    /**
+     * Recovers the sequencer with the tails of the streams written since the tail it knows of.
+     * @param globalTail  Token Number which the sequencer starts distributing.
+     * @param scanStart   The address the tails of the streams were scanned from.
+     * @param streamTails The last address each stream was written at, since the start of the scan.
+     * @return A CompletableFuture which completes once the sequencer is recovered.
+     */
+    public CompletableFuture<Boolean> recover(long globalTail, long scanStart, Map<UUID, Long> streamTails) {
+        return router.sendMessageAndGetCompletable(CorfuMsgType.RECOVER_SEQUENCER.payloadMsg(
+                new SequencerRecoveryMsg(globalTail, scanStart, streamTails)));
+    }
 }
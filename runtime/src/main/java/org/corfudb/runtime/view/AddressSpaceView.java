@@ -30,6 +30,8 @@ import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -215,21 +217,26 @@ public class AddressSpaceView extends AbstractView {
     }
 
     /**
-     * Fetch an address for insertion into the cache.
+     * Fetch a set of addresses for insertion into the cache.
+     * <p>
+     * The addresses are read in bulk through the replication protocol of
+     * their segment, which sends a single request to each log unit.
      *
-     * @param addresses An address to read from.
-     * @return A result to be cached. If the readresult is empty,
-     * This entry will be scheduled to self invalidate.
+     * @param addresses The addresses to read from.
+     * @return A map of results to be cached, containing every address.
      */
     private Map<Long, ILogData> cacheFetch(Iterable<Long> addresses) {
-        final ImmutableMap.Builder<Long, ILogData> dataBuilder = ImmutableMap.builder();
-
-        addresses.forEach(a ->
-            layoutHelper(l ->
-                    dataBuilder.put(a, l.getReplicationMode(a).getReplicationProtocol(runtime)
-            .read(l, a))));
-
-        return dataBuilder.build();
+        return layoutHelper(l -> {
+            final Map<Layout.ReplicationMode, Set<Long>> addressesByMode =
+                    StreamSupport.stream(addresses.spliterator(), false)
+                            .collect(Collectors.groupingBy(l::getReplicationMode, Collectors.toSet()));
+
+            final ImmutableMap.Builder<Long, ILogData> dataBuilder = ImmutableMap.builder();
+            addressesByMode.forEach((mode, modeAddresses) ->
+                    dataBuilder.putAll(mode.getReplicationProtocol(runtime)
+                            .readAll(l, modeAddresses)));
+            return dataBuilder.build();
+        });
     }
 
 
@@ -1,22 +1,60 @@
 package org.corfudb.runtime.view;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.corfudb.protocols.wireprotocol.TokenRequest;
 import org.corfudb.protocols.wireprotocol.TokenResponse;
 import org.corfudb.protocols.wireprotocol.TxResolutionInfo;
 import org.corfudb.runtime.CorfuRuntime;
+import org.corfudb.runtime.clients.SequencerClient;
 import org.corfudb.util.CFUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 
 /**
+ * Token requests issued concurrently are coalesced: while a request is in flight
+ * to the sequencer, the requests issued by other threads are queued, and are sent
+ * together in a single message once it completes. An idle sequencer view sends a
+ * request right away, so coalescing only adds latency to requests which would
+ * otherwise have contended for the sequencer.
+ *
  * Created by mwei on 12/10/15.
  */
-
+@Slf4j
 public class SequencerView extends AbstractView {
 
+    /** The token requests waiting to be sent, in the order they were issued. */
+    private final Queue<PendingToken> pendingTokens = new ConcurrentLinkedQueue<>();
+
+    /** Set while a batch of token requests is in flight. */
+    private final AtomicBoolean batchInFlight = new AtomicBoolean(false);
+
+    /** Set while a thread sends batches, so a batch completed on that thread doesn't recurse. */
+    private final ThreadLocal<Boolean> sendingBatches = ThreadLocal.withInitial(() -> false);
+
+    private final Histogram tokenBatchSizes;
+    private final Timer tokenBatchDelay;
+
     public SequencerView(CorfuRuntime runtime) {
         super(runtime);
+        MetricRegistry metrics = CorfuRuntime.getMetrics();
+        tokenBatchSizes = metrics.histogram(CorfuRuntime.getMpSV() + "token-batch-size");
+        tokenBatchDelay = metrics.timer(CorfuRuntime.getMpSV() + "token-batch-delay");
     }
 
     /**
@@ -31,12 +69,127 @@ public class SequencerView extends AbstractView {
      * @return The first token retrieved.
      */
     public TokenResponse nextToken(Set<UUID> streamIDs, int numTokens) {
-        return layoutHelper(l -> CFUtils.getUninterruptibly(l.getSequencer(0).nextToken(streamIDs, numTokens)));
+        return nextToken(new TokenRequest((long) numTokens, streamIDs));
     }
 
 
     public TokenResponse nextToken(Set<UUID> streamIDs, int numTokens, TxResolutionInfo conflictInfo) {
-        return layoutHelper(l -> CFUtils.getUninterruptibly(l.getSequencer(0).nextToken(
-                streamIDs, numTokens, conflictInfo)));
+        return nextToken(new TokenRequest((long) numTokens, streamIDs, conflictInfo));
+    }
+
+    private TokenResponse nextToken(TokenRequest request) {
+        if (runtime.getParameters().isTokenBatchingDisabled()) {
+            return layoutHelper(l -> CFUtils.getUninterruptibly(l.getSequencer(0).nextToken(request)));
+        }
+        return layoutHelper(l -> {
+            PendingToken pending = new PendingToken(l.getSequencer(0), request);
+            pendingTokens.add(pending);
+            sendPendingTokens();
+            return CFUtils.getUninterruptibly(pending.getResponse());
+        });
+    }
+
+    /**
+     * Send the pending token requests, in batches, unless a batch is already in flight.
+     * The thread which completes the batch in flight then sends the requests issued meanwhile.
+     */
+    private void sendPendingTokens() {
+        if (sendingBatches.get()) {
+            // the loop further up the stack sends them
+            return;
+        }
+        sendingBatches.set(true);
+        try {
+            while (!pendingTokens.isEmpty() && batchInFlight.compareAndSet(false, true)) {
+                sendBatch();
+            }
+        } finally {
+            sendingBatches.set(false);
+        }
+    }
+
+    /**
+     * Send the oldest pending token requests which go to the same sequencer, in a single
+     * message, and complete them with the responses. Must be called with a batch in flight.
+     */
+    private void sendBatch() {
+        PendingToken first = pendingTokens.poll();
+        if (first == null) {
+            batchInFlight.set(false);
+            return;
+        }
+        List<PendingToken> batch = new ArrayList<>();
+        batch.add(first);
+        while (batch.size() < runtime.getParameters().getMaxTokenBatchSize()
+                && pendingTokens.peek() != null
+                && pendingTokens.peek().getSequencer() == first.getSequencer()) {
+            batch.add(pendingTokens.poll());
+        }
+
+        final long sent = System.nanoTime();
+        batch.forEach(pending -> tokenBatchDelay.update(sent - pending.getIssued(), TimeUnit.NANOSECONDS));
+        tokenBatchSizes.update(batch.size());
+
+        CompletableFuture<List<TokenResponse>> responses;
+        try {
+            responses = batch.size() == 1
+                    ? first.getSequencer().nextToken(first.getRequest()).thenApply(Collections::singletonList)
+                    : first.getSequencer().nextTokens(batch.stream()
+                            .map(PendingToken::getRequest)
+                            .collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            responses = new CompletableFuture<>();
+            responses.completeExceptionally(e);
+        }
+
+        responses.whenComplete((tokens, ex) -> {
+            try {
+                completeBatch(batch, tokens, ex);
+            } finally {
+                batchInFlight.set(false);
+                sendPendingTokens();
+            }
+        });
+    }
+
+    /**
+     * Complete the requests of a batch with their responses, or with the error of the batch.
+     * A request is failed rather than left waiting if the responses don't match the batch,
+     * or if completing an earlier request fails.
+     *
+     * @param batch  The requests of the batch, in the order they were sent.
+     * @param tokens The responses to the batch, or null if it failed.
+     * @param ex     The error of the batch, or null if it succeeded.
+     */
+    private void completeBatch(List<PendingToken> batch, List<TokenResponse> tokens, Throwable ex) {
+        Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+        if (cause == null && tokens.size() != batch.size()) {
+            cause = new IllegalStateException("Got " + tokens.size() + " token responses to a batch of "
+                    + batch.size() + " requests");
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            CompletableFuture<TokenResponse> response = batch.get(i).getResponse();
+            try {
+                if (cause != null) {
+                    response.completeExceptionally(cause);
+                } else {
+                    response.complete(tokens.get(i));
+                }
+            } catch (RuntimeException e) {
+                log.error("completeBatch: failed to complete a token request", e);
+                response.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * A token request waiting to be sent, and its response.
+     */
+    @Data
+    private static class PendingToken {
+        final SequencerClient sequencer;
+        final TokenRequest request;
+        final long issued = System.nanoTime();
+        final CompletableFuture<TokenResponse> response = new CompletableFuture<>();
     }
-}
\ No newline at end of file
+}
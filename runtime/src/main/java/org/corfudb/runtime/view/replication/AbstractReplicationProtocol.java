@@ -6,6 +6,9 @@ import org.corfudb.runtime.exceptions.HoleFillRequiredException;
 import org.corfudb.runtime.view.Layout;
 
 import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by mwei on 4/6/17.
@@ -48,6 +51,25 @@ public abstract class AbstractReplicationProtocol implements IReplicationProtoco
         }
     }
 
+    /** {@inheritDoc}
+     *
+     *  In the base implementation, we first peek all the addresses
+     *  at once, and only apply the hole filling protocol to the
+     *  addresses which had no committed data.
+     *
+     **/
+    @Nonnull
+    @Override
+    public Map<Long, ILogData> readAll(Layout layout, Set<Long> globalAddresses) {
+        Map<Long, ILogData> result = new HashMap<>(peekAll(layout, globalAddresses));
+        for (Long globalAddress : globalAddresses) {
+            if (!result.containsKey(globalAddress)) {
+                result.put(globalAddress, read(layout, globalAddress));
+            }
+        }
+        return result;
+    }
+
     /**
      * Write a special hole filling entry using the
      * given address. When this call returns, either
@@ -6,6 +6,9 @@ import org.corfudb.protocols.logprotocol.StreamData;
 import org.corfudb.protocols.logprotocol.StreamedLogData;
 import org.corfudb.protocols.wireprotocol.ILogData;
 import org.corfudb.protocols.wireprotocol.IToken;
+import org.corfudb.protocols.wireprotocol.LogData;
+import org.corfudb.protocols.wireprotocol.ReadResponse;
+import org.corfudb.runtime.clients.LogUnitClient;
 import org.corfudb.runtime.exceptions.OverwriteException;
 import org.corfudb.runtime.exceptions.RecoveryException;
 import org.corfudb.runtime.view.Layout;
@@ -15,8 +18,13 @@ import org.corfudb.util.serializer.Serializers;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 /**
  * Created by mwei on 4/6/17.
@@ -70,6 +78,41 @@ public class ChainReplicationProtocol extends AbstractReplicationProtocol {
         return ret == null || ret.isEmpty() ? null : ret;
     }
 
+    /** {@inheritDoc}
+     *
+     * In chain replication, every address is read from the tail of the
+     * chain of its stripe. The addresses are grouped by the log unit at
+     * the tail, so that each log unit receives a single request, and the
+     * requests to the log units are sent in parallel.
+     */
+    @Nonnull
+    @Override
+    public Map<Long, ILogData> peekAll(Layout layout, Set<Long> globalAddresses) {
+        Map<String, List<Long>> addressesByUnit = globalAddresses.stream()
+                .collect(Collectors.groupingBy(a -> {
+                    List<String> chain = layout.getStripe(a).getLogServers();
+                    return chain.get(chain.size() - 1);
+                }));
+        log.trace("ReadAll[{}]: from {} units", globalAddresses.size(), addressesByUnit.size());
+
+        Map<String, CompletableFuture<ReadResponse>> responses = new HashMap<>();
+        addressesByUnit.forEach((unit, addresses) ->
+                responses.put(unit, layout.getRuntime().getRouter(unit)
+                        .getClient(LogUnitClient.class).read(addresses)));
+
+        Map<Long, ILogData> result = new HashMap<>();
+        responses.forEach((unit, response) -> {
+            Map<Long, LogData> readSet = CFUtils.getUninterruptibly(response).getReadSet();
+            for (Long address : addressesByUnit.get(unit)) {
+                ILogData ret = readSet.get(address);
+                if (ret != null && !ret.isEmpty()) {
+                    result.put(address, ret);
+                }
+            }
+        });
+        return result;
+    }
+
     /** Propagate a write down the chain, ignoring
      * any overwrite errors. It is expected that the
      * write has already successfully completed at
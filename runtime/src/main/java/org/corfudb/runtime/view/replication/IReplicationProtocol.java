@@ -98,12 +98,14 @@ public interface IReplicationProtocol {
      *
      * @param  layout              The layout to use for the peekAll.
      * @param globalAddresses       A set of addresses to read from.
-     * @return                      A map of addresses to uncommitted
-     *                              addresses, without hole filling.
+     * @return                      A map of addresses to committed data,
+     *                              without hole filling. Addresses with no
+     *                              committed data are left out of the map.
      */
     default @Nonnull Map<Long, ILogData> peekAll(Layout layout, Set<Long> globalAddresses) {
         return globalAddresses.parallelStream()
                 .map(a -> new AbstractMap.SimpleImmutableEntry<>(a, peek(layout, a)))
+                .filter(r -> r.getValue() != null)
                 .collect(Collectors.toMap(r -> r.getKey(), r -> r.getValue()));
     }
 
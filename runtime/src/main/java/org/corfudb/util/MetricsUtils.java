@@ -12,6 +12,7 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 
@@ -115,6 +116,24 @@ public class MetricsUtils {
         }
     }
 
+    /**
+     * Register gauges under a common prefix. A gauge which is already registered under
+     * its name is left as it is.
+     *
+     * @param metrics The registry to register the gauges in.
+     * @param name    The prefix of the names of the gauges.
+     * @param gauges  The gauges, by their name after the prefix.
+     */
+    public static void addGauges(MetricRegistry metrics, String name, Map<String, Gauge<?>> gauges) {
+        gauges.forEach((gaugeName, gauge) -> {
+            try {
+                metrics.register(name + gaugeName, gauge);
+            } catch (IllegalArgumentException e) {
+                // Re-registering metrics during test runs, not a problem
+            }
+        });
+    }
+
     public static void addJVMMetrics(MetricRegistry metrics, String pfx) {
         try {
             metrics.register(pfx + "jvm.gc", metricsJVMGC);
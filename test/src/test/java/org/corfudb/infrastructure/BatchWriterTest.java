@@ -0,0 +1,210 @@
+package org.corfudb.infrastructure;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codahale.metrics.MetricRegistry;
+import io.netty.buffer.Unpooled;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.corfudb.AbstractCorfuTest;
+import org.corfudb.infrastructure.log.LogAddress;
+import org.corfudb.infrastructure.log.StreamLog;
+import org.corfudb.infrastructure.log.StreamLogFiles;
+import org.corfudb.protocols.wireprotocol.DataType;
+import org.corfudb.protocols.wireprotocol.LogData;
+import org.junit.Test;
+
+/**
+ * Tests for the group commit of writes in {@link BatchWriter}.
+ */
+public class BatchWriterTest extends AbstractCorfuTest {
+
+    private static final int PAYLOAD_SIZE = 128;
+    private static final long LINGER_MICROS = 20_000;
+
+    /**
+     * A stream log that only tracks which addresses were appended and synced.
+     */
+    static class TrackingStreamLog implements StreamLog {
+        final Set<Long> appended = ConcurrentHashMap.newKeySet();
+        final Set<Long> durable = ConcurrentHashMap.newKeySet();
+        final AtomicInteger syncs = new AtomicInteger();
+        final AtomicInteger forcedSyncs = new AtomicInteger();
+        final Set<String> writerThreads = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public void append(LogAddress logAddress, LogData entry) {
+            writerThreads.add(Thread.currentThread().getName());
+            appended.add(logAddress.getAddress());
+        }
+
+        @Override
+        public LogData read(LogAddress logAddress) {
+            return null;
+        }
+
+        @Override
+        public void trim(LogAddress logAddress) {
+        }
+
+        @Override
+        public void compact() {
+        }
+
+        @Override
+        public void prefixTrim(long address) {
+        }
+
+        @Override
+        public long getTrimMark() {
+            return 0;
+        }
+
+        @Override
+        public long getGlobalTail() {
+            return 0;
+        }
+
+        @Override
+        public synchronized void sync(boolean force) {
+            syncs.incrementAndGet();
+            if (force) {
+                forcedSyncs.incrementAndGet();
+                durable.addAll(appended);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void release(LogAddress logAddress, LogData entry) {
+        }
+    }
+
+    @Test
+    @SuppressWarnings("checkstyle:magicnumber")
+    public void parsesSyncPolicies() {
+        assertThat(SyncPolicy.parse("records:50"))
+                .isEqualTo(new SyncPolicy(SyncPolicy.Type.RECORDS, 50));
+        assertThat(SyncPolicy.parse("bytes:4096").isBatchFull(1, 4096)).isTrue();
+        assertThat(SyncPolicy.parse("micros:100").getLingerNanos()).isEqualTo(100_000);
+        assertThat(SyncPolicy.parse("never").isDurable()).isFalse();
+        assertThat(SyncPolicy.NEVER.isBatchFull(1, PAYLOAD_SIZE)).isFalse();
+        assertThat(SyncPolicy.NEVER.isBatchFull(SyncPolicy.DEFAULT_BATCH_RECORDS, PAYLOAD_SIZE)).isTrue();
+
+        assertThatThrownBy(() -> SyncPolicy.parse("records"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> SyncPolicy.parse("seconds:1"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> SyncPolicy.parse("bytes:0"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void rejectsMissingWriteProcessors() {
+        assertThatThrownBy(() -> new BatchWriter<>(new TrackingStreamLog(), BatchWriter.DEFAULT_SYNC_POLICY,
+                0, new MetricRegistry()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("write processors");
+    }
+
+    @Test
+    public void writesCompleteOnceDurable() throws Exception {
+        for (String policy : new String[]{"records:4", "bytes:1024", "micros:" + LINGER_MICROS}) {
+            TrackingStreamLog streamLog = new TrackingStreamLog();
+            writeConcurrently(streamLog, SyncPolicy.parse(policy));
+            assertThat(streamLog.durable).hasSize(PARAMETERS.NUM_ITERATIONS_LOW * PARAMETERS.CONCURRENCY_SOME);
+        }
+    }
+
+    @Test
+    public void lingeringPolicyGroupsWrites() throws Exception {
+        TrackingStreamLog streamLog = new TrackingStreamLog();
+        MetricRegistry metrics = writeConcurrently(streamLog, SyncPolicy.parse("micros:" + LINGER_MICROS));
+
+        final int writes = PARAMETERS.NUM_ITERATIONS_LOW * PARAMETERS.CONCURRENCY_SOME;
+        assertThat(streamLog.syncs.get()).isLessThan(writes);
+        testStatus += "Writes=" + writes + ";Syncs=" + streamLog.syncs.get() + ";MeanBatch="
+                + String.format("%.1f", metrics.histogram("corfu.server.logunit.batchwriter.batch-size")
+                .getSnapshot().getMean());
+    }
+
+    @Test
+    public void neverPolicyDoesNotForce() throws Exception {
+        TrackingStreamLog streamLog = new TrackingStreamLog();
+        writeConcurrently(streamLog, SyncPolicy.NEVER);
+
+        assertThat(streamLog.appended).hasSize(PARAMETERS.NUM_ITERATIONS_LOW * PARAMETERS.CONCURRENCY_SOME);
+        assertThat(streamLog.forcedSyncs.get()).isZero();
+    }
+
+    @Test
+    public void failedTrimDoesNotStopTheWriteProcessor() throws Exception {
+        TrackingStreamLog streamLog = new TrackingStreamLog() {
+            @Override
+            public void trim(LogAddress logAddress) {
+                throw new IllegalStateException("Failed to trim " + logAddress);
+            }
+        };
+        BatchWriter<LogAddress, LogData> writer = new BatchWriter<>(streamLog, BatchWriter.DEFAULT_SYNC_POLICY,
+                1, new MetricRegistry());
+
+        // The trim fails on its own, and the writes queued after it are still served
+        assertThatThrownBy(() -> writer.trim(new LogAddress(0L, null)))
+                .hasRootCauseInstanceOf(IllegalStateException.class);
+        writer.write(new LogAddress(1L, null), new LogData(DataType.DATA,
+                Unpooled.wrappedBuffer(new byte[PAYLOAD_SIZE])));
+        writer.close();
+
+        assertThat(streamLog.durable).containsExactly(1L);
+    }
+
+    @Test
+    public void writesArePartitionedBySegment() throws Exception {
+        TrackingStreamLog streamLog = new TrackingStreamLog();
+        BatchWriter<LogAddress, LogData> writer = new BatchWriter<>(streamLog, BatchWriter.DEFAULT_SYNC_POLICY,
+                PARAMETERS.CONCURRENCY_SOME, new MetricRegistry());
+
+        // Each thread writes to its own segment
+        scheduleConcurrently(PARAMETERS.CONCURRENCY_SOME, thread -> {
+            for (int x = 0; x < PARAMETERS.NUM_ITERATIONS_LOW; x++) {
+                long address = (long) thread * StreamLogFiles.RECORDS_PER_LOG_FILE + x;
+                writer.write(new LogAddress(address, null), new LogData(DataType.DATA,
+                        Unpooled.wrappedBuffer(new byte[PAYLOAD_SIZE])));
+                assertThat(streamLog.durable).contains(address);
+            }
+        });
+        executeScheduled(PARAMETERS.CONCURRENCY_SOME, PARAMETERS.TIMEOUT_LONG);
+        writer.close();
+
+        assertThat(streamLog.durable).hasSize(PARAMETERS.NUM_ITERATIONS_LOW * PARAMETERS.CONCURRENCY_SOME);
+        assertThat(streamLog.writerThreads).hasSize(PARAMETERS.CONCURRENCY_SOME);
+    }
+
+    /**
+     * Write from several threads, checking that every write which completed under a
+     * durable policy was synced.
+     */
+    private MetricRegistry writeConcurrently(TrackingStreamLog streamLog, SyncPolicy policy) throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        BatchWriter<LogAddress, LogData> writer = new BatchWriter<>(streamLog, policy, 1, metrics);
+
+        scheduleConcurrently(PARAMETERS.CONCURRENCY_SOME, thread -> {
+            for (int x = 0; x < PARAMETERS.NUM_ITERATIONS_LOW; x++) {
+                long address = (long) thread * PARAMETERS.NUM_ITERATIONS_LOW + x;
+                writer.write(new LogAddress(address, null), new LogData(DataType.DATA, Unpooled.wrappedBuffer(new byte[PAYLOAD_SIZE])));
+                if (policy.isDurable()) {
+                    assertThat(streamLog.durable).contains(address);
+                }
+            }
+        });
+        executeScheduled(PARAMETERS.CONCURRENCY_SOME, PARAMETERS.TIMEOUT_LONG);
+        writer.close();
+        return metrics;
+    }
+}
@@ -0,0 +1,92 @@
+package org.corfudb.infrastructure;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.UUID;
+
+import org.corfudb.AbstractCorfuTest;
+import org.corfudb.runtime.view.Address;
+import org.junit.Test;
+
+/**
+ * Tests for the fingerprints, the window and the per-stream wildcards of {@link ConflictTable}.
+ */
+public class ConflictTableTest extends AbstractCorfuTest {
+
+    @Test
+    public void keysOfDifferentStreamsDontCollide() {
+        ConflictTable table = new ConflictTable(Long.MAX_VALUE, Long.MAX_VALUE);
+        UUID streamA = UUID.randomUUID();
+        UUID streamB = UUID.randomUUID();
+
+        for (int x = 0; x < PARAMETERS.NUM_ITERATIONS_LOW; x++) {
+            table.put(streamA, x, x);
+        }
+
+        assertThat(table.size()).isEqualTo(PARAMETERS.NUM_ITERATIONS_LOW);
+        for (int x = 0; x < PARAMETERS.NUM_ITERATIONS_LOW; x++) {
+            assertThat(table.get(streamA, x)).isEqualTo(x);
+            assertThat(table.get(streamB, x)).isEqualTo(Address.NOT_FOUND);
+        }
+        assertThat(table.getWildcard(streamA)).isEqualTo(Address.NOT_FOUND);
+    }
+
+    @Test
+    public void expiredEpochsOnlyRaiseTheWildcardsOfTheirStreams() {
+        final long window = ConflictTable.EPOCHS * PARAMETERS.NUM_ITERATIONS_LOW;
+        ConflictTable table = new ConflictTable(Long.MAX_VALUE, window);
+        UUID streamA = UUID.randomUUID();
+        UUID streamB = UUID.randomUUID();
+
+        table.put(streamA, 0L, 0L);
+        table.put(streamB, 0L, 1L);
+        table.put(streamB, 1L, window - 1);
+        assertThat(table.size()).isEqualTo(2 + 1);
+
+        // Writing past the end of the ring expires the first epoch
+        table.put(streamB, 2L, window);
+        assertThat(table.getEvictionCount()).isEqualTo(2);
+        assertThat(table.get(streamA, 0L)).isEqualTo(Address.NOT_FOUND);
+        assertThat(table.get(streamB, 0L)).isEqualTo(Address.NOT_FOUND);
+        assertThat(table.get(streamB, 1L)).isEqualTo(window - 1);
+        assertThat(table.getWildcard(streamA)).isEqualTo(0L);
+        assertThat(table.getWildcard(streamB)).isEqualTo(1L);
+        assertThat(table.getWildcard(UUID.randomUUID())).isEqualTo(Address.NOT_FOUND);
+    }
+
+    @Test
+    public void boundInBytesEvictsTheOldestEpoch() {
+        // The table can't grow past its initial capacity, which holds half as many keys
+        final int capacity = ConflictTable.INITIAL_CAPACITY;
+        final int epochSize = capacity / 2 / 2;
+        ConflictTable table = new ConflictTable((long) capacity * ConflictTable.ENTRY_BYTES,
+                (long) epochSize * ConflictTable.EPOCHS);
+        UUID stream = UUID.randomUUID();
+
+        for (int x = 0; x < capacity / 2; x++) {
+            table.put(stream, x, x);
+        }
+        assertThat(table.getEvictionCount()).isEqualTo(0);
+
+        // The next key evicts the first epoch
+        table.put(stream, capacity / 2, capacity / 2);
+        assertThat(table.getEvictionCount()).isEqualTo(epochSize);
+        assertThat(table.getWildcard(stream)).isEqualTo(epochSize - 1L);
+        assertThat(table.get(stream, epochSize)).isEqualTo(epochSize);
+        assertThat(table.getBytes()).isLessThanOrEqualTo((long) capacity * ConflictTable.ENTRY_BYTES
+                + ConflictTable.WILDCARD_BYTES);
+    }
+
+    @Test
+    public void resetRaisesTheWildcardOfEveryStream() {
+        ConflictTable table = new ConflictTable(Long.MAX_VALUE, Long.MAX_VALUE);
+        UUID stream = UUID.randomUUID();
+        table.put(stream, 0L, 0L);
+
+        table.reset(PARAMETERS.NUM_ITERATIONS_LOW);
+        assertThat(table.size()).isEqualTo(0);
+        assertThat(table.get(stream, 0L)).isEqualTo(Address.NOT_FOUND);
+        assertThat(table.getWildcard(stream)).isEqualTo(PARAMETERS.NUM_ITERATIONS_LOW);
+        assertThat(table.getWildcard(UUID.randomUUID())).isEqualTo(PARAMETERS.NUM_ITERATIONS_LOW);
+    }
+}
@@ -4,9 +4,17 @@ import com.google.common.collect.ImmutableMap;
 import org.corfudb.AbstractCorfuTest;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * Created by mdhawan on 7/29/16.
@@ -53,7 +61,7 @@ public class DataStoreTest extends AbstractCorfuTest {
                 .put("--log-path", serviceDir)
                 .build());
 
-        for (int i = 0; i < dataStore.getDS_CACHE_SZ() * 2; i++) {
+        for (int i = 0; i < DataStore.SNAPSHOT_RECORDS; i++) {
             String value = UUID.randomUUID().toString();
             dataStore.put(String.class, "test", "key", value);
 
@@ -67,6 +75,138 @@ public class DataStoreTest extends AbstractCorfuTest {
         }
     }
 
+    @Test
+    public void testDeleteWithRestart() {
+        String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+        DataStore dataStore = new DataStore(new ImmutableMap.Builder<String, Object>()
+                .put("--log-path", serviceDir)
+                .build());
+        dataStore.put(String.class, "test", "key", "VALUE");
+        dataStore.put(String.class, "test", "other", "OTHER_VALUE");
+        dataStore.delete(String.class, "test", "key");
+
+        //Simulate a restart of data store
+        dataStore = new DataStore(new ImmutableMap.Builder<String, Object>()
+                .put("--log-path", serviceDir)
+                .build());
+        assertThat(dataStore.get(String.class, "test", "key")).isNull();
+        assertThat(dataStore.getAll(String.class, "test")).containsExactly("OTHER_VALUE");
+    }
+
+    @Test
+    public void testTornJournalRecordIsDropped() throws Exception {
+        String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+        DataStore dataStore = new DataStore(new ImmutableMap.Builder<String, Object>()
+                .put("--log-path", serviceDir)
+                .build());
+        dataStore.put(String.class, "test", "key", "VALUE");
+        dataStore.put(String.class, "test", "key", "NEW_VALUE");
+
+        // Cut the last record short, as a crash in the middle of a write would
+        File journal = new File(serviceDir, DataStore.JOURNAL_FILE);
+        try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        dataStore = new DataStore(new ImmutableMap.Builder<String, Object>()
+                .put("--log-path", serviceDir)
+                .build());
+        assertThat(dataStore.get(String.class, "test", "key")).isEqualTo("VALUE");
+
+        // The torn record is truncated, so later records can be recovered
+        dataStore.put(String.class, "test", "key", "LAST_VALUE");
+        dataStore = new DataStore(new ImmutableMap.Builder<String, Object>()
+                .put("--log-path", serviceDir)
+                .build());
+        assertThat(dataStore.get(String.class, "test", "key")).isEqualTo("LAST_VALUE");
+    }
+
+    @Test
+    public void testImportsFilePerKeyStore() throws Exception {
+        String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+        File keyFile = new File(serviceDir, "LAYOUT_CURRENT");
+        Files.write(keyFile.toPath(), "\"VALUE\"".getBytes());
+        File otherFile = new File(serviceDir, "other_file");
+        Files.write(otherFile.toPath(), "\"OTHER_VALUE\"".getBytes());
+
+        DataStore dataStore = new DataStore(new ImmutableMap.Builder<String, Object>()
+                .put("--log-path", serviceDir)
+                .build());
+        assertThat(dataStore.get(String.class, "LAYOUT", "CURRENT")).isEqualTo("VALUE");
+        assertThat(keyFile).doesNotExist();
+        assertThat(new File(serviceDir, DataStore.SNAPSHOT_FILE)).exists();
+
+        // Files which aren't named after a known key prefix are left alone
+        assertThat(dataStore.get(String.class, "other", "file")).isNull();
+        assertThat(otherFile).exists();
+    }
+
+    @Test
+    public void testFailedJournalWriteRejectsUpdates() throws Exception {
+        String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+        DataStore dataStore = new DataStore(new ImmutableMap.Builder<String, Object>()
+                .put("--log-path", serviceDir)
+                .build());
+        dataStore.put(String.class, "test", "key", "VALUE");
+
+        // Swap the journal for a channel which can be neither written nor truncated
+        Field journalField = DataStore.class.getDeclaredField("journal");
+        journalField.setAccessible(true);
+        ((FileChannel) journalField.get(dataStore)).close();
+        journalField.set(dataStore, FileChannel.open(
+                new File(serviceDir, DataStore.JOURNAL_FILE).toPath(), StandardOpenOption.READ));
+
+        assertThatThrownBy(() -> dataStore.put(String.class, "test", "key", "NEW_VALUE"))
+                .isInstanceOf(RuntimeException.class);
+        assertThat(dataStore.get(String.class, "test", "key")).isEqualTo("VALUE");
+
+        // The failed write can't be undone, so later updates are rejected
+        assertThatThrownBy(() -> dataStore.put(String.class, "test", "other", "OTHER_VALUE"))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(dataStore.get(String.class, "test", "other")).isNull();
+
+        DataStore recovered = new DataStore(new ImmutableMap.Builder<String, Object>()
+                .put("--log-path", serviceDir)
+                .build());
+        assertThat(recovered.get(String.class, "test", "key")).isEqualTo("VALUE");
+    }
+
+    /**
+     * Reports the latency of get() and put(), and of recovering a store holding a
+     * full journal, through the test status.
+     */
+    @Test
+    public void measuresGetPutAndRecovery() {
+        String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+        DataStore dataStore = new DataStore(new ImmutableMap.Builder<String, Object>()
+                .put("--log-path", serviceDir)
+                .build());
+        final int keys = PARAMETERS.NUM_ITERATIONS_LOW;
+        final int records = DataStore.SNAPSHOT_RECORDS - 1;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            dataStore.put(Long.class, "test", Integer.toString(i % keys), (long) i);
+        }
+        long putNanos = (System.nanoTime() - start) / records;
+
+        final int gets = PARAMETERS.NUM_ITERATIONS_LARGE;
+        start = System.nanoTime();
+        for (int i = 0; i < gets; i++) {
+            assertThat(dataStore.get(Long.class, "test", Integer.toString(i % keys))).isNotNull();
+        }
+        long getNanos = (System.nanoTime() - start) / gets;
+
+        start = System.nanoTime();
+        dataStore = new DataStore(new ImmutableMap.Builder<String, Object>()
+                .put("--log-path", serviceDir)
+                .build());
+        long recoveryMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        assertThat(dataStore.getAll(Long.class, "test")).hasSize(keys);
+
+        testStatus = String.format("put=%dns get=%dns recovery=%dus", putNanos, getNanos, recoveryMicros);
+    }
+
     @Test
     public void testInmemoryPutGet() {
         String serviceDir = PARAMETERS.TEST_TEMP_DIR;
@@ -89,7 +229,7 @@ public class DataStoreTest extends AbstractCorfuTest {
                 .put("--memory", true)
                 .build());
 
-        for (int i = 0; i < dataStore.getDS_CACHE_SZ() * 2; i++) {
+        for (int i = 0; i < DataStore.SNAPSHOT_RECORDS; i++) {
             String value = UUID.randomUUID().toString();
             dataStore.put(String.class, "test", "key", value);
             assertThat(dataStore.get(String.class, "test", "key")).isEqualTo(value);
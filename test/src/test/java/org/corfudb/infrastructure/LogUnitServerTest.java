@@ -1,5 +1,6 @@
 package org.corfudb.infrastructure;
 
+import com.google.common.collect.Range;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import org.assertj.core.api.Assertions;
@@ -7,12 +8,15 @@ import org.corfudb.infrastructure.log.LogAddress;
 import org.corfudb.infrastructure.log.StreamLogFiles;
 import org.corfudb.protocols.wireprotocol.*;
 import org.corfudb.runtime.CorfuRuntime;
+import org.corfudb.runtime.view.Address;
 import org.corfudb.util.serializer.Serializers;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.util.Collections;
 import java.util.Random;
 import java.util.HashMap;
@@ -415,6 +419,331 @@ public class LogUnitServerTest extends AbstractServerTest {
 
     }
 
+    @Test
+    public void concurrentColdReads() throws Exception {
+        final int readers = 64;
+        final int segments = 4;
+        final int entriesPerReader = PARAMETERS.NUM_ITERATIONS_LOW;
+        final int entries = readers * entriesPerReader;
+        final long stride = StreamLogFiles.RECORDS_PER_LOG_FILE * segments / entries;
+
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setMemory(false)
+                .build());
+
+        // Spread the entries over a few segments
+        for (int x = 0; x < entries; x++) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(Integer.toString(x).getBytes(), b);
+            LogData data = new LogData(DataType.DATA, b);
+            data.setGlobalAddress(x * stride);
+            s1.getDataCache().put(new LogAddress(x * stride, null), data);
+        }
+
+        for (int concurrency : new int[]{1, readers}) {
+            s1.getDataCache().invalidateAll();
+            scheduleConcurrently(readers, reader -> {
+                for (int x = reader; x < entries; x += readers) {
+                    assertThat(s1.getDataCache().get(new LogAddress(x * stride, null)).getPayload(null))
+                            .isEqualTo(Integer.toString(x).getBytes());
+                }
+            });
+            long start = System.currentTimeMillis();
+            executeScheduled(concurrency, PARAMETERS.TIMEOUT_LONG);
+            calculateRequestsPerSecond("ColdReads" + concurrency, entries, start);
+        }
+        s1.shutdown();
+    }
+
+    @Test
+    public void rangeReadLoadsCacheInBulk() throws Exception {
+        final long entries = PARAMETERS.NUM_ITERATIONS_LOW;
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setMemory(false)
+                .build());
+        this.router.reset();
+        this.router.addServer(s1);
+
+        // Write every other address
+        for (long x = 0; x < entries; x += 2) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(Long.toString(x).getBytes(), b);
+            LogData data = new LogData(DataType.DATA, b);
+            data.setGlobalAddress(x);
+            s1.getDataCache().put(new LogAddress(x, null), data);
+        }
+        s1.getDataCache().invalidateAll();
+
+        sendMessage(CorfuMsgType.READ_REQUEST.payloadMsg(new ReadRequest(Range.closed(0L, entries - 1), null)));
+        ReadResponse response = getLastPayloadMessageAs(ReadResponse.class);
+
+        assertThat(response.getReadSet()).hasSize((int) entries);
+        for (long x = 0; x < entries; x++) {
+            if (x % 2 == 0) {
+                assertThat(response.getReadSet().get(x).getPayload(null)).isEqualTo(Long.toString(x).getBytes());
+                assertThat(s1.getDataCache().getIfPresent(new LogAddress(x, null))).isNotNull();
+            } else {
+                assertThat(response.getReadSet().get(x).getType()).isEqualTo(DataType.EMPTY);
+            }
+        }
+        s1.shutdown();
+    }
+
+    /**
+     * Write an entry through the log unit, as a client would.
+     */
+    private void writeEntry(long address, byte[] payload) {
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize(payload, b);
+        WriteRequest m = WriteRequest.builder()
+                .writeMode(WriteMode.NORMAL)
+                .data(new LogData(DataType.DATA, b))
+                .build();
+        m.setGlobalAddress(address);
+        m.setStreams(Collections.emptySet());
+        m.setBackpointerMap(Collections.emptyMap());
+        sendMessage(CorfuMsgType.WRITE.payloadMsg(m));
+    }
+
+    /**
+     * Read a range of addresses, and serialize the response as the log unit would send it.
+     */
+    private ReadResponse readRange(long start, long end) {
+        sendMessage(CorfuMsgType.READ_REQUEST.payloadMsg(new ReadRequest(Range.closed(start, end), null)));
+        ByteBuf buf = Unpooled.buffer();
+        getLastPayloadMessageAs(ReadResponse.class).doSerialize(buf);
+        ReadResponse response = new ReadResponse(buf);
+        buf.release();
+        return response;
+    }
+
+    @Test
+    public void offHeapCacheServesReads() throws Exception {
+        final long entries = PARAMETERS.NUM_ITERATIONS_LOW;
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setMemory(false)
+                .setOffHeapCacheBytes(Long.toString(Long.MAX_VALUE))
+                .build());
+        this.router.reset();
+        this.router.addServer(s1);
+
+        // Written entries are moved off the heap
+        for (long x = 0; x < entries; x += 2) {
+            writeEntry(x, Long.toString(x).getBytes());
+        }
+        s1.getDataCache().cleanUp();
+        assertThat(s1.getDataCache().estimatedSize()).isZero();
+        assertThat(s1.getOffHeapCache().size()).isEqualTo((int) entries / 2);
+
+        // Entries which are no longer cached are loaded and moved off the heap too
+        s1.getOffHeapCache().invalidate(0L);
+        for (int round = 0; round < 2; round++) {
+            ReadResponse response = readRange(0L, entries - 1);
+            assertThat(response.getReadSet()).hasSize((int) entries);
+            for (long x = 0; x < entries; x++) {
+                if (x % 2 == 0) {
+                    assertThat(response.getReadSet().get(x).getPayload(null))
+                            .isEqualTo(Long.toString(x).getBytes());
+                } else {
+                    assertThat(response.getReadSet().get(x).getType()).isEqualTo(DataType.EMPTY);
+                }
+            }
+        }
+        assertThat(s1.getOffHeapCache().size()).isEqualTo((int) entries / 2);
+        // The unwritten addresses miss on every read, the invalidated address only once
+        assertThat(s1.getOffHeapCache().getMissCount()).isEqualTo(entries + 1);
+        s1.shutdown();
+    }
+
+    @Test
+    public void readOfATrimmedAddressFails() throws Exception {
+        final long entries = PARAMETERS.NUM_ITERATIONS_LOW;
+        final long trimmed = 1L;
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setMemory(false)
+                .setOffHeapCacheBytes(Long.toString(Long.MAX_VALUE))
+                .build());
+        this.router.reset();
+        this.router.addServer(s1);
+
+        for (long x = 0; x < entries; x++) {
+            writeEntry(x, Long.toString(x).getBytes());
+        }
+        sendMessage(CorfuMsgType.TRIM.payloadMsg(new TrimRequest(null, trimmed)));
+        s1.getOffHeapCache().invalidate(trimmed);
+
+        // The other entries are served off the heap, but the whole read fails
+        sendMessage(CorfuMsgType.READ_REQUEST.payloadMsg(new ReadRequest(Range.closed(0L, entries - 1), null)));
+        assertThat(getLastMessage().getMsgType()).isEqualTo(CorfuMsgType.ERROR_TRIMMED);
+
+        ReadResponse response = readRange(trimmed + 1, entries - 1);
+        assertThat(response.getReadSet()).hasSize((int) (entries - trimmed - 1));
+        s1.shutdown();
+    }
+
+    @Test
+    public void sequentialReadsArePrefetched() throws Exception {
+        final int prefetchRecords = PARAMETERS.NUM_ITERATIONS_LOW;
+        final long entries = prefetchRecords * 2;
+        LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                .setLogPath(PARAMETERS.TEST_TEMP_DIR)
+                .setMemory(false)
+                .setPrefetchRecords(Integer.toString(prefetchRecords))
+                .build());
+        this.router.reset();
+        this.router.addServer(s1);
+
+        for (long x = 0; x < entries; x++) {
+            writeEntry(x, Long.toString(x).getBytes());
+        }
+        s1.getDataCache().invalidateAll();
+
+        // Reads which don't continue the previous read aren't followed by a prefetch
+        readRange(entries - 1, entries - 1);
+        readRange(0L, 0L);
+        assertThat(s1.getReadAhead().getPrefetchedCount()).isZero();
+
+        // A sequential read prefetches the records which follow it
+        readRange(1L, 1L);
+        long deadline = System.nanoTime() + PARAMETERS.TIMEOUT_NORMAL.toNanos();
+        while (s1.getReadAhead().getPrefetchedCount() < prefetchRecords && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(s1.getReadAhead().getPrefetchedCount()).isEqualTo(prefetchRecords);
+        for (long x = 2; x < prefetchRecords + 2; x++) {
+            assertThat(s1.getDataCache().getIfPresent(new LogAddress(x, null))).isNotNull();
+        }
+
+        // Reading the prefetched records counts as hits
+        for (long x = 2; x < prefetchRecords + 2; x++) {
+            assertThat(readRange(x, x).getReadSet().get(x).getPayload(null))
+                    .isEqualTo(Long.toString(x).getBytes());
+        }
+        assertThat(s1.getReadAhead().getHitCount()).isEqualTo(prefetchRecords);
+        s1.shutdown();
+    }
+
+    /**
+     * Reports the time spent in garbage collection while serving reads from a large cache,
+     * kept on the heap or off the heap, and the length of a full collection with the cache
+     * loaded.
+     */
+    @Test
+    public void reportGcPausesWithOffHeapCache() throws Exception {
+        final int payloadSize = 4096;
+        final long entries = PARAMETERS.NUM_ITERATIONS_LARGE;
+        final long readSize = PARAMETERS.NUM_ITERATIONS_LOW;
+        final byte[] payload = new byte[payloadSize];
+
+        for (boolean offHeap : new boolean[]{false, true}) {
+            LogUnitServer s1 = new LogUnitServer(new ServerContextBuilder()
+                    .setLogPath(PARAMETERS.TEST_TEMP_DIR + File.separator + offHeap)
+                    .setMemory(false)
+                    .setSyncPolicy(SyncPolicy.NEVER.toString())
+                    .setOffHeapCacheBytes(offHeap ? Long.toString(entries * payloadSize * 2) : null)
+                    .build());
+            this.router.reset();
+            this.router.addServer(s1);
+            for (long x = 0; x < entries; x++) {
+                writeEntry(x, payload);
+            }
+            if (!offHeap) {
+                // Load every entry into the on-heap cache
+                readRange(0, entries - 1);
+            }
+
+            long collections = getCollectionCount();
+            long collectionMillis = getCollectionMillis();
+            long start = System.currentTimeMillis();
+            for (int round = 0; round < PARAMETERS.NUM_ITERATIONS_VERY_LOW; round++) {
+                for (long x = 0; x < entries; x += readSize) {
+                    assertThat(readRange(x, x + readSize - 1).getReadSet()).hasSize((int) readSize);
+                }
+            }
+            long readMillis = System.currentTimeMillis() - start;
+            collections = getCollectionCount() - collections;
+            collectionMillis = getCollectionMillis() - collectionMillis;
+
+            start = System.currentTimeMillis();
+            System.gc();
+            long fullCollectionMillis = System.currentTimeMillis() - start;
+
+            testStatus += String.format("%s: reads=%dms, gc=%dms(%d), full-gc=%dms;",
+                    offHeap ? "OffHeap" : "OnHeap", readMillis, collectionMillis, collections,
+                    fullCollectionMillis);
+            s1.shutdown();
+        }
+    }
+
+    @Test
+    public void streamTailsSummarizeARange() {
+        UUID streamA = CorfuRuntime.getStreamID("a");
+        UUID streamB = CorfuRuntime.getStreamID("b");
+        final long ADDRESS_A = 1L;
+        final long ADDRESS_B = 2L;
+        final long LAST_ADDRESS = 3L;
+        // Entries written with a token only carry their streams in their backpointers
+        writeEntry(0L, Collections.singletonMap(streamA, Address.NON_ADDRESS));
+        writeEntry(ADDRESS_A, Collections.singletonMap(streamA, 0L));
+        writeEntry(ADDRESS_B, Collections.singletonMap(streamB, Address.NON_ADDRESS));
+        writeEntry(LAST_ADDRESS, Collections.singletonMap(streamB, ADDRESS_B));
+
+        sendMessage(CorfuMsgType.STREAM_TAILS_REQUEST.payloadMsg(new StreamTailsRequest(0L, LAST_ADDRESS)));
+        Map<UUID, Long> streamTails = getLastPayloadMessageAs(StreamTailsResponse.class).getStreamTails();
+        assertThat(streamTails).containsOnly(
+                Assertions.entry(streamA, ADDRESS_A),
+                Assertions.entry(streamB, ADDRESS_B));
+
+        // The range is capped at the tail of the log unit
+        sendMessage(CorfuMsgType.STREAM_TAILS_REQUEST.payloadMsg(
+                new StreamTailsRequest(ADDRESS_B, Long.MAX_VALUE)));
+        streamTails = getLastPayloadMessageAs(StreamTailsResponse.class).getStreamTails();
+        assertThat(streamTails).containsOnly(Assertions.entry(streamB, LAST_ADDRESS));
+
+        // An address which was trimmed on its own is left out of the summary
+        sendMessage(CorfuMsgType.TRIM.payloadMsg(new TrimRequest(null, LAST_ADDRESS)));
+        sendMessage(CorfuMsgType.STREAM_TAILS_REQUEST.payloadMsg(new StreamTailsRequest(0L, LAST_ADDRESS + 1)));
+        streamTails = getLastPayloadMessageAs(StreamTailsResponse.class).getStreamTails();
+        assertThat(streamTails).containsOnly(
+                Assertions.entry(streamA, ADDRESS_A),
+                Assertions.entry(streamB, ADDRESS_B));
+
+        // A range which was trimmed can't be summarized
+        sendMessage(CorfuMsgType.PREFIX_TRIM.payloadMsg(ADDRESS_A));
+        sendMessage(CorfuMsgType.STREAM_TAILS_REQUEST.payloadMsg(new StreamTailsRequest(0L, LAST_ADDRESS)));
+        Assertions.assertThat(getLastMessage().getMsgType()).isEqualTo(CorfuMsgType.ERROR_TRIMMED);
+    }
+
+    /**
+     * Write an entry with backpointers, as a client which acquired a token would.
+     */
+    private void writeEntry(long address, Map<UUID, Long> backpointerMap) {
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize(Long.toString(address).getBytes(), b);
+        WriteRequest m = WriteRequest.builder()
+                .writeMode(WriteMode.NORMAL)
+                .data(new LogData(DataType.DATA, b))
+                .build();
+        m.setGlobalAddress(address);
+        m.setStreams(Collections.emptySet());
+        m.setBackpointerMap(backpointerMap);
+        sendMessage(CorfuMsgType.WRITE.payloadMsg(m));
+    }
+
+    private static long getCollectionCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long getCollectionMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
     @Test
     public void CheckCacheSizeIsCorrectRatio() throws Exception {
 
@@ -0,0 +1,158 @@
+package org.corfudb.infrastructure;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.corfudb.AbstractCorfuTest;
+import org.corfudb.protocols.wireprotocol.DataType;
+import org.corfudb.protocols.wireprotocol.LogData;
+import org.corfudb.util.serializer.Serializers;
+import org.junit.Test;
+
+/**
+ * Tests for the table and the CLOCK eviction of {@link OffHeapCache}.
+ */
+public class OffHeapCacheTest extends AbstractCorfuTest {
+
+    /** Payloads of the same size, so all the entries have the same serialized size. */
+    private static byte[] payloadOf(long address) {
+        return String.format("%019d", address).getBytes();
+    }
+
+    private static LogData getLogData(long address) {
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize(payloadOf(address), b);
+        LogData data = new LogData(DataType.DATA, b);
+        data.setGlobalAddress(address);
+        return data;
+    }
+
+    private static long entrySize() {
+        ByteBuf b = Unpooled.buffer();
+        getLogData(0).doSerialize(b);
+        return b.readableBytes();
+    }
+
+    private static byte[] getPayload(OffHeapCache cache, long address) {
+        ByteBuf serialized = cache.get(address);
+        try {
+            return (byte[]) new LogData(serialized).getPayload(null);
+        } finally {
+            serialized.release();
+        }
+    }
+
+    @Test
+    public void servesSerializedEntries() {
+        OffHeapCache cache = new OffHeapCache(Long.MAX_VALUE);
+        for (long x = 0; x < PARAMETERS.NUM_ITERATIONS_LARGE; x++) {
+            cache.put(x, getLogData(x));
+        }
+        cache.put(PARAMETERS.NUM_ITERATIONS_LARGE, LogData.HOLE);
+
+        assertThat(cache.size()).isEqualTo(PARAMETERS.NUM_ITERATIONS_LARGE + 1);
+        for (long x = 0; x < PARAMETERS.NUM_ITERATIONS_LARGE; x++) {
+            assertThat(getPayload(cache, x)).isEqualTo(payloadOf(x));
+        }
+        ByteBuf hole = cache.get(PARAMETERS.NUM_ITERATIONS_LARGE);
+        assertThat(new LogData(hole).isHole()).isTrue();
+        hole.release();
+        assertThat(cache.get(-1L)).isNull();
+        cache.close();
+    }
+
+    @Test
+    public void invalidateKeepsOtherEntries() {
+        OffHeapCache cache = new OffHeapCache(Long.MAX_VALUE);
+        for (long x = 0; x < PARAMETERS.NUM_ITERATIONS_LARGE; x++) {
+            cache.put(x, getLogData(x));
+        }
+
+        // Removing entries shifts back the entries which collided with them
+        for (long x = 0; x < PARAMETERS.NUM_ITERATIONS_LARGE; x += 2) {
+            cache.invalidate(x);
+        }
+        for (long x = 0; x < PARAMETERS.NUM_ITERATIONS_LARGE; x++) {
+            if (x % 2 == 0) {
+                assertThat(cache.get(x)).isNull();
+            } else {
+                assertThat(getPayload(cache, x)).isEqualTo(payloadOf(x));
+            }
+        }
+        assertThat(cache.size()).isEqualTo(PARAMETERS.NUM_ITERATIONS_LARGE / 2);
+        cache.close();
+    }
+
+    @Test
+    public void invalidateBeforeDropsLowerAddresses() {
+        OffHeapCache cache = new OffHeapCache(Long.MAX_VALUE);
+        for (long x = 0; x < PARAMETERS.NUM_ITERATIONS_LARGE; x++) {
+            cache.put(x, getLogData(x));
+        }
+
+        final int bound = PARAMETERS.NUM_ITERATIONS_LARGE / 2;
+        cache.invalidateBefore(bound);
+        for (long x = 0; x < PARAMETERS.NUM_ITERATIONS_LARGE; x++) {
+            if (x < bound) {
+                assertThat(cache.get(x)).isNull();
+            } else {
+                assertThat(getPayload(cache, x)).isEqualTo(payloadOf(x));
+            }
+        }
+        assertThat(cache.size()).isEqualTo(PARAMETERS.NUM_ITERATIONS_LARGE - bound);
+        cache.close();
+    }
+
+    @Test
+    public void evictsUnreferencedEntries() {
+        final long entrySize = entrySize();
+        final int capacity = PARAMETERS.NUM_ITERATIONS_LOW;
+        OffHeapCache cache = new OffHeapCache(entrySize * capacity);
+
+        for (long x = 0; x < capacity; x++) {
+            cache.put(x, getLogData(x));
+        }
+        assertThat(cache.getEvictionCount()).isZero();
+
+        // New entries start referenced, so the hand clears every reference on its first
+        // sweep, and then evicts the first entry it reaches
+        cache.put(capacity, getLogData(capacity));
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+
+        // Reference one of the remaining entries, which must survive the next evictions
+        long hot = 0;
+        ByteBuf hit;
+        while ((hit = cache.get(hot)) == null) {
+            hot++;
+        }
+        hit.release();
+        for (long x = capacity + 1; x < capacity + capacity / 2; x++) {
+            cache.put(x, getLogData(x));
+        }
+
+        assertThat(cache.getBytes()).isLessThanOrEqualTo(entrySize * capacity);
+        assertThat(cache.getEvictionCount()).isEqualTo(capacity / 2);
+        assertThat(getPayload(cache, hot)).isEqualTo(payloadOf(hot));
+        cache.close();
+    }
+
+    @Test
+    public void slicesOutliveRemoval() {
+        OffHeapCache cache = new OffHeapCache(Long.MAX_VALUE);
+        cache.put(0L, getLogData(0));
+        ByteBuf serialized = cache.get(0L);
+
+        // Remove the entry while the slice is still in use
+        cache.invalidate(0L);
+        assertThat(cache.get(0L)).isNull();
+        assertThat(cache.getBytes()).isZero();
+
+        assertThat(serialized.refCnt()).isEqualTo(1);
+        assertThat(new LogData(serialized).getPayload(null)).isEqualTo(payloadOf(0));
+        serialized.release();
+        assertThat(serialized.refCnt()).isZero();
+        cache.close();
+    }
+}
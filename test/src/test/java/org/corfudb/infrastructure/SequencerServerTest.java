@@ -1,9 +1,19 @@
 package org.corfudb.infrastructure;
 
+import com.codahale.metrics.Counter;
 import org.corfudb.protocols.wireprotocol.*;
+import org.corfudb.runtime.view.Address;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -44,6 +54,74 @@ public class SequencerServerTest extends AbstractServerTest {
         }
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void concurrentAllocationsAreDistinct()
+            throws Exception {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        getRouter().responseMessages = Collections.synchronizedList(new ArrayList<>());
+
+        scheduleConcurrently(PARAMETERS.NUM_ITERATIONS_LOW, t -> {
+            sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                    new TokenRequest(1L, Collections.singleton(streamA))));
+            sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                    new TokenRequest(0L, Collections.singleton(streamA))));
+        });
+        executeScheduled(PARAMETERS.CONCURRENCY_SOME, PARAMETERS.TIMEOUT_NORMAL);
+
+        Set<Long> allocated = new HashSet<>();
+        synchronized (getResponseMessages()) {
+            assertThat(getResponseMessages())
+                    .hasSize(PARAMETERS.NUM_ITERATIONS_LOW * 2);
+            for (CorfuMsg m : getResponseMessages()) {
+                TokenResponse response = ((CorfuPayloadMsg<TokenResponse>) m).getPayload();
+                if (!response.getBackpointerMap().isEmpty()) {
+                    allocated.add(response.getToken().getTokenValue());
+                }
+            }
+        }
+        assertThat(allocated)
+                .hasSize(PARAMETERS.NUM_ITERATIONS_LOW);
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(0L, Collections.singleton(streamA))));
+        assertThat(getLastPayloadMessageAs(TokenResponse.class).getToken().getTokenValue())
+                .isEqualTo(PARAMETERS.NUM_ITERATIONS_LOW - 1L);
+    }
+
+    @Test
+    public void batchedRequestsAreServedInOrder() {
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        TxResolutionInfo writerTx = new TxResolutionInfo(UUID.randomUUID(), Address.NON_ADDRESS,
+                Collections.emptyMap(), Collections.singletonMap(streamA, Collections.singleton(0)));
+        TxResolutionInfo staleTx = new TxResolutionInfo(UUID.randomUUID(), Address.NON_ADDRESS,
+                Collections.singletonMap(streamA, Collections.singleton(0)), Collections.emptyMap());
+
+        final int ALLOCATION = 0;
+        final int QUERY = 1;
+        final int RAW = 2;
+        final int TX = 3;
+        final int NEXT_ALLOCATION = 4;
+        List<TokenRequest> requests = Arrays.asList(
+                new TokenRequest(1L, Collections.singleton(streamA), writerTx),
+                new TokenRequest(0L, Collections.singleton(streamA)),
+                new TokenRequest(1L, Collections.emptySet()),
+                new TokenRequest(1L, Collections.singleton(streamA), staleTx),
+                new TokenRequest(1L, Collections.singleton(streamA)));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.MULTIPLE_TOKEN_REQ, new MultipleTokenRequest(requests)));
+        List<TokenResponse> responses = getLastPayloadMessageAs(MultipleTokenResponse.class).getResponses();
+
+        assertThat(responses).hasSize(requests.size());
+        assertThat(responses.get(ALLOCATION).getTokenValue()).isEqualTo(0L);
+        assertThat(responses.get(ALLOCATION).getBackpointerMap()).containsEntry(streamA, Address.NON_EXIST);
+        assertThat(responses.get(QUERY).getTokenValue()).isEqualTo(0L);
+        assertThat(responses.get(RAW).getTokenValue()).isEqualTo(1L);
+        // the transaction read the key before the first request of the batch wrote it
+        assertThat(responses.get(TX).getRespType()).isEqualTo(TokenType.TX_ABORT_CONFLICT);
+        assertThat(responses.get(NEXT_ALLOCATION).getTokenValue()).isEqualTo(2L);
+        assertThat(responses.get(NEXT_ALLOCATION).getBackpointerMap()).containsEntry(streamA, 0L);
+    }
+
     @Test
     public void checkTokenPositionWorks() {
         for (int i = 0; i < PARAMETERS.NUM_ITERATIONS_LOW; i++) {
@@ -190,4 +268,178 @@ public class SequencerServerTest extends AbstractServerTest {
                     .isEqualTo(Alocal);
         }
     }
+
+    /**
+     * Replay a skewed transactional workload, where a few hot keys of a few streams take
+     * most of the reads and writes, and compare the aborts of the sequencer with the true
+     * conflicts of the workload.
+     */
+    @Test
+    @SuppressWarnings("checkstyle:magicnumber")
+    public void skewedWorkloadHasNoFalseAborts() {
+        final int numStreams = 16;
+        final int keysPerStream = 100_000;
+        final int maxSnapshotLag = 16;
+        final double skew = 5.0;
+
+        Random rand = new Random(PARAMETERS.SEED);
+        UUID[] streams = new UUID[numStreams];
+        for (int x = 0; x < numStreams; x++) {
+            streams[x] = UUID.nameUUIDFromBytes(("stream" + x).getBytes());
+        }
+
+        // The true latest write of each key
+        Map<UUID, Map<Integer, Long>> lastWrite = new HashMap<>();
+
+        long tail = 0;
+        int aborts = 0;
+        int falseAborts = 0;
+        int missedConflicts = 0;
+        for (int tx = 0; tx < PARAMETERS.NUM_ITERATIONS_LARGE; tx++) {
+            UUID stream = streams[(int) (Math.pow(rand.nextDouble(), skew) * numStreams)];
+            int readKey = (int) (Math.pow(rand.nextDouble(), skew) * keysPerStream);
+            int writeKey = (int) (Math.pow(rand.nextDouble(), skew) * keysPerStream);
+            long snapshot = Math.max(tail - 1 - rand.nextInt(maxSnapshotLag), Address.NON_ADDRESS);
+
+            Long written = lastWrite.computeIfAbsent(stream, k -> new HashMap<>()).get(readKey);
+            boolean conflicts = written != null && written > snapshot;
+
+            TxResolutionInfo txInfo = new TxResolutionInfo(UUID.randomUUID(), snapshot,
+                    Collections.singletonMap(stream, Collections.singleton(readKey)),
+                    Collections.singletonMap(stream, Collections.singleton(writeKey)));
+            sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                    new TokenRequest(1L, Collections.singleton(stream), txInfo)));
+            TokenResponse response = getLastPayloadMessageAs(TokenResponse.class);
+
+            if (response.getRespType() == TokenType.TX_ABORT_CONFLICT) {
+                aborts++;
+                if (!conflicts) {
+                    falseAborts++;
+                }
+            } else {
+                if (conflicts) {
+                    missedConflicts++;
+                }
+                tail = response.getToken().getTokenValue() + 1;
+                lastWrite.get(stream).put(writeKey, response.getToken().getTokenValue());
+            }
+        }
+
+        testStatus = "aborts=" + aborts + ", false aborts=" + falseAborts
+                + " of " + PARAMETERS.NUM_ITERATIONS_LARGE + " transactions";
+        assertThat(missedConflicts)
+                .isEqualTo(0);
+        assertThat(falseAborts)
+                .isEqualTo(0);
+    }
+
+    @Test
+    public void wildcardAbortsStayOnTheirStream() {
+        // One address per epoch, so the first address expires once the window is full
+        final long window = ConflictTable.EPOCHS;
+        setServer(new SequencerServer(new ServerContextBuilder()
+                .setConflictWindow(Long.toString(window))
+                .build()));
+        Counter wildcardAborts = ServerContext.getMetrics().counter("corfu.server.sequencer.abort.wildcard");
+        long wildcardAbortsBefore = wildcardAborts.getCount();
+
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+        assertThat(commit(streamA, Address.NON_ADDRESS, 0, 0)).isEqualTo(TokenType.NORMAL);
+        for (int x = 1; x <= window; x++) {
+            assertThat(commit(streamB, Address.NON_ADDRESS, x, x)).isEqualTo(TokenType.NORMAL);
+        }
+
+        // The key of stream A was evicted, only stream A has to assume it was written since
+        assertThat(commit(streamA, Address.NON_ADDRESS, 1, 1)).isEqualTo(TokenType.TX_ABORT_CONFLICT);
+        assertThat(commit(streamB, Address.NON_ADDRESS, 0, 0)).isEqualTo(TokenType.NORMAL);
+        assertThat(wildcardAborts.getCount() - wildcardAbortsBefore).isEqualTo(1);
+    }
+
+    @Test
+    public void checkpointIsRestoredAfterRestart() {
+        String serviceDir = PARAMETERS.TEST_TEMP_DIR;
+        final long tail = PARAMETERS.NUM_ITERATIONS_LOW;
+        SequencerServer server = new SequencerServer(checkpointedContext(serviceDir));
+        setServer(server);
+
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        for (int x = 0; x < tail; x++) {
+            sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                    new TokenRequest(1L, Collections.singleton(streamA))));
+        }
+        server.shutdown();
+
+        setServer(new SequencerServer(checkpointedContext(serviceDir)));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(streamA))));
+        TokenResponse response = getLastPayloadMessageAs(TokenResponse.class);
+        assertThat(response.getToken().getTokenValue())
+                .isEqualTo(tail);
+        assertThat(response.getBackpointerMap())
+                .containsEntry(streamA, tail - 1);
+
+        // The conflict parameters are not checkpointed, only transactions which read
+        // stream A before its restored tail abort
+        assertThat(commit(streamA, tail - 2, 0, 0)).isEqualTo(TokenType.TX_ABORT_CONFLICT);
+        assertThat(commit(streamA, tail, 0, 0)).isEqualTo(TokenType.NORMAL);
+    }
+
+    @Test
+    public void recoveryKeepsBackpointersAndConflictsOfStreams() {
+        final long globalTail = PARAMETERS.NUM_ITERATIONS_LOW;
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+        sendMessage(CorfuMsgType.RECOVER_SEQUENCER.payloadMsg(new SequencerRecoveryMsg(globalTail,
+                0L, Collections.singletonMap(streamA, globalTail - 1))));
+        assertThat(getLastMessage().getMsgType())
+                .isEqualTo(CorfuMsgType.ACK);
+
+        // Only stream A was written since the snapshot
+        assertThat(commit(streamA, globalTail - 2, 0, 0)).isEqualTo(TokenType.TX_ABORT_CONFLICT);
+        assertThat(commit(streamB, globalTail - 2, 0, 0)).isEqualTo(TokenType.NORMAL);
+
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(streamA))));
+        TokenResponse response = getLastPayloadMessageAs(TokenResponse.class);
+        assertThat(response.getToken().getTokenValue())
+                .isEqualTo(globalTail + 1);
+        assertThat(response.getBackpointerMap())
+                .containsEntry(streamA, globalTail - 1);
+    }
+
+    @Test
+    public void recoveryWhichSkipsAddressesResets() {
+        final long globalTail = PARAMETERS.NUM_ITERATIONS_LOW;
+        UUID streamA = UUID.nameUUIDFromBytes("streamA".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("streamB".getBytes());
+
+        // The scan started past the tail of the sequencer, which can't know about the addresses in between
+        sendMessage(CorfuMsgType.RECOVER_SEQUENCER.payloadMsg(new SequencerRecoveryMsg(globalTail,
+                globalTail - 1, Collections.singletonMap(streamA, globalTail - 1))));
+
+        assertThat(commit(streamB, globalTail - 2, 0, 0)).isEqualTo(TokenType.TX_ABORT_NEWSEQ);
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(streamA))));
+        assertThat(getLastPayloadMessageAs(TokenResponse.class).getBackpointerMap())
+                .containsEntry(streamA, Address.NO_BACKPOINTER);
+    }
+
+    private ServerContext checkpointedContext(String serviceDir) {
+        return new ServerContextBuilder()
+                .setMemory(false)
+                .setLogPath(serviceDir)
+                .setInitialToken(Address.NON_ADDRESS)
+                .setCheckpointInterval("1")
+                .build();
+    }
+
+    private TokenType commit(UUID stream, long snapshot, int readKey, int writeKey) {
+        TxResolutionInfo txInfo = new TxResolutionInfo(UUID.randomUUID(), snapshot,
+                Collections.singletonMap(stream, Collections.singleton(readKey)),
+                Collections.singletonMap(stream, Collections.singleton(writeKey)));
+        sendMessage(new CorfuPayloadMsg<>(CorfuMsgType.TOKEN_REQ,
+                new TokenRequest(1L, Collections.singleton(stream), txInfo)));
+        return getLastPayloadMessageAs(TokenResponse.class).getRespType();
+    }
 }
@@ -21,6 +21,20 @@ public class ServerContextBuilder {
     boolean noVerify = false;
     boolean tlsEnabled = false;
     String cacheSizeHeapRatio = "0.5";
+    String compactInterval = "60";
+    String coldMigrationInterval = "60";
+    String offHeapCacheBytes = null;
+    String prefetchRecords = null;
+    String maxMappedBytes = null;
+    String maxOpenSegments = null;
+    String coldLogPath = null;
+    String coldSegmentAge = null;
+    String compactionRate = null;
+    String syncPolicy = null;
+    String writeProcessors = null;
+    String conflictWindow = null;
+    String conflictTableBytes = null;
+    String checkpointInterval = null;
     String address = "test";
     int port = 9000;
     String managementBootstrapEndpoint = null;
@@ -39,6 +53,42 @@ public class ServerContextBuilder {
         if (logPath != null) {
          builder.put("--log-path", logPath);
         }
+        if (offHeapCacheBytes != null) {
+            builder.put("--off-heap-cache-bytes", offHeapCacheBytes);
+        }
+        if (prefetchRecords != null) {
+            builder.put("--prefetch-records", prefetchRecords);
+        }
+        if (maxMappedBytes != null) {
+            builder.put("--max-mapped-bytes", maxMappedBytes);
+        }
+        if (maxOpenSegments != null) {
+            builder.put("--max-open-segments", maxOpenSegments);
+        }
+        if (coldLogPath != null) {
+            builder.put("--cold-log-path", coldLogPath);
+        }
+        if (coldSegmentAge != null) {
+            builder.put("--cold-segment-age", coldSegmentAge);
+        }
+        if (compactionRate != null) {
+            builder.put("--compaction-rate", compactionRate);
+        }
+        if (syncPolicy != null) {
+            builder.put("--sync-policy", syncPolicy);
+        }
+        if (writeProcessors != null) {
+            builder.put("--write-processors", writeProcessors);
+        }
+        if (conflictWindow != null) {
+            builder.put("--conflict-window", conflictWindow);
+        }
+        if (conflictTableBytes != null) {
+            builder.put("--conflict-table-bytes", conflictTableBytes);
+        }
+        if (checkpointInterval != null) {
+            builder.put("--checkpoint-interval", checkpointInterval);
+        }
         if (managementBootstrapEndpoint != null) {
             builder.put("--management-server", managementBootstrapEndpoint);
         }
@@ -46,6 +96,8 @@ public class ServerContextBuilder {
                  .put("--no-verify", noVerify)
                  .put("--address", address)
                  .put("--cache-heap-ratio", cacheSizeHeapRatio)
+                 .put("--compact", compactInterval)
+                 .put("--cold-migration-interval", coldMigrationInterval)
                  .put("--enable-tls", tlsEnabled)
                  .put("<port>", port);
         return new ServerContext(builder.build(), serverRouter);
@@ -0,0 +1,122 @@
+package org.corfudb.infrastructure.log;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.corfudb.AbstractCorfuTest;
+import org.junit.Test;
+
+/**
+ * Tests that {@link Crc32c} computes the checksums the log was written with.
+ */
+public class Crc32cTest extends AbstractCorfuTest {
+
+    private static final int MAX_SIZE = 1024;
+    private static final int[] PAYLOAD_SIZES = {64, 1024, 16 * 1024, 1024 * 1024};
+    private static final long BYTES_PER_ROUND = 64L * 1024 * 1024;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final int BYTES_PER_MB = 1024 * 1024;
+
+    private final Random random = new Random(PARAMETERS.SEED);
+
+    private static int guavaChecksum(byte[] bytes) {
+        Hasher hasher = Hashing.crc32c().newHasher();
+        for (byte b : bytes) {
+            hasher.putByte(b);
+        }
+        return hasher.hash().asInt();
+    }
+
+    private static int tableChecksum(byte[] bytes) {
+        Crc32c crc32c = new Crc32c(false);
+        crc32c.update(bytes, 0, bytes.length);
+        return (int) crc32c.getValue();
+    }
+
+    @Test
+    public void matchesGuavaChecksum() {
+        for (int size = 0; size < MAX_SIZE; size++) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+
+            int expected = guavaChecksum(bytes);
+            assertThat(Crc32c.checksum(bytes)).isEqualTo(expected);
+            assertThat(tableChecksum(bytes)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void checksumsBuffersInPlace() {
+        byte[] bytes = new byte[MAX_SIZE];
+        random.nextBytes(bytes);
+        int expected = guavaChecksum(bytes);
+
+        ByteBuffer heap = ByteBuffer.wrap(bytes);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+
+        assertThat(Crc32c.checksum(heap)).isEqualTo(expected);
+        assertThat(Crc32c.checksum(direct)).isEqualTo(expected);
+        assertThat(heap.position()).isZero();
+        assertThat(direct.position()).isZero();
+
+        // Incrementally, in uneven pieces
+        for (boolean useIntrinsic : new boolean[]{true, false}) {
+            Crc32c crc32c = new Crc32c(useIntrinsic);
+            int position = 0;
+            for (int piece = 1; position < bytes.length; piece += piece) {
+                ByteBuffer slice = direct.duplicate();
+                slice.position(position).limit(Math.min(bytes.length, position + piece));
+                position = slice.limit();
+                crc32c.update(slice);
+            }
+            assertThat((int) crc32c.getValue()).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void matchesGuavaChecksumOfAddress() {
+        long address = random.nextLong();
+        assertThat(StreamLogFiles.getChecksum(address))
+                .isEqualTo(Hashing.crc32c().newHasher().putLong(address).hash().asInt());
+    }
+
+    /**
+     * Reports the checksum throughput across payload sizes, along with the byte-at-a-time
+     * Guava hasher the log used before.
+     */
+    @Test
+    public void reportChecksumThroughput() {
+        StringBuilder status = new StringBuilder(Crc32c.isIntrinsic() ? "Intrinsic" : "Table");
+        for (int size : PAYLOAD_SIZES) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            long rounds = Math.max(1, BYTES_PER_ROUND / size);
+
+            int sink = 0;
+            long start = System.nanoTime();
+            for (long x = 0; x < rounds; x++) {
+                sink += Crc32c.checksum(bytes);
+            }
+            double crc32c = throughput(rounds * size, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (long x = 0; x < rounds; x++) {
+                sink += guavaChecksum(bytes);
+            }
+            double guava = throughput(rounds * size, System.nanoTime() - start);
+
+            status.append(String.format(";%dB=%.0fMB/s(guava=%.0fMB/s)", size, crc32c, guava));
+            assertThat(sink).isNotNull();
+        }
+        testStatus += status;
+    }
+
+    private static double throughput(long bytes, long nanos) {
+        return bytes / (double) BYTES_PER_MB / (nanos / NANOS_PER_SECOND);
+    }
+}
@@ -0,0 +1,135 @@
+package org.corfudb.infrastructure.log;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.UUID;
+
+import org.corfudb.AbstractCorfuTest;
+import org.corfudb.protocols.wireprotocol.DataType;
+import org.corfudb.protocols.wireprotocol.LogData;
+import org.corfudb.runtime.exceptions.OverwriteException;
+import org.corfudb.runtime.exceptions.TrimmedException;
+import org.corfudb.util.serializer.Serializers;
+import org.junit.Test;
+
+/**
+ * Tests for the chunked, lock-striped {@link InMemoryStreamLog}.
+ */
+public class InMemoryStreamLogTest extends AbstractCorfuTest {
+
+    /** Every entry has the same size, so the size of the log is proportional to its entries. */
+    private static LogData getEntry(long address) {
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize(getPayload(address), b);
+        LogData data = new LogData(DataType.DATA, b);
+        data.setGlobalAddress(address);
+        return data;
+    }
+
+    private static byte[] getPayload(long address) {
+        return String.format("%019d", address).getBytes();
+    }
+
+    @Test
+    public void concurrentAppendsAcrossChunks() throws Exception {
+        InMemoryStreamLog log = new InMemoryStreamLog();
+        final int writers = PARAMETERS.CONCURRENCY_SOME;
+        final long entries = InMemoryStreamLog.CHUNK_SIZE * 2 + 1;
+        final UUID stream = UUID.randomUUID();
+
+        // Every writer appends every address, only the first append of each address wins
+        scheduleConcurrently(writers, writer -> {
+            for (long x = 0; x < entries; x++) {
+                try {
+                    log.append(new LogAddress(x, null), getEntry(x));
+                } catch (OverwriteException e) {
+                    // Another writer won this address
+                }
+                try {
+                    log.append(new LogAddress(x, stream), getEntry(x));
+                } catch (OverwriteException e) {
+                    // Another writer won this address
+                }
+            }
+        });
+        executeScheduled(writers, PARAMETERS.TIMEOUT_LONG);
+
+        for (long x = 0; x < entries; x++) {
+            assertThat(log.read(new LogAddress(x, null)).getPayload(null)).isEqualTo(getPayload(x));
+            assertThat(log.read(new LogAddress(x, stream)).getPayload(null)).isEqualTo(getPayload(x));
+        }
+        assertThat(log.read(new LogAddress(entries, null))).isNull();
+        assertThat(log.getGlobalTail()).isEqualTo(entries - 1);
+    }
+
+    @Test
+    public void autoTrimsOldestChunksOverTheBound() {
+        final long entrySize = getEntry(0).getData().length;
+        final long maxBytes = entrySize * InMemoryStreamLog.CHUNK_SIZE * 2;
+        InMemoryStreamLog log = new InMemoryStreamLog(maxBytes);
+
+        // The first entry beyond two full chunks trims the first chunk
+        final long entries = InMemoryStreamLog.CHUNK_SIZE * 2 + 1;
+        for (long x = 0; x < entries; x++) {
+            log.append(new LogAddress(x, null), getEntry(x));
+        }
+
+        assertThat(log.getBytes()).isLessThanOrEqualTo(maxBytes);
+        assertThat(log.getTrimMark()).isEqualTo(InMemoryStreamLog.CHUNK_SIZE);
+        assertThatThrownBy(() -> log.read(new LogAddress(0L, null)))
+                .isInstanceOf(TrimmedException.class);
+        assertThatThrownBy(() -> log.append(new LogAddress(0L, null), getEntry(0)))
+                .isInstanceOf(OverwriteException.class);
+        for (long x = InMemoryStreamLog.CHUNK_SIZE; x < entries; x++) {
+            assertThat(log.read(new LogAddress(x, null))).isNotNull();
+        }
+    }
+
+    @Test
+    public void autoTrimsStreamEntriesOverTheBound() {
+        final long entrySize = getEntry(0).getData().length;
+        final long maxBytes = entrySize * InMemoryStreamLog.CHUNK_SIZE * 2;
+        InMemoryStreamLog log = new InMemoryStreamLog(maxBytes);
+        final UUID stream = UUID.randomUUID();
+
+        // Each address is written to the global log and the stream, so the bound is
+        // exceeded within the second chunk, and the first chunk is trimmed
+        final long entries = InMemoryStreamLog.CHUNK_SIZE * 2 + 1;
+        for (long x = 0; x < entries; x++) {
+            log.append(new LogAddress(x, null), getEntry(x));
+            log.append(new LogAddress(x, stream), getEntry(x));
+        }
+
+        assertThat(log.getBytes()).isLessThanOrEqualTo(maxBytes);
+        assertThat(log.getTrimMark()).isEqualTo(InMemoryStreamLog.CHUNK_SIZE * 2);
+        assertThatThrownBy(() -> log.read(new LogAddress(0L, stream)))
+                .isInstanceOf(TrimmedException.class);
+        assertThatThrownBy(() -> log.append(new LogAddress(0L, stream), getEntry(0)))
+                .isInstanceOf(OverwriteException.class);
+        for (long x = InMemoryStreamLog.CHUNK_SIZE * 2; x < entries; x++) {
+            assertThat(log.read(new LogAddress(x, stream))).isNotNull();
+        }
+    }
+
+    @Test
+    public void prefixTrimReleasesEntries() {
+        InMemoryStreamLog log = new InMemoryStreamLog();
+        final long entries = InMemoryStreamLog.CHUNK_SIZE + InMemoryStreamLog.CHUNK_SIZE / 2;
+        for (long x = 0; x < entries; x++) {
+            log.append(new LogAddress(x, null), getEntry(x));
+        }
+        long bytes = log.getBytes();
+
+        // Trim through the middle of the second chunk
+        final long lastTrimmed = InMemoryStreamLog.CHUNK_SIZE + 1;
+        log.prefixTrim(lastTrimmed);
+        assertThat(log.getBytes()).isEqualTo(bytes * (entries - lastTrimmed - 1) / entries);
+        assertThatThrownBy(() -> log.read(new LogAddress(lastTrimmed, null)))
+                .isInstanceOf(TrimmedException.class);
+        assertThat(log.read(new LogAddress(lastTrimmed + 1, null))).isNotNull();
+    }
+}
@@ -0,0 +1,125 @@
+package org.corfudb.infrastructure.log;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.corfudb.AbstractCorfuTest;
+import org.junit.Test;
+
+/**
+ * Tests for the primitive per-segment address structures used by {@link StreamLogFiles}.
+ */
+public class SegmentAddressSpaceTest extends AbstractCorfuTest {
+
+    private static final int SEGMENT_SIZE = StreamLogFiles.RECORDS_PER_LOG_FILE;
+    private static final long BASE = SEGMENT_SIZE * 2L;
+    private static final int LENGTH = 100;
+    private static final int BYTES_PER_KB = 1024;
+
+    @Test
+    public void addressesAreRelativeToSegment() {
+        SegmentAddressSpace addresses = new SegmentAddressSpace(BASE, SEGMENT_SIZE);
+
+        addresses.put(BASE, new AddressMetaData(1, LENGTH, LENGTH));
+        addresses.put(BASE + SEGMENT_SIZE - 1, new AddressMetaData(2, LENGTH, LENGTH * 2));
+
+        assertThat(addresses.size()).isEqualTo(2);
+        assertThat(addresses.containsKey(BASE)).isTrue();
+        assertThat(addresses.containsKey(BASE + 1)).isFalse();
+        assertThat(addresses.get(BASE + 1)).isNull();
+        assertThat(addresses.get(BASE - 1)).isNull();
+        assertThat(addresses.get(BASE + SEGMENT_SIZE)).isNull();
+        assertThat(addresses.get(BASE + SEGMENT_SIZE - 1).offset).isEqualTo(LENGTH * 2);
+
+        assertThatThrownBy(() -> addresses.put(BASE + SEGMENT_SIZE, new AddressMetaData(0, 0, 0)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void rewrittenAddressIsCountedOnce() {
+        SegmentAddressSpace addresses = new SegmentAddressSpace(BASE, SEGMENT_SIZE);
+
+        addresses.put(BASE, new AddressMetaData(1, LENGTH, LENGTH));
+        addresses.put(BASE, new AddressMetaData(2, LENGTH + 1, LENGTH * 2));
+
+        assertThat(addresses.size()).isEqualTo(1);
+        AddressMetaData metaData = addresses.get(BASE);
+        assertThat(metaData.checksum).isEqualTo(2);
+        assertThat(metaData.length).isEqualTo(LENGTH + 1);
+        assertThat(metaData.offset).isEqualTo(LENGTH * 2);
+    }
+
+    @Test
+    public void addressSetTracksMembership() {
+        SegmentAddressSet set = new SegmentAddressSet(BASE, SEGMENT_SIZE);
+
+        assertThat(set.add(BASE)).isTrue();
+        assertThat(set.add(BASE)).isFalse();
+        assertThat(set.add(BASE + Long.SIZE)).isTrue();
+        assertThat(set.add(BASE + SEGMENT_SIZE - 1)).isTrue();
+
+        assertThat(set.size()).isEqualTo(2 + 1);
+        assertThat(set.contains(BASE + 1)).isFalse();
+        assertThat(set.contains(BASE + Long.SIZE)).isTrue();
+        assertThat(set.contains(BASE + SEGMENT_SIZE)).isFalse();
+
+        List<Long> members = new ArrayList<>();
+        set.forEach(members::add);
+        assertThat(members).containsExactly(BASE, BASE + Long.SIZE, BASE + SEGMENT_SIZE - 1);
+    }
+
+    /**
+     * The heap measured around System.gc() depends on the collector, so it is only reported.
+     */
+    @Test
+    public void reportHeapUsePerSegment() {
+        final int segments = PARAMETERS.CONCURRENCY_SOME * 2;
+        List<Object> retained = new ArrayList<>();
+
+        long before = usedHeap();
+        for (int x = 0; x < segments; x++) {
+            SegmentAddressSpace addresses = new SegmentAddressSpace(BASE, SEGMENT_SIZE);
+            SegmentAddressSet trimmed = new SegmentAddressSet(BASE, SEGMENT_SIZE);
+            SegmentAddressSet pending = new SegmentAddressSet(BASE, SEGMENT_SIZE);
+            for (long address = BASE; address < BASE + SEGMENT_SIZE; address++) {
+                addresses.put(address, new AddressMetaData(0, LENGTH, address * LENGTH));
+                trimmed.add(address);
+                pending.add(address);
+            }
+            retained.add(addresses);
+            retained.add(trimmed);
+            retained.add(pending);
+        }
+        long perSegment = (usedHeap() - before) / segments;
+        retained.clear();
+
+        // The boxed layout this replaced, for comparison
+        before = usedHeap();
+        for (int x = 0; x < segments; x++) {
+            Map<Long, AddressMetaData> addresses = new ConcurrentHashMap<>();
+            for (long address = BASE; address < BASE + SEGMENT_SIZE; address++) {
+                addresses.put(address, new AddressMetaData(0, LENGTH, address * LENGTH));
+            }
+            retained.add(addresses);
+        }
+        long boxedPerSegment = (usedHeap() - before) / segments;
+        retained.clear();
+
+        testStatus += "HeapPerSegment=" + perSegment / BYTES_PER_KB + "KB;"
+                + "BoxedHeapPerSegment=" + boxedPerSegment / BYTES_PER_KB + "KB";
+    }
+
+    private static long usedHeap() {
+        final int gcRounds = 3;
+        Runtime runtime = Runtime.getRuntime();
+        for (int x = 0; x < gcRounds; x++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
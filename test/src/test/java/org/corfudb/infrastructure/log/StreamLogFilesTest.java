@@ -4,11 +4,20 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.corfudb.infrastructure.log.StreamLogFiles.METADATA_SIZE;
 
+import com.codahale.metrics.Counter;
 import io.netty.buffer.ByteBuf;
 
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
 
 import io.netty.buffer.Unpooled;
 import org.corfudb.AbstractCorfuTest;
@@ -16,6 +25,7 @@ import org.corfudb.format.Types.Metadata;
 import org.corfudb.infrastructure.ServerContext;
 import org.corfudb.infrastructure.ServerContextBuilder;
 import org.corfudb.protocols.wireprotocol.DataType;
+import org.corfudb.protocols.wireprotocol.IMetadata;
 import org.corfudb.protocols.wireprotocol.LogData;
 import org.corfudb.runtime.exceptions.DataCorruptionException;
 import org.corfudb.runtime.exceptions.OverwriteException;
@@ -64,6 +74,112 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         assertThat(log.read(address0).getPayload(null)).isEqualTo(streamEntry);
     }
 
+    @Test
+    @SuppressWarnings("checkstyle:magicnumber")
+    public void batchAppendAcrossSegments() {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        final long secondSegment = StreamLogFiles.RECORDS_PER_LOG_FILE;
+        final long existing = 2L;
+        writeToLog(log, existing);
+
+        List<Map.Entry<LogAddress, LogData>> batch = new ArrayList<>();
+        for (long address : new long[]{0L, secondSegment, 1L, existing, secondSegment + 1, 1L}) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(("Payload" + address).getBytes(), b);
+            batch.add(new AbstractMap.SimpleImmutableEntry<>(new LogAddress(address, null),
+                    new LogData(DataType.DATA, b)));
+        }
+
+        List<Exception> results = log.append(batch);
+
+        // The rewrites of an existing address and of an address earlier in the batch fail on their own
+        assertThat(results).hasSize(batch.size());
+        assertThat(results.get(0)).isNull();
+        assertThat(results.get(1)).isNull();
+        assertThat(results.get(2)).isNull();
+        assertThat(results.get(3)).isInstanceOf(OverwriteException.class);
+        assertThat(results.get(4)).isNull();
+        assertThat(results.get(batch.size() - 1)).isInstanceOf(OverwriteException.class);
+
+        for (long address : new long[]{0L, 1L, secondSegment, secondSegment + 1}) {
+            assertThat(log.read(new LogAddress(address, null)).getPayload(null))
+                    .isEqualTo(("Payload" + address).getBytes());
+        }
+        log.close();
+
+        // The records are found again when the segments are scanned
+        StreamLogFiles reopened = new StreamLogFiles(getContext(), false);
+        for (long address : new long[]{0L, 1L, existing, secondSegment, secondSegment + 1}) {
+            assertThat(reopened.read(new LogAddress(address, null))).isNotNull();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("checkstyle:magicnumber")
+    public void batchAppendMixesGlobalAndStreamAddresses() {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        UUID streamA = UUID.nameUUIDFromBytes("stream A".getBytes());
+        UUID streamB = UUID.nameUUIDFromBytes("stream B".getBytes());
+        List<LogAddress> addresses = Arrays.asList(new LogAddress(5L, null), new LogAddress(5L, streamA),
+                new LogAddress(6L, streamB), new LogAddress(6L, null), new LogAddress(5L, streamA));
+
+        List<Map.Entry<LogAddress, LogData>> batch = new ArrayList<>();
+        for (LogAddress address : addresses) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(("Payload" + address).getBytes(), b);
+            batch.add(new AbstractMap.SimpleImmutableEntry<>(address, new LogData(DataType.DATA, b)));
+        }
+
+        // Each address is written to the segment of its own stream, only the rewrite fails
+        List<Exception> results = log.append(batch);
+        for (int x = 0; x < batch.size() - 1; x++) {
+            assertThat(results.get(x)).isNull();
+        }
+        assertThat(results.get(batch.size() - 1)).isInstanceOf(OverwriteException.class);
+
+        for (LogAddress address : addresses) {
+            assertThat(log.read(address).getPayload(null)).isEqualTo(("Payload" + address).getBytes());
+        }
+        assertThat(log.read(new LogAddress(6L, streamA))).isNull();
+        assertThat(log.read(new LogAddress(5L, streamB))).isNull();
+    }
+
+    @Test
+    public void bulkReadMatchesSingleReads() {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        final long secondSegment = StreamLogFiles.RECORDS_PER_LOG_FILE;
+        final int entries = PARAMETERS.NUM_ITERATIONS_LOW;
+        final long unwritten = entries;
+        final long trimmed = 0L;
+
+        List<LogAddress> addresses = new ArrayList<>();
+        for (long x = 0; x < entries; x++) {
+            // Leave gaps in the second segment
+            for (long address : new long[]{x, secondSegment + x * 2}) {
+                ByteBuf b = Unpooled.buffer();
+                Serializers.CORFU.serialize(("Payload" + address).getBytes(), b);
+                log.append(new LogAddress(address, null), new LogData(DataType.DATA, b));
+                addresses.add(new LogAddress(address, null));
+            }
+        }
+        addresses.add(new LogAddress(unwritten, null));
+        Collections.shuffle(addresses, new Random(PARAMETERS.SEED));
+
+        Map<LogAddress, LogData> read = log.read(addresses);
+        assertThat(read).hasSize(addresses.size() - 1);
+        assertThat(read).doesNotContainKey(new LogAddress(unwritten, null));
+        for (LogAddress address : addresses) {
+            if (address.getAddress() != unwritten) {
+                assertThat(read.get(address).getPayload(null))
+                        .isEqualTo(log.read(address).getPayload(null));
+            }
+        }
+
+        log.trim(new LogAddress(trimmed, null));
+        assertThatThrownBy(() -> log.read(addresses))
+                .hasCauseInstanceOf(TrimmedException.class);
+    }
+
     @Test
     public void testOverwriteException() {
         StreamLog log = new StreamLogFiles(getContext(), false);
@@ -185,6 +301,226 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         }
     }
 
+    @Test
+    public void multiThreadedReadsFromSharedChannel() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+
+        final int num_threads = PARAMETERS.CONCURRENCY_SOME;
+        final int num_entries = PARAMETERS.NUM_ITERATIONS_LOW;
+
+        // Write a distinct payload per address, so that a read served from the
+        // wrong file position is detected
+        for (long x = 0; x < num_entries; x++) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(("Payload" + x).getBytes(), b);
+            log.append(new LogAddress(x, null), new LogData(DataType.DATA, b));
+        }
+
+        scheduleConcurrently(num_threads, threadNumber -> {
+            for (long x = 0; x < num_entries; x++) {
+                LogData data = log.read(new LogAddress(x, null));
+                assertThat((byte[]) data.getPayload(null)).isEqualTo(("Payload" + x).getBytes());
+            }
+        });
+
+        executeScheduled(num_threads, PARAMETERS.TIMEOUT_LONG);
+    }
+
+    @Test
+    public void readsFromMappedSealedSegment() throws Exception {
+        ServerContext context = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setMaxMappedBytes(Long.toString(Long.MAX_VALUE))
+                .build();
+        StreamLogFiles log = new StreamLogFiles(context, false);
+
+        // Fill the first segment and start the next one, which seals the first segment
+        for (long x = 0; x <= StreamLogFiles.RECORDS_PER_LOG_FILE; x++) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(("Payload" + x).getBytes(), b);
+            log.append(new LogAddress(x, null), new LogData(DataType.DATA, b));
+        }
+
+        for (long x = 0; x <= StreamLogFiles.RECORDS_PER_LOG_FILE; x++) {
+            LogData data = log.read(new LogAddress(x, null));
+            assertThat((byte[]) data.getPayload(null)).isEqualTo(("Payload" + x).getBytes());
+        }
+
+        log.close();
+    }
+
+    @Test
+    public void movesSealedSegmentsToColdTier() throws Exception {
+        final String coldPath = getDirPath() + File.separator + "cold";
+        ServerContext context = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setColdLogPath(coldPath)
+                .setColdSegmentAge("1")
+                .build();
+        StreamLogFiles log = new StreamLogFiles(context, false);
+        final long segments = 2;
+        final long tail = segments * StreamLogFiles.RECORDS_PER_LOG_FILE;
+        final LogAddress trimmed = new LogAddress(1L, null);
+        final LogAddress trimmedWhenCold = new LogAddress(2L, null);
+
+        // Fill two segments and start the tail segment, which seals both of them
+        for (long x = 0; x <= tail; x++) {
+            ByteBuf b = Unpooled.buffer();
+            Serializers.CORFU.serialize(("Payload" + x).getBytes(), b);
+            log.append(new LogAddress(x, null), new LogData(DataType.DATA, b));
+        }
+        log.trim(trimmed);
+
+        String segmentFile = log.getSegmentHandleForAddress(new LogAddress(0L, null)).getFileName();
+        long bytesSaved = ServerContext.getMetrics().counter("corfu.server.logunit.cold.bytes-saved").getCount();
+        log.migrateColdSegments();
+
+        // Only the segments old enough were moved, and they compressed
+        assertThat(new File(segmentFile)).doesNotExist();
+        assertThat(new File(coldPath + File.separator + "log" + File.separator + "0.cold")).exists();
+        assertThat(new File(coldPath + File.separator + "log" + File.separator + "1.cold")).exists();
+        assertThat(new File(coldPath + File.separator + "log" + File.separator + "2.cold")).doesNotExist();
+        assertThat(ServerContext.getMetrics().counter("corfu.server.logunit.cold.bytes-saved").getCount())
+                .isGreaterThan(bytesSaved);
+
+        log.trim(trimmedWhenCold);
+        for (StreamLogFiles reading : new StreamLogFiles[]{log, new StreamLogFiles(context, false)}) {
+            List<LogAddress> addresses = new ArrayList<>();
+            for (long x = 0; x <= tail; x++) {
+                LogAddress address = new LogAddress(x, null);
+                if (address.equals(trimmed) || address.equals(trimmedWhenCold)) {
+                    assertThatThrownBy(() -> reading.read(address))
+                            .hasCauseInstanceOf(TrimmedException.class);
+                    continue;
+                }
+                assertThat((byte[]) reading.read(address).getPayload(null)).isEqualTo(("Payload" + x).getBytes());
+                addresses.add(address);
+            }
+
+            Collections.shuffle(addresses, new Random(PARAMETERS.SEED));
+            Map<LogAddress, LogData> read = reading.read(addresses);
+            assertThat(read).hasSize(addresses.size());
+            for (LogAddress address : addresses) {
+                assertThat((byte[]) read.get(address).getPayload(null))
+                        .isEqualTo(("Payload" + address.getAddress()).getBytes());
+            }
+
+            // Cold segments are never rewritten
+            assertThatThrownBy(() -> writeToLog(reading, 0L))
+                    .isInstanceOf(OverwriteException.class);
+            reading.close();
+        }
+    }
+
+    @Test
+    public void testSegmentIndex() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        LogAddress logAddress = new LogAddress(0L, null);
+
+        for (long x = 0; x < StreamLogFiles.RECORDS_PER_LOG_FILE; x++) {
+            writeToLog(log, x);
+        }
+
+        // Filling the segment writes its index
+        String segmentFile = log.getSegmentHandleForAddress(logAddress).getFileName();
+        File indexFile = new File(StreamLogFiles.getSegmentIndexFilePath(segmentFile));
+        assertThat(indexFile).exists();
+        log.close();
+
+        // Re-open the segment from the index
+        log = new StreamLogFiles(getContext(), false);
+        StreamLogFiles.SegmentHandle sh = log.getSegmentHandleForAddress(logAddress);
+        assertThat(sh.getKnownAddresses().size()).isEqualTo(StreamLogFiles.RECORDS_PER_LOG_FILE);
+        for (long x = 0; x < StreamLogFiles.RECORDS_PER_LOG_FILE; x++) {
+            assertThat(log.read(new LogAddress(x, null))).isNotNull();
+        }
+        log.close();
+
+        // Corrupt the index, the segment should be scanned instead
+        final int corruptOffset = METADATA_SIZE + 1;
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        file.seek(corruptOffset);
+        file.writeInt(-1);
+        file.close();
+
+        log = new StreamLogFiles(getContext(), false);
+        sh = log.getSegmentHandleForAddress(logAddress);
+        assertThat(sh.getKnownAddresses().size()).isEqualTo(StreamLogFiles.RECORDS_PER_LOG_FILE);
+        for (long x = 0; x < StreamLogFiles.RECORDS_PER_LOG_FILE; x++) {
+            assertThat(log.read(new LogAddress(x, null))).isNotNull();
+        }
+    }
+
+    @Test
+    public void segmentIndexIsWrittenOnceFull() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        LogAddress logAddress = new LogAddress(0L, null);
+
+        for (long x = 0; x < StreamLogFiles.RECORDS_PER_LOG_FILE; x++) {
+            writeRankedToLog(log, x, "First", 1L);
+        }
+        String segmentFile = log.getSegmentHandleForAddress(logAddress).getFileName();
+        File indexFile = new File(StreamLogFiles.getSegmentIndexFilePath(segmentFile));
+        assertThat(indexFile).exists();
+        assertThat(indexFile.delete()).isTrue();
+
+        // Rewriting an entry of the full segment doesn't index it again
+        writeRankedToLog(log, 0L, "Second", 2L);
+        assertThat(indexFile).doesNotExist();
+        log.close();
+
+        // The segment is scanned and re-indexed when it is opened again
+        log = new StreamLogFiles(getContext(), false);
+        assertThat(log.read(logAddress).getPayload(null)).isEqualTo("Second".getBytes());
+        assertThat(indexFile).exists();
+        log.close();
+    }
+
+    @Test
+    public void openSegmentsAreBounded() throws Exception {
+        final int maxOpenSegments = 2;
+        final int segments = maxOpenSegments * 2 + 1;
+        ServerContext context = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setMaxOpenSegments(Integer.toString(maxOpenSegments))
+                .build();
+        StreamLogFiles log = new StreamLogFiles(context, false);
+
+        for (long x = 0; x < segments; x++) {
+            writeToLog(log, x * StreamLogFiles.RECORDS_PER_LOG_FILE);
+        }
+        LogAddress tail = new LogAddress((segments - 1L) * StreamLogFiles.RECORDS_PER_LOG_FILE, null);
+        StreamLogFiles.SegmentHandle tailHandle = log.getSegmentHandleForAddress(tail);
+
+        // Touch every segment other than the tail, again and again
+        for (int round = 0; round < maxOpenSegments; round++) {
+            for (long x = 0; x < segments - 1; x++) {
+                LogAddress address = new LogAddress(x * StreamLogFiles.RECORDS_PER_LOG_FILE, null);
+                assertThat(log.read(address)).isNotNull();
+            }
+        }
+
+        // Evicted segments are reopened on demand, and the tail segment stays open
+        log.getOpenSegments().cleanUp();
+        assertThat(log.getOpenSegments().estimatedSize()).isLessThanOrEqualTo(maxOpenSegments + 1);
+        assertThat(log.getSegmentHandleForAddress(tail)).isSameAs(tailHandle);
+        assertThat(tailHandle.isEvicted()).isFalse();
+
+        // Writes to an evicted segment go through a reopened handle
+        writeToLog(log, 1L);
+        assertThat(log.read(new LogAddress(1L, null))).isNotNull();
+        log.close();
+
+        log = new StreamLogFiles(context, false);
+        for (long x = 0; x < segments; x++) {
+            assertThat(log.read(new LogAddress(x * StreamLogFiles.RECORDS_PER_LOG_FILE, null))).isNotNull();
+        }
+        assertThat(log.read(new LogAddress(1L, null))).isNotNull();
+    }
+
     @Test
     @SuppressWarnings("checkstyle:magicnumber")
     public void testSync() throws Exception {
@@ -244,6 +580,14 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
                 .hasCauseInstanceOf(TrimmedException.class);
     }
 
+    private void writeRankedToLog(StreamLog log, long addr, String payload, long rank) {
+        ByteBuf b = Unpooled.buffer();
+        Serializers.CORFU.serialize(payload.getBytes(), b);
+        LogData data = new LogData(DataType.DATA, b);
+        data.setRank(new IMetadata.DataRank(rank));
+        log.append(new LogAddress(addr, null), data);
+    }
+
     private void writeToLog(StreamLog log, Long addr) {
         ByteBuf b = Unpooled.buffer();
         byte[] streamEntry = "Payload".getBytes();
@@ -312,6 +656,151 @@ public class StreamLogFilesTest extends AbstractCorfuTest {
         }
     }
 
+    @Test
+    public void compactsAcrossSegmentsAtLimitedRate() throws Exception {
+        final long compactionRate = 128 * 1024;
+        final double nanosPerSecond = 1e9;
+        ServerContext context = new ServerContextBuilder()
+                .setLogPath(getDirPath())
+                .setMemory(false)
+                .setCompactionRate(Long.toString(compactionRate))
+                .build();
+        StreamLogFiles log = new StreamLogFiles(context, false);
+        final long segments = 3;
+        final int trimmedPerSegment = StreamLogFiles.RECORDS_PER_LOG_FILE / 2;
+
+        // Fill the segments, and trim the first half of every segment but the first one
+        for (long x = 0; x < segments * StreamLogFiles.RECORDS_PER_LOG_FILE; x++) {
+            writeToLog(log, x);
+        }
+        for (long segment = 1; segment < segments; segment++) {
+            for (long x = 0; x < trimmedPerSegment; x++) {
+                log.trim(new LogAddress(segment * StreamLogFiles.RECORDS_PER_LOG_FILE + x, null));
+            }
+        }
+
+        // The compaction metrics are shared with the servers of other tests, so the copied
+        // bytes are measured on the segment files instead
+        List<File> trimmedFiles = new ArrayList<>();
+        for (long segment = 1; segment < segments; segment++) {
+            LogAddress first = new LogAddress(segment * StreamLogFiles.RECORDS_PER_LOG_FILE, null);
+            trimmedFiles.add(new File(log.getSegmentHandleForAddress(first).getFileName()));
+        }
+        long[] sizes = trimmedFiles.stream().mapToLong(File::length).toArray();
+
+        long start = System.nanoTime();
+        log.compact();
+        double elapsed = (System.nanoTime() - start) / nanosPerSecond;
+
+        // Both trimmed segments were compacted, no faster than the rate limit allows once
+        // the burst of up to a second of copying the idle limiter saved up is spent
+        long copied = 0;
+        for (int x = 0; x < trimmedFiles.size(); x++) {
+            assertThat(trimmedFiles.get(x).length()).isLessThan(sizes[x]);
+            copied += trimmedFiles.get(x).length();
+        }
+        assertThat(elapsed).isGreaterThanOrEqualTo((copied - compactionRate) / 2.0 / compactionRate);
+
+        for (long segment = 0; segment < segments; segment++) {
+            LogAddress first = new LogAddress(segment * StreamLogFiles.RECORDS_PER_LOG_FILE, null);
+            StreamLogFiles.SegmentHandle sh = log.getSegmentHandleForAddress(first);
+            int trimmed = segment == 0 ? 0 : trimmedPerSegment;
+            assertThat(sh.getTrimmedAddresses().size()).isEqualTo(trimmed);
+            assertThat(sh.getKnownAddresses().size()).isEqualTo(StreamLogFiles.RECORDS_PER_LOG_FILE - trimmed);
+            assertThat(new File(StreamLogFiles.getSegmentIndexFilePath(sh.getFileName()))).exists();
+
+            for (long x = 0; x < StreamLogFiles.RECORDS_PER_LOG_FILE; x++) {
+                LogAddress address = new LogAddress(first.getAddress() + x, null);
+                if (x < trimmed) {
+                    assertThatThrownBy(() -> log.read(address))
+                            .hasCauseInstanceOf(TrimmedException.class);
+                } else {
+                    assertThat(log.read(address).getPayload(null)).isEqualTo("Payload".getBytes());
+                }
+            }
+        }
+        log.close();
+    }
+
+    @Test
+    public void compactionOnlyOpensSegmentsWithPendingTrims() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        final long segments = 3;
+        for (long x = 0; x < segments * StreamLogFiles.RECORDS_PER_LOG_FILE; x++) {
+            writeToLog(log, x);
+        }
+        for (long x = 0; x < StreamLogFiles.TRIM_THRESHOLD; x++) {
+            log.trim(new LogAddress(StreamLogFiles.RECORDS_PER_LOG_FILE + x, null));
+        }
+        log.getOpenSegments().invalidateAll();
+
+        Counter compactedSegments = ServerContext.getMetrics().counter("corfu.server.logunit.compaction.segments");
+        long compacted = compactedSegments.getCount();
+        log.compact();
+
+        // Only the trimmed segment was opened, and it is reopened on demand once compacted
+        assertThat(compactedSegments.getCount()).isEqualTo(compacted + 1);
+        log.getOpenSegments().cleanUp();
+        assertThat(log.getOpenSegments().estimatedSize()).isZero();
+
+        // Once its trims are compacted, no segment is opened again
+        log.compact();
+        assertThat(compactedSegments.getCount()).isEqualTo(compacted + 1);
+        log.getOpenSegments().cleanUp();
+        assertThat(log.getOpenSegments().estimatedSize()).isZero();
+        log.close();
+    }
+
+    @Test
+    public void prefixTrimDeletesSegmentsBelowTheMark() throws Exception {
+        StreamLogFiles log = new StreamLogFiles(getContext(), false);
+        final long segments = 3;
+        for (long x = 0; x < segments * StreamLogFiles.RECORDS_PER_LOG_FILE; x++) {
+            writeToLog(log, x);
+        }
+
+        // Trim the first segment and half of the second one
+        final long lastTrimmed = StreamLogFiles.RECORDS_PER_LOG_FILE + StreamLogFiles.RECORDS_PER_LOG_FILE / 2;
+        log.prefixTrim(lastTrimmed);
+        assertThat(log.getTrimMark()).isEqualTo(lastTrimmed + 1);
+
+        // Only the segment entirely below the mark is deleted, with its sidecars
+        String logDir = getDirPath() + File.separator + "log" + File.separator;
+        assertThat(new File(logDir + "0.log")).doesNotExist();
+        assertThat(new File(StreamLogFiles.getSegmentIndexFilePath(logDir + "0.log"))).doesNotExist();
+        assertThat(new File(logDir + "1.log")).exists();
+        assertThat(new File(logDir + "2.log")).exists();
+
+        // Trimming below the mark again doesn't move it back
+        log.prefixTrim(0);
+        assertThat(log.getTrimMark()).isEqualTo(lastTrimmed + 1);
+        log.close();
+
+        // The mark survives a restart
+        StreamLogFiles reopened = new StreamLogFiles(getContext(), false);
+        assertThat(reopened.getTrimMark()).isEqualTo(lastTrimmed + 1);
+        for (long x = 0; x < segments * StreamLogFiles.RECORDS_PER_LOG_FILE; x++) {
+            LogAddress address = new LogAddress(x, null);
+            if (x <= lastTrimmed) {
+                assertThatThrownBy(() -> reopened.read(address))
+                        .hasCauseInstanceOf(TrimmedException.class);
+                final long trimmed = x;
+                assertThatThrownBy(() -> writeToLog(reopened, trimmed))
+                        .isInstanceOf(OverwriteException.class);
+            } else {
+                assertThat(reopened.read(address).getPayload(null)).isEqualTo("Payload".getBytes());
+            }
+        }
+        assertThat(new File(logDir + "0.log")).doesNotExist();
+
+        // A deleted segment is never opened again, even by a caller which passed the
+        // trim mark check before the segment was deleted
+        assertThatThrownBy(() -> reopened.getSegmentHandleForAddress(new LogAddress(0L, null)))
+                .isInstanceOf(TrimmedException.class);
+        assertThat(new File(logDir + "0.log")).doesNotExist();
+        reopened.close();
+    }
+
     @Test
     public void testWritingFileHeader() throws Exception {
         StreamLogFiles log = new StreamLogFiles(getContext(), false);
@@ -1,5 +1,6 @@
 package org.corfudb.runtime.clients;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Range;
@@ -24,6 +25,7 @@ import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
@@ -83,6 +85,53 @@ public class LogUnitClientTest extends AbstractClientTest {
                 .isEqualTo(testString);
     }
 
+    @Test
+    public void canReadMultipleAddresses()
+            throws Exception {
+        // Sparse addresses, which span several segments
+        final long farAddress = StreamLogFiles.RECORDS_PER_LOG_FILE * 2 + 1;
+        final long unwrittenAddress = StreamLogFiles.RECORDS_PER_LOG_FILE;
+        final Set<Long> written = ImmutableSet.of(0L, 1L, farAddress);
+        for (long address : written) {
+            client.write(address, Collections.<UUID>emptySet(), null,
+                    Long.toString(address).getBytes(), Collections.emptyMap()).get();
+        }
+
+        Map<Long, LogData> readSet = client.read(ImmutableList.of(farAddress, unwrittenAddress, 1L, 0L))
+                .get().getReadSet();
+        assertThat(readSet).hasSize(written.size() + 1);
+        for (long address : written) {
+            assertThat(readSet.get(address).getType())
+                    .isEqualTo(DataType.DATA);
+            assertThat(readSet.get(address).getPayload(new CorfuRuntime()))
+                    .isEqualTo(Long.toString(address).getBytes());
+        }
+        assertThat(readSet.get(unwrittenAddress).getType())
+                .isEqualTo(DataType.EMPTY);
+    }
+
+    @Test
+    public void readsBelowPrefixTrimAreRejected()
+            throws Exception {
+        final long lastTrimmed = StreamLogFiles.RECORDS_PER_LOG_FILE;
+        final long kept = lastTrimmed + 1;
+        for (long address : ImmutableList.of(0L, lastTrimmed, kept)) {
+            client.write(address, Collections.<UUID>emptySet(), null,
+                    Long.toString(address).getBytes(), Collections.emptyMap()).get();
+        }
+        // Cache the entry, so the trim has to drop it from the cache too
+        client.read(0).get();
+
+        assertThat(client.prefixTrim(lastTrimmed).get()).isTrue();
+
+        assertThatThrownBy(() -> client.read(0).get())
+                .hasMessageContaining("Trimmed");
+        assertThatThrownBy(() -> client.read(ImmutableList.of(lastTrimmed, kept)).get())
+                .hasMessageContaining("Trimmed");
+        assertThat(client.read(kept).get().getReadSet().get(kept).getPayload(new CorfuRuntime()))
+                .isEqualTo(Long.toString(kept).getBytes());
+    }
+
     @Test
     public void canReadWriteRanked()
             throws Exception {
@@ -273,7 +322,7 @@ public class LogUnitClientTest extends AbstractClientTest {
 
         // Try to read a corrupted log entry
         assertThatThrownBy(() -> client.read(0).get())
-                .isInstanceOf(RuntimeException.class)
+                .isInstanceOf(ExecutionException.class)
                 .hasCauseInstanceOf(DataCorruptionException.class);
     }
 }
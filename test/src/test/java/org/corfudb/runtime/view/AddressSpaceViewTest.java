@@ -7,12 +7,17 @@ import org.corfudb.infrastructure.LogUnitServerAssertions;
 import org.corfudb.infrastructure.TestLayoutBuilder;
 import org.corfudb.protocols.wireprotocol.*;
 import org.corfudb.runtime.CorfuRuntime;
+import org.corfudb.runtime.clients.TestRule;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -141,4 +146,66 @@ public class AddressSpaceViewTest extends AbstractViewTest {
         assertThat(m.get(ADDRESS_2).getPayload(getRuntime()))
                 .isEqualTo("3".getBytes());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void readAllSendsOneRequestPerLogUnit()
+            throws Exception {
+        addServer(SERVERS.PORT_0);
+        addServer(SERVERS.PORT_1);
+        addServer(SERVERS.PORT_2);
+
+        bootstrapAllServers(new TestLayoutBuilder()
+                .setEpoch(1L)
+                .addLayoutServer(SERVERS.PORT_0)
+                .addSequencer(SERVERS.PORT_0)
+                .buildSegment()
+                .buildStripe()
+                .addLogUnit(SERVERS.PORT_0)
+                .addToSegment()
+                .buildStripe()
+                .addLogUnit(SERVERS.PORT_1)
+                .addToSegment()
+                .buildStripe()
+                .addLogUnit(SERVERS.PORT_2)
+                .addToSegment()
+                .addToLayout()
+                .build());
+
+        CorfuRuntime r = getRuntime().connect();
+        final long epoch = r.getLayoutView().getLayout().getEpoch();
+
+        // A sparse set of addresses, striped across all the log units
+        final List<Long> addresses = new ArrayList<>();
+        for (long address = 0; address < PARAMETERS.NUM_ITERATIONS_LOW; address += 2) {
+            r.getAddressSpaceView().write(new Token(address, epoch), Long.toString(address).getBytes());
+            addresses.add(address);
+        }
+        r.getAddressSpaceView().resetCaches();
+
+        final Map<String, AtomicInteger> multipleReads = new ConcurrentHashMap<>();
+        final AtomicInteger singleReads = new AtomicInteger();
+        for (String endpoint : new String[]{SERVERS.ENDPOINT_0, SERVERS.ENDPOINT_1, SERVERS.ENDPOINT_2}) {
+            multipleReads.put(endpoint, new AtomicInteger());
+            addClientRule(r, endpoint, new TestRule().matches(m -> {
+                if (m.getMsgType() == CorfuMsgType.MULTIPLE_READ_REQUEST) {
+                    multipleReads.get(endpoint).incrementAndGet();
+                } else if (m.getMsgType() == CorfuMsgType.READ_REQUEST) {
+                    singleReads.incrementAndGet();
+                }
+                return false;
+            }));
+        }
+
+        Map<Long, ILogData> m = r.getAddressSpaceView().read(addresses);
+
+        assertThat(m.keySet()).containsOnlyElementsOf(addresses);
+        for (long address : addresses) {
+            assertThat(m.get(address).getPayload(getRuntime()))
+                    .isEqualTo(Long.toString(address).getBytes());
+        }
+        for (AtomicInteger requests : multipleReads.values()) {
+            assertThat(requests.get()).isEqualTo(1);
+        }
+        assertThat(singleReads.get()).isZero();
+    }
+}
@@ -509,7 +509,8 @@ public class ManagementViewTest extends AbstractViewTest {
         // now, the tail of the log is at nUpdates;
         // kill the sequencer, wait for a failover,
         // and then resume the transaction above; it should abort
-        // (unnecessarily, but we are being conservative)
+        // (unnecessarily, but the new sequencer only recovers the tail of
+        // the stream, so it must assume every key was updated since)
         //
         induceSequencerFailureAndWait();
         t(0, () -> {
@@ -582,7 +583,8 @@ public class ManagementViewTest extends AbstractViewTest {
         // now, the tail of the log is at nUpdates;
         // kill the sequencer, wait for a failover,
         // and then resume the transaction above; it should abort
-        // (unnecessarily, but we are being conservative)
+        // (unnecessarily, but the new sequencer only recovers the tail of
+        // the stream, so it must assume every key was updated since)
         //
         induceSequencerFailureAndWait();
 
@@ -628,17 +630,17 @@ public class ManagementViewTest extends AbstractViewTest {
     /**
      * When a stream is seen for the first time by the sequencer it returns a -1
      * in the backpointer map.
-     * After failover, the new sequencer returns a null in the backpointer map
-     * forcing it to single step backwards and get the last backpointer for the
-     * given stream.
+     * After failover, the new sequencer is recovered with the tails of the
+     * streams written in the log, so it keeps returning backpointers.
      * An example is shown below:
      * <p>
      * Index  :  0  1  2  3  |          | 4  5  6  7  8
      * Stream :  A  B  A  B  | failover | A  C  A  B  B
-     * B.P    : -1 -1  0  1  |          | X  X  4  X  7
+     * B.P    : -1 -1  0  1  |          | 2 -1  4  3  7
      * <p>
-     * -1 : New StreamID so empty backpointers
-     *  X : (null) Unknown backpointers as this is a failed-over sequencer.
+     * -1 : New StreamID so empty backpointers. The recovery covers every address
+     *      past the tail the new sequencer knows of, so C, which is in neither,
+     *      was never written.
      * <p>
      * @throws Exception
      */
@@ -650,6 +652,8 @@ public class ManagementViewTest extends AbstractViewTest {
         UUID streamB = UUID.nameUUIDFromBytes("stream B".getBytes());
         UUID streamC = UUID.nameUUIDFromBytes("stream C".getBytes());
 
+        final long streamA_recovered_backpointer = 2L;
+        final long streamB_recovered_backpointer = 3L;
         final long streamA_backpointer = 4L;
         final long streamB_backpointer = 7L;
 
@@ -660,10 +664,10 @@ public class ManagementViewTest extends AbstractViewTest {
 
         induceSequencerFailureAndWait();
 
-        getTokenWriteAndAssertBackPointer(streamA, Address.NO_BACKPOINTER);
-        getTokenWriteAndAssertBackPointer(streamC, Address.NO_BACKPOINTER);
+        getTokenWriteAndAssertBackPointer(streamA, streamA_recovered_backpointer);
+        getTokenWriteAndAssertBackPointer(streamC, Address.NON_EXIST);
         getTokenWriteAndAssertBackPointer(streamA, streamA_backpointer);
-        getTokenWriteAndAssertBackPointer(streamB, Address.NO_BACKPOINTER);
+        getTokenWriteAndAssertBackPointer(streamB, streamB_recovered_backpointer);
         getTokenWriteAndAssertBackPointer(streamB, streamB_backpointer);
     }
 
@@ -1,14 +1,28 @@
 package org.corfudb.runtime.view;
 
 import lombok.Getter;
+import org.corfudb.protocols.wireprotocol.CorfuMsgType;
+import org.corfudb.protocols.wireprotocol.CorfuPayloadMsg;
+import org.corfudb.protocols.wireprotocol.MultipleTokenResponse;
 import org.corfudb.protocols.wireprotocol.Token;
+import org.corfudb.protocols.wireprotocol.TokenResponse;
 import org.corfudb.runtime.CorfuRuntime;
+import org.corfudb.runtime.clients.TestRule;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * Created by mwei on 12/23/15.
@@ -80,4 +94,91 @@ public class SequencerViewTest extends AbstractViewTest {
         assertThat(r.getSequencerView().nextToken(Collections.singleton(streamB), 1).getBackpointerMap())
                 .containsEntry(streamB, 1L);
     }
+
+    @Test
+    public void concurrentTokensAreDistinct() throws Exception {
+        CorfuRuntime r = getDefaultRuntime();
+        UUID streamA = UUID.nameUUIDFromBytes("stream A".getBytes());
+        Set<Long> tokens = ConcurrentHashMap.newKeySet();
+        Set<Long> backpointers = ConcurrentHashMap.newKeySet();
+
+        // Requests issued while another is in flight are coalesced into a batch
+        scheduleConcurrently(PARAMETERS.NUM_ITERATIONS_LOW, t -> {
+            TokenResponse response = r.getSequencerView().nextToken(Collections.singleton(streamA), 1);
+            tokens.add(response.getTokenValue());
+            backpointers.add(response.getBackpointerMap().get(streamA));
+            r.getSequencerView().nextToken(Collections.singleton(streamA), 0);
+        });
+        executeScheduled(PARAMETERS.CONCURRENCY_SOME, PARAMETERS.TIMEOUT_NORMAL);
+
+        // Every token is issued once, and each one points back at the one issued before it
+        assertThat(tokens).hasSize(PARAMETERS.NUM_ITERATIONS_LOW);
+        assertThat(backpointers).hasSize(PARAMETERS.NUM_ITERATIONS_LOW)
+                .contains(Address.NON_EXIST)
+                .doesNotContain(PARAMETERS.NUM_ITERATIONS_LOW - 1L);
+        assertThat(r.getSequencerView().nextToken(Collections.singleton(streamA), 0).getTokenValue())
+                .isEqualTo(PARAMETERS.NUM_ITERATIONS_LOW - 1L);
+    }
+
+    @Test
+    public void tokensAreIncrementingWithoutBatching() {
+        CorfuRuntime r = getDefaultRuntime();
+        r.getParameters().setTokenBatchingDisabled(true);
+        assertThat(r.getSequencerView().nextToken(Collections.emptySet(), 1).getToken())
+                .isEqualTo(new Token(0L, 0L));
+        assertThat(r.getSequencerView().nextToken(Collections.emptySet(), 1).getToken())
+                .isEqualTo(new Token(1L, 0L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void mismatchedBatchFailsEveryRequest() throws Exception {
+        CorfuRuntime r = getDefaultRuntime();
+        final int batchSize = 2;
+        List<Thread> waiting = new ArrayList<>();
+        List<CompletableFuture<TokenResponse>> batched = new ArrayList<>();
+        AtomicBoolean issued = new AtomicBoolean(false);
+
+        // While the first request is in flight, issue the requests which are batched after it
+        addServerRule(SERVERS.PORT_0, new TestRule().matches(m -> {
+            if (m.getMsgType() == CorfuMsgType.TOKEN_RES && issued.compareAndSet(false, true)) {
+                for (int i = 0; i < batchSize; i++) {
+                    CompletableFuture<TokenResponse> response = new CompletableFuture<>();
+                    Thread t = new Thread(() -> {
+                        try {
+                            response.complete(r.getSequencerView().nextToken(Collections.emptySet(), 1));
+                        } catch (RuntimeException e) {
+                            response.completeExceptionally(e);
+                        }
+                    });
+                    t.start();
+                    waiting.add(t);
+                    batched.add(response);
+                }
+                while (!waiting.stream().allMatch(t -> t.getState() == Thread.State.WAITING)) {
+                    Thread.yield();
+                }
+            }
+            return false;
+        }));
+
+        // The batch is answered with one response less than it has requests
+        addServerRule(SERVERS.PORT_0, new TestRule()
+                .matches(m -> m.getMsgType() == CorfuMsgType.MULTIPLE_TOKEN_RES)
+                .transform(m -> ((CorfuPayloadMsg<MultipleTokenResponse>) m).getPayload()
+                        .getResponses().remove(0)));
+
+        assertThat(r.getSequencerView().nextToken(Collections.emptySet(), 1).getToken())
+                .isEqualTo(new Token(0L, 0L));
+        assertThat(batched).hasSize(batchSize);
+        for (CompletableFuture<TokenResponse> response : batched) {
+            assertThatThrownBy(() -> response.get(PARAMETERS.TIMEOUT_NORMAL.toMillis(), TimeUnit.MILLISECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(IllegalStateException.class);
+        }
+
+        // The failed batch is no longer in flight, so later requests are still sent
+        assertThat(r.getSequencerView().nextToken(Collections.emptySet(), 0).getToken())
+                .isEqualTo(new Token(batchSize, 0L));
+    }
 }